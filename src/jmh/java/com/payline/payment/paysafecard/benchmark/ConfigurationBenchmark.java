@@ -0,0 +1,62 @@
+package com.payline.payment.paysafecard.benchmark;
+
+import com.payline.payment.paysafecard.utils.BadFieldException;
+import com.payline.payment.paysafecard.utils.DataChecker;
+import com.payline.payment.paysafecard.utils.i18n.I18nService;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Contract checks and translations, used by the configuration and payment form services
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ConfigurationBenchmark {
+
+    private final I18nService i18n = I18nService.getInstance();
+    private final Locale french = Locale.FRENCH;
+    private final Locale japanese = Locale.JAPANESE;
+
+    @State(Scope.Benchmark)
+    public static class Countries {
+        // valid, valid in lower case, unknown, list
+        @Param({"FR", "zw", "ZZ", "FR,de, BE"})
+        private String country;
+    }
+
+    @Benchmark
+    public boolean verifyCountryRestriction(Countries countries) {
+        try {
+            DataChecker.verifyCountryRestriction(countries.country);
+            return true;
+        } catch (BadFieldException e) {
+            return false;
+        }
+    }
+
+    @Benchmark
+    public String getMessage() {
+        return i18n.getMessage("contract.authorisationKey.label", french);
+    }
+
+    @Benchmark
+    public String getMessageDefaultLanguage() {
+        // no translation file, falls back on the default one
+        return i18n.getMessage("contract.authorisationKey.label", japanese);
+    }
+}
@@ -0,0 +1,65 @@
+package com.payline.payment.paysafecard.benchmark;
+
+import com.google.gson.Gson;
+import com.payline.payment.paysafecard.bean.PaySafePaymentResponse;
+import com.payline.payment.paysafecard.utils.PaySafeErrorHandler;
+import com.payline.pmapi.bean.payment.response.impl.PaymentResponseFailure;
+import com.payline.pmapi.bean.refund.response.RefundResponse;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Mapping of the partner errors, with a known and an unknown error
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ErrorHandlerBenchmark {
+
+    @State(Scope.Benchmark)
+    public static class PaymentErrors {
+        @Param({"10028", "9999"})
+        private String number;
+        private PaySafePaymentResponse response;
+
+        @Setup
+        public void setup() {
+            response = new Gson().fromJson("{\"code\":\"invalid_request_parameter\",\"message\":\"must be greater than or equal to 1\",\"number\":" + number + "}", PaySafePaymentResponse.class);
+        }
+    }
+
+    @State(Scope.Benchmark)
+    public static class RefundErrors {
+        @Param({"payout_blocked", "dumb_error_code"})
+        private String code;
+        private PaySafePaymentResponse response;
+
+        @Setup
+        public void setup() {
+            response = new Gson().fromJson("{\"code\":\"" + code + "\",\"message\":\"Payout blocked due to security reasons\",\"number\":3195}", PaySafePaymentResponse.class);
+        }
+    }
+
+    @Benchmark
+    public PaymentResponseFailure findError(PaymentErrors errors) {
+        return PaySafeErrorHandler.findError(errors.response);
+    }
+
+    @Benchmark
+    public RefundResponse findRefundError(RefundErrors errors) {
+        return PaySafeErrorHandler.findRefundError(errors.response, Fixtures.PAYMENT_ID);
+    }
+}
@@ -0,0 +1,104 @@
+package com.payline.payment.paysafecard.benchmark;
+
+import com.payline.payment.paysafecard.utils.PaySafeCardConstants;
+import com.payline.pmapi.bean.common.Amount;
+import com.payline.pmapi.bean.common.Buyer;
+import com.payline.pmapi.bean.configuration.PartnerConfiguration;
+import com.payline.pmapi.bean.payment.Browser;
+import com.payline.pmapi.bean.payment.ContractConfiguration;
+import com.payline.pmapi.bean.payment.ContractProperty;
+import com.payline.pmapi.bean.payment.Environment;
+import com.payline.pmapi.bean.payment.Order;
+import com.payline.pmapi.bean.payment.request.PaymentRequest;
+import com.payline.pmapi.bean.refund.request.RefundRequest;
+
+import java.math.BigInteger;
+import java.util.Currency;
+import java.util.HashMap;
+import java.util.Locale;
+
+/**
+ * Requests and partner responses shared by the benchmarks
+ */
+final class Fixtures {
+    static final String AUTHORISATION_VAL = "psc_lPfXVyiPh2YI8mhEPN9V9Y5uXWKEEmC";
+    static final String CUSTOMER_ID = "776551327175";
+    static final String CUSTOMER_MAIL = "psc.test+mypins_monextrefund_TBqVTNc@paysafecard.com";
+    static final String NOTIFICATION_URL = "http://notificationurl.com/";
+    static final String SUCCESS_URL = "https://succesurl.com/";
+    static final String FAILURE_URL = "http://cancelurl.com/";
+    static final String PAYMENT_ID = "pay_1090000152_TfCMEiojeVl8rsOOHjLCqFKtladkigk7_EUR";
+
+    static final String PAYMENT_RESPONSE = "{" +
+            "\"object\":\"PAYMENT\"," +
+            "\"id\":\"" + PAYMENT_ID + "\"," +
+            "\"created\":1541512583385," +
+            "\"updated\":1541512586504," +
+            "\"amount\":10.00," +
+            "\"currency\":\"EUR\"," +
+            "\"status\":\"SUCCESS\"," +
+            "\"type\":\"PAYSAFECARD\"," +
+            "\"redirect\":{\"success_url\":\"" + SUCCESS_URL + "\",\"failure_url\":\"" + FAILURE_URL + "\",\"auth_url\":\"https://customer.test.at.paysafecard.com/psccustomer/GetCustomerPanelServlet?mid=1000005843\"}," +
+            "\"customer\":{\"id\":\"" + CUSTOMER_ID + "\"}," +
+            "\"notification_url\":\"" + NOTIFICATION_URL + "\"," +
+            "\"card_details\":[{\"serial\":\"1000007704\",\"currency\":\"EUR\",\"amount\":\"10.00\",\"type\":\"00022\",\"country\":\"FR\"}]" +
+            "}";
+
+    static final String ERROR_RESPONSE = "{\"code\":\"invalid_request_parameter\",\"message\":\"must be greater than or equal to 1\",\"number\":10028,\"param\":\"amount\"}";
+
+    private Fixtures() {
+    }
+
+    static ContractConfiguration createContractConfiguration() {
+        final ContractConfiguration contractConfiguration = new ContractConfiguration("PaySafeCard", new HashMap<>());
+        contractConfiguration.getContractProperties().put(PaySafeCardConstants.AUTHORISATIONKEY_KEY, new ContractProperty(AUTHORISATION_VAL));
+        contractConfiguration.getContractProperties().put(PaySafeCardConstants.MINAGE_KEY, new ContractProperty("18"));
+        contractConfiguration.getContractProperties().put(PaySafeCardConstants.KYCLEVEL_KEY, new ContractProperty("FULL"));
+        contractConfiguration.getContractProperties().put(PaySafeCardConstants.COUNTRYRESTRICTION_KEY, new ContractProperty("FR"));
+        return contractConfiguration;
+    }
+
+    static Environment createEnvironment() {
+        return new Environment(NOTIFICATION_URL, SUCCESS_URL, FAILURE_URL, true);
+    }
+
+    static Buyer createBuyer() {
+        return Buyer.BuyerBuilder.aBuyer()
+                .withCustomerIdentifier(CUSTOMER_ID)
+                .withEmail(CUSTOMER_MAIL)
+                .build();
+    }
+
+    static Amount createAmount() {
+        return new Amount(BigInteger.valueOf(1000), Currency.getInstance("EUR"));
+    }
+
+    static PaymentRequest createPaymentRequest() {
+        return PaymentRequest.builder()
+                .withAmount(createAmount())
+                .withBrowser(new Browser("", Locale.FRANCE))
+                .withContractConfiguration(createContractConfiguration())
+                .withEnvironment(createEnvironment())
+                .withOrder(Order.OrderBuilder.anOrder().withReference("transactionID").build())
+                .withLocale(Locale.FRANCE)
+                .withTransactionId("transactionID")
+                .withSoftDescriptor("softDescriptor")
+                .withPartnerConfiguration(new PartnerConfiguration(new HashMap<>(), new HashMap<>()))
+                .withBuyer(createBuyer())
+                .build();
+    }
+
+    static RefundRequest createRefundRequest() {
+        return RefundRequest.RefundRequestBuilder.aRefundRequest()
+                .withAmount(createAmount())
+                .withOrder(Order.OrderBuilder.anOrder().withReference("transactionID").build())
+                .withBuyer(createBuyer())
+                .withContractConfiguration(createContractConfiguration())
+                .withEnvironment(createEnvironment())
+                .withTransactionId("transactionID")
+                .withPartnerTransactionId(PAYMENT_ID)
+                .withSoftDescriptor("softDescriptor")
+                .withPartnerConfiguration(new PartnerConfiguration(new HashMap<>(), new HashMap<>()))
+                .build();
+    }
+}
@@ -0,0 +1,142 @@
+package com.payline.payment.paysafecard.benchmark;
+
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import com.google.gson.annotations.SerializedName;
+import com.google.gson.stream.JsonWriter;
+import com.payline.payment.paysafecard.bean.PaySafePaymentRequest;
+import com.payline.payment.paysafecard.bean.PaySafePaymentResponse;
+import com.payline.payment.paysafecard.bean.PaySafeRefundRequest;
+import com.payline.payment.paysafecard.bean.PaySafeRequest;
+import com.payline.payment.paysafecard.utils.InvalidRequestException;
+import com.payline.payment.paysafecard.utils.JsonBodyWriter;
+import org.apache.http.HttpEntity;
+import org.apache.http.entity.StringEntity;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Body of the partner calls: requests written with the type adapters of the beans, as PaySafeHttpClient does, against
+ * the reflective serialization of the same fields, and responses read from the response bytes.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class GsonBenchmark {
+
+    private final Gson gson = new GsonBuilder().create();
+
+    private PaySafePaymentRequest paymentRequest;
+    private PaySafeRefundRequest refundRequest;
+    private ReflectivePaymentRequest reflectivePaymentRequest;
+    private ReflectiveRefundRequest reflectiveRefundRequest;
+    private byte[] paymentResponse;
+    private byte[] errorResponse;
+
+    @Setup
+    public void setup() throws InvalidRequestException {
+        paymentRequest = new PaySafePaymentRequest(Fixtures.createPaymentRequest());
+        refundRequest = new PaySafeRefundRequest(Fixtures.createRefundRequest());
+        reflectivePaymentRequest = new ReflectivePaymentRequest();
+        reflectiveRefundRequest = new ReflectiveRefundRequest();
+        paymentResponse = Fixtures.PAYMENT_RESPONSE.getBytes(StandardCharsets.UTF_8);
+        errorResponse = Fixtures.ERROR_RESPONSE.getBytes(StandardCharsets.UTF_8);
+    }
+
+    @Benchmark
+    public HttpEntity initiateReflective() {
+        return new StringEntity(gson.toJson(reflectivePaymentRequest), StandardCharsets.UTF_8);
+    }
+
+    @Benchmark
+    public HttpEntity initiateTypeAdapter() throws IOException {
+        return write(paymentRequest);
+    }
+
+    @Benchmark
+    public HttpEntity refundReflective() {
+        return new StringEntity(gson.toJson(reflectiveRefundRequest), StandardCharsets.UTF_8);
+    }
+
+    @Benchmark
+    public HttpEntity refundTypeAdapter() throws IOException {
+        return write(refundRequest);
+    }
+
+    @Benchmark
+    public PaySafePaymentResponse readPaymentResponse() {
+        return read(paymentResponse);
+    }
+
+    @Benchmark
+    public PaySafePaymentResponse readErrorResponse() {
+        return read(errorResponse);
+    }
+
+    private PaySafePaymentResponse read(byte[] response) {
+        return gson.fromJson(new InputStreamReader(new ByteArrayInputStream(response), StandardCharsets.UTF_8), PaySafePaymentResponse.class);
+    }
+
+    private HttpEntity write(PaySafeRequest request) throws IOException {
+        final JsonBodyWriter body = new JsonBodyWriter();
+        try (JsonWriter writer = gson.newJsonWriter(body)) {
+            gson.toJson(request, request.getClass(), writer);
+        }
+        return body.toEntity();
+    }
+
+    /**
+     * Same fields as the request beans, without type adapter
+     */
+    static class ReflectivePaymentRequest {
+        private String type = "PAYSAFECARD";
+        private String amount = "10.00";
+        private String currency = "EUR";
+        private ReflectiveRedirect redirect = new ReflectiveRedirect();
+        @SerializedName("notification_url")
+        private String notificationUrl = Fixtures.NOTIFICATION_URL;
+        private ReflectiveCustomer customer = new ReflectiveCustomer();
+        @SerializedName("submerchant_id")
+        private String submerchantId;
+        @SerializedName("shop_id")
+        private String shopId;
+    }
+
+    static class ReflectiveRefundRequest extends ReflectivePaymentRequest {
+        private boolean capture;
+    }
+
+    static class ReflectiveRedirect {
+        @SerializedName("success_url")
+        private String successUrl = Fixtures.SUCCESS_URL;
+        @SerializedName("failure_url")
+        private String failureUrl = Fixtures.FAILURE_URL;
+    }
+
+    static class ReflectiveCustomer {
+        private String id = Fixtures.CUSTOMER_ID;
+        @SerializedName("min_age")
+        private String minAge = "18";
+        @SerializedName("kyc_level")
+        private String kycLevel = "FULL";
+        @SerializedName("country_restriction")
+        private String countryRestriction = "FR";
+    }
+}
@@ -0,0 +1,84 @@
+package com.payline.payment.paysafecard.benchmark;
+
+import com.payline.payment.paysafecard.bean.PaySafePaymentRequest;
+import com.payline.payment.paysafecard.bean.PaySafeRefundRequest;
+import com.payline.payment.paysafecard.bean.PaySafeRequest;
+import com.payline.payment.paysafecard.utils.InvalidRequestException;
+import com.payline.pmapi.bean.payment.request.PaymentRequest;
+import com.payline.pmapi.bean.refund.request.RefundRequest;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.math.BigInteger;
+import java.util.Currency;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Creation of the partner requests, done once per transaction
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class RequestBenchmark {
+
+    private final Currency euro = Currency.getInstance("EUR");
+    private final Currency yen = Currency.getInstance("JPY");
+    private PaymentRequest paymentRequest;
+    private RefundRequest refundRequest;
+
+    @Setup
+    public void setup() {
+        paymentRequest = Fixtures.createPaymentRequest();
+        refundRequest = Fixtures.createRefundRequest();
+    }
+
+    @Benchmark
+    public PaySafePaymentRequest createPaymentRequest() throws InvalidRequestException {
+        return new PaySafePaymentRequest(paymentRequest);
+    }
+
+    @Benchmark
+    public PaySafeRefundRequest createRefundRequest() throws InvalidRequestException {
+        return new PaySafeRefundRequest(refundRequest);
+    }
+
+    @State(Scope.Benchmark)
+    public static class Amounts {
+        // the last one does not fit in a long
+        @Param({"1", "1000", "123456789", "123456789012345678901234567890"})
+        private String value;
+        private BigInteger amount;
+
+        @Setup
+        public void setup() {
+            amount = new BigInteger(value);
+        }
+    }
+
+    @Benchmark
+    public String createAmount(Amounts amounts) {
+        return PaySafePaymentRequest.createAmount(amounts.amount, euro);
+    }
+
+    @Benchmark
+    public String createAmountJpy(Amounts amounts) {
+        return PaySafePaymentRequest.createAmount(amounts.amount, yen);
+    }
+
+    @Benchmark
+    public String encodeToBase64() {
+        return PaySafeRequest.encodeToBase64(Fixtures.AUTHORISATION_VAL);
+    }
+}
@@ -1,5 +1,13 @@
 package com.payline.payment.paysafecard.bean;
 
+import com.google.gson.TypeAdapter;
+import com.google.gson.annotations.JsonAdapter;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonWriter;
+
+import java.io.IOException;
+
+@JsonAdapter(CardDetail.Adapter.class)
 public class CardDetail {
     private String serial;
     private String type;
@@ -10,4 +18,50 @@ public class CardDetail {
     public String getSerial() {
         return serial;
     }
+
+    /**
+     * Reads and writes a card detail without reflection
+     */
+    public static final class Adapter extends TypeAdapter<CardDetail> {
+        @Override
+        public void write(JsonWriter out, CardDetail cardDetail) throws IOException {
+            out.beginObject();
+            out.name("serial").value(cardDetail.serial);
+            out.name("type").value(cardDetail.type);
+            out.name("country").value(cardDetail.country);
+            out.name("currency").value(cardDetail.currency);
+            out.name("amount").value(cardDetail.amount);
+            out.endObject();
+        }
+
+        @Override
+        public CardDetail read(JsonReader in) throws IOException {
+            final CardDetail cardDetail = new CardDetail();
+            in.beginObject();
+            while (in.hasNext()) {
+                switch (in.nextName()) {
+                    case "serial":
+                        cardDetail.serial = JsonHelper.nextString(in);
+                        break;
+                    case "type":
+                        cardDetail.type = JsonHelper.nextString(in);
+                        break;
+                    case "country":
+                        cardDetail.country = JsonHelper.nextString(in);
+                        break;
+                    case "currency":
+                        cardDetail.currency = JsonHelper.nextString(in);
+                        break;
+                    case "amount":
+                        cardDetail.amount = JsonHelper.nextString(in);
+                        break;
+                    default:
+                        in.skipValue();
+                        break;
+                }
+            }
+            in.endObject();
+            return cardDetail;
+        }
+    }
 }
@@ -1,8 +1,15 @@
 package com.payline.payment.paysafecard.bean;
 
+import com.google.gson.TypeAdapter;
+import com.google.gson.annotations.JsonAdapter;
 import com.google.gson.annotations.SerializedName;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonWriter;
 import com.payline.payment.paysafecard.utils.PaySafeCardConstants;
 
+import java.io.IOException;
+
+@JsonAdapter(Customer.Adapter.class)
 public class Customer {
     private String id;
     @SerializedName("min_age")
@@ -19,6 +26,9 @@ public class Customer {
         return email;
     }
 
+    private Customer() {
+    }
+
     public Customer(String id, String minAge, String kycLevel, String countryRestriction) {
         this.id = id;
         this.minAge = minAge;
@@ -31,4 +41,50 @@ public class Customer {
         this.id = id;
         this.email = email;
     }
-}
\ No newline at end of file
+
+    /**
+     * Reads and writes a customer without reflection
+     */
+    public static final class Adapter extends TypeAdapter<Customer> {
+        @Override
+        public void write(JsonWriter out, Customer customer) throws IOException {
+            out.beginObject();
+            out.name("id").value(customer.id);
+            out.name("min_age").value(customer.minAge);
+            out.name("kyc_level").value(customer.kycLevel);
+            out.name("country_restriction").value(customer.countryRestriction);
+            out.name("email").value(customer.email);
+            out.endObject();
+        }
+
+        @Override
+        public Customer read(JsonReader in) throws IOException {
+            final Customer customer = new Customer();
+            in.beginObject();
+            while (in.hasNext()) {
+                switch (in.nextName()) {
+                    case "id":
+                        customer.id = JsonHelper.nextString(in);
+                        break;
+                    case "min_age":
+                        customer.minAge = JsonHelper.nextString(in);
+                        break;
+                    case "kyc_level":
+                        customer.kycLevel = JsonHelper.nextString(in);
+                        break;
+                    case "country_restriction":
+                        customer.countryRestriction = JsonHelper.nextString(in);
+                        break;
+                    case "email":
+                        customer.email = JsonHelper.nextString(in);
+                        break;
+                    default:
+                        in.skipValue();
+                        break;
+                }
+            }
+            in.endObject();
+            return customer;
+        }
+    }
+}
@@ -0,0 +1,33 @@
+package com.payline.payment.paysafecard.bean;
+
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+
+import java.io.IOException;
+
+/**
+ * Read helpers shared by the type adapters of the beans
+ */
+final class JsonHelper {
+
+    private JsonHelper() {
+    }
+
+    /**
+     * Read a string value the way Gson does for String fields: numbers and booleans are kept as they are written
+     *
+     * @param in the reader, positioned on the value
+     * @return the value, or null if the value is null
+     */
+    static String nextString(JsonReader in) throws IOException {
+        final JsonToken token = in.peek();
+        if (token == JsonToken.NULL) {
+            in.nextNull();
+            return null;
+        }
+        if (token == JsonToken.BOOLEAN) {
+            return Boolean.toString(in.nextBoolean());
+        }
+        return in.nextString();
+    }
+}
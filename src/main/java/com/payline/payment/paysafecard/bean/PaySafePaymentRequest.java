@@ -1,7 +1,11 @@
 package com.payline.payment.paysafecard.bean;
 
+import com.google.gson.TypeAdapter;
 import com.google.gson.annotations.Expose;
+import com.google.gson.annotations.JsonAdapter;
 import com.google.gson.annotations.SerializedName;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonWriter;
 import com.payline.payment.paysafecard.utils.DataChecker;
 import com.payline.payment.paysafecard.utils.InvalidRequestException;
 import com.payline.payment.paysafecard.utils.PaySafeCardConstants;
@@ -13,9 +17,17 @@ import com.payline.pmapi.bean.payment.Environment;
 import com.payline.pmapi.bean.payment.request.PaymentRequest;
 import com.payline.pmapi.bean.refund.request.RefundRequest;
 
+import java.io.IOException;
+import java.math.BigInteger;
 import java.util.Currency;
 
+@JsonAdapter(PaySafePaymentRequest.Adapter.class)
 public class PaySafePaymentRequest extends PaySafeRequest {
+    private static final TypeAdapter<Redirect> REDIRECT_ADAPTER = new Redirect.Adapter().nullSafe();
+    private static final TypeAdapter<Customer> CUSTOMER_ADAPTER = new Customer.Adapter().nullSafe();
+    // sign, 19 digits of a long, decimal point and fraction digits: the currencies have at most 4 fraction digits
+    private static final ThreadLocal<char[]> AMOUNT_BUFFER = ThreadLocal.withInitial(() -> new char[32]);
+
     private String type = "PAYSAFECARD";
     private String amount;
     private String currency;
@@ -78,7 +90,7 @@ public class PaySafePaymentRequest extends PaySafeRequest {
         if (amount == null || amount.getAmountInSmallestUnit() == null || amount.getCurrency() == null) {
             throw new InvalidRequestException("PaySafeRequest must have an amount when created");
         } else {
-            this.amount = createAmount(amount.getAmountInSmallestUnit().intValue(), amount.getCurrency());
+            this.amount = createAmount(amount.getAmountInSmallestUnit(), amount.getCurrency());
         }
     }
 
@@ -111,12 +123,11 @@ public class PaySafePaymentRequest extends PaySafeRequest {
         }
 
         String countryRestriction = config.getProperty(PaySafeCardConstants.COUNTRYRESTRICTION_KEY) != null ? config.getProperty(PaySafeCardConstants.COUNTRYRESTRICTION_KEY).getValue() : null;
-        DataChecker.verifyCountryRestriction(countryRestriction);
 
         // verify fields
         DataChecker.verifyMinAge(minAge);
         DataChecker.verifyCountryRestriction(countryRestriction);
-        this.customer = new Customer(id, minAge, kycLevel, countryRestriction);
+        this.customer = new Customer(id, minAge, kycLevel, DataChecker.normalizeCountryRestriction(countryRestriction));
     }
 
 
@@ -127,21 +138,95 @@ public class PaySafePaymentRequest extends PaySafeRequest {
      * @return a string under the form xx.xx
      */
     public static String createAmount(int amount, Currency currency) {
-        int nbDigits = currency.getDefaultFractionDigits();
-        StringBuilder sb = new StringBuilder();
-        sb.append(amount);
+        return createAmount((long) amount, currency.getDefaultFractionDigits());
+    }
 
-        for (int i = sb.length(); i < 3; i++) {
-            sb.insert(0, "0");
+    /**
+     * create a String amount from an amount in the smallest unit of the currency
+     *
+     * @param amount
+     * @return a string with the number of fraction digits of the currency (ex: 10.00 EUR, 1000 JPY, 1.000 KWD)
+     */
+    public static String createAmount(BigInteger amount, Currency currency) {
+        final int nbDigits = currency.getDefaultFractionDigits();
+        if (amount.bitLength() < Long.SIZE) {
+            return createAmount(amount.longValue(), nbDigits);
         }
 
-        sb.insert(sb.length() - nbDigits, ".");
+        // too big for a long: rare enough to go through the decimal string
+        final StringBuilder sb = new StringBuilder(amount.abs().toString());
+        while (sb.length() <= nbDigits) {
+            sb.insert(0, '0');
+        }
+        if (nbDigits > 0) {
+            sb.insert(sb.length() - nbDigits, '.');
+        }
+        if (amount.signum() < 0) {
+            sb.insert(0, '-');
+        }
         return sb.toString();
     }
 
+    private static String createAmount(long amount, int nbDigits) {
+        final char[] buffer = AMOUNT_BUFFER.get();
+        int position = buffer.length;
+        // computed on the negative value, which also holds Long.MIN_VALUE
+        long value = amount > 0 ? -amount : amount;
+        for (int i = 0; i < nbDigits; i++) {
+            buffer[--position] = (char) ('0' - value % 10);
+            value /= 10;
+        }
+        if (nbDigits > 0) {
+            buffer[--position] = '.';
+        }
+        do {
+            buffer[--position] = (char) ('0' - value % 10);
+            value /= 10;
+        } while (value != 0);
+        if (amount < 0) {
+            buffer[--position] = '-';
+        }
+        return new String(buffer, position, buffer.length - position);
+    }
+
     public String getPaymentId() {
         return paymentId;
     }
 
+    /**
+     * Write the fields sent to the partner, the payment id is only used in the URL
+     *
+     * @param out the writer, inside the request object
+     */
+    void writeFields(JsonWriter out) throws IOException {
+        out.name("type").value(type);
+        out.name("amount").value(amount);
+        out.name("currency").value(currency);
+        out.name("redirect");
+        REDIRECT_ADAPTER.write(out, redirect);
+        out.name("notification_url").value(notificationUrl);
+        out.name("customer");
+        CUSTOMER_ADAPTER.write(out, customer);
+        out.name("submerchant_id").value(submerchantId);
+        out.name("shop_id").value(shopId);
+    }
+
+    /**
+     * Writes a payment or refund request without reflection.
+     * Requests are only sent to the partner: a JSON request is skipped when read.
+     */
+    public static final class Adapter extends TypeAdapter<PaySafePaymentRequest> {
+        @Override
+        public void write(JsonWriter out, PaySafePaymentRequest request) throws IOException {
+            out.beginObject();
+            request.writeFields(out);
+            out.endObject();
+        }
 
+        @Override
+        public PaySafePaymentRequest read(JsonReader in) throws IOException {
+            in.skipValue();
+            return null;
+        }
+    }
 }
@@ -1,9 +1,17 @@
 package com.payline.payment.paysafecard.bean;
 
+import com.google.gson.TypeAdapter;
+import com.google.gson.annotations.JsonAdapter;
 import com.google.gson.annotations.SerializedName;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.google.gson.stream.JsonWriter;
 
+import java.io.IOException;
+import java.util.ArrayList;
 import java.util.List;
 
+@JsonAdapter(PaySafePaymentResponse.Adapter.class)
 public class PaySafePaymentResponse {
     // fields used in payment response
     private String object;
@@ -106,4 +114,128 @@ public class PaySafePaymentResponse {
     public String getRedirectURL() {
         return this.getRedirect().getAuthUrl();
     }
+
+    /**
+     * Reads and writes a response in a single pass, without reflection.
+     * Used by the HTTP client to decode the response directly from the response stream.
+     */
+    public static final class Adapter extends TypeAdapter<PaySafePaymentResponse> {
+        private static final TypeAdapter<Redirect> REDIRECT_ADAPTER = new Redirect.Adapter().nullSafe();
+        private static final TypeAdapter<Customer> CUSTOMER_ADAPTER = new Customer.Adapter().nullSafe();
+        private static final TypeAdapter<CardDetail> CARD_DETAIL_ADAPTER = new CardDetail.Adapter().nullSafe();
+
+        @Override
+        public void write(JsonWriter out, PaySafePaymentResponse response) throws IOException {
+            out.beginObject();
+            out.name("object").value(response.object);
+            out.name("id").value(response.id);
+            out.name("created").value(response.created);
+            out.name("updated").value(response.updated);
+            out.name("amount").value(response.amount);
+            out.name("currency").value(response.currency);
+            out.name("status").value(response.status);
+            out.name("type").value(response.type);
+            out.name("redirect");
+            REDIRECT_ADAPTER.write(out, response.redirect);
+            out.name("customer");
+            CUSTOMER_ADAPTER.write(out, response.customer);
+            out.name("notification_url").value(response.notificationUrl);
+            out.name("subMerchant_id").value(response.subMerchantId);
+            out.name("card_details");
+            if (response.cardDetails == null) {
+                out.nullValue();
+            } else {
+                out.beginArray();
+                for (CardDetail cardDetail : response.cardDetails) {
+                    CARD_DETAIL_ADAPTER.write(out, cardDetail);
+                }
+                out.endArray();
+            }
+            out.name("code").value(response.code);
+            out.name("message").value(response.message);
+            out.name("number").value(response.number);
+            out.name("param").value(response.param);
+            out.endObject();
+        }
+
+        @Override
+        public PaySafePaymentResponse read(JsonReader in) throws IOException {
+            final PaySafePaymentResponse response = new PaySafePaymentResponse();
+            in.beginObject();
+            while (in.hasNext()) {
+                switch (in.nextName()) {
+                    case "object":
+                        response.object = JsonHelper.nextString(in);
+                        break;
+                    case "id":
+                        response.id = JsonHelper.nextString(in);
+                        break;
+                    case "created":
+                        response.created = JsonHelper.nextString(in);
+                        break;
+                    case "updated":
+                        response.updated = JsonHelper.nextString(in);
+                        break;
+                    case "amount":
+                        response.amount = JsonHelper.nextString(in);
+                        break;
+                    case "currency":
+                        response.currency = JsonHelper.nextString(in);
+                        break;
+                    case "status":
+                        response.status = JsonHelper.nextString(in);
+                        break;
+                    case "type":
+                        response.type = JsonHelper.nextString(in);
+                        break;
+                    case "redirect":
+                        response.redirect = REDIRECT_ADAPTER.read(in);
+                        break;
+                    case "customer":
+                        response.customer = CUSTOMER_ADAPTER.read(in);
+                        break;
+                    case "notification_url":
+                        response.notificationUrl = JsonHelper.nextString(in);
+                        break;
+                    case "subMerchant_id":
+                        response.subMerchantId = JsonHelper.nextString(in);
+                        break;
+                    case "card_details":
+                        response.cardDetails = readCardDetails(in);
+                        break;
+                    case "code":
+                        response.code = JsonHelper.nextString(in);
+                        break;
+                    case "message":
+                        response.message = JsonHelper.nextString(in);
+                        break;
+                    case "number":
+                        response.number = JsonHelper.nextString(in);
+                        break;
+                    case "param":
+                        response.param = JsonHelper.nextString(in);
+                        break;
+                    default:
+                        in.skipValue();
+                        break;
+                }
+            }
+            in.endObject();
+            return response;
+        }
+
+        private static List<CardDetail> readCardDetails(JsonReader in) throws IOException {
+            if (in.peek() == JsonToken.NULL) {
+                in.nextNull();
+                return null;
+            }
+            final List<CardDetail> cardDetails = new ArrayList<>();
+            in.beginArray();
+            while (in.hasNext()) {
+                cardDetails.add(CARD_DETAIL_ADAPTER.read(in));
+            }
+            in.endArray();
+            return cardDetails;
+        }
+    }
 }
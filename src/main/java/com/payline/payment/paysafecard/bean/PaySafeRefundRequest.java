@@ -1,8 +1,13 @@
 package com.payline.payment.paysafecard.bean;
 
+import com.google.gson.annotations.JsonAdapter;
+import com.google.gson.stream.JsonWriter;
 import com.payline.payment.paysafecard.utils.InvalidRequestException;
 import com.payline.pmapi.bean.refund.request.RefundRequest;
 
+import java.io.IOException;
+
+@JsonAdapter(PaySafePaymentRequest.Adapter.class)
 public class PaySafeRefundRequest extends PaySafePaymentRequest {
     private boolean capture;
 
@@ -14,4 +19,10 @@ public class PaySafeRefundRequest extends PaySafePaymentRequest {
     public void setCapture(boolean capture) {
         this.capture = capture;
     }
+
+    @Override
+    void writeFields(JsonWriter out) throws IOException {
+        out.name("capture").value(capture);
+        super.writeFields(out);
+    }
 }
@@ -2,27 +2,34 @@ package com.payline.payment.paysafecard.bean;
 
 import com.payline.payment.paysafecard.utils.InvalidRequestException;
 import com.payline.payment.paysafecard.utils.PaySafeCardConstants;
+import com.payline.payment.paysafecard.utils.PaySafeHeaders;
 import com.payline.pmapi.bean.payment.ContractConfiguration;
-
-import java.util.Base64;
+import org.apache.http.Header;
 
 public abstract class PaySafeRequest {
-    private transient String authenticationHeader;
+    // the headers are shared with the other requests of the contract, see PaySafeHeaders
+    private transient Header[] headers;
 
     PaySafeRequest(ContractConfiguration configuration) throws InvalidRequestException {
         if (configuration == null || configuration.getProperty(PaySafeCardConstants.AUTHORISATIONKEY_KEY).getValue() == null) {
             throw new InvalidRequestException("PaySafeRequest must have an authorisation key when created");
         } else {
-            this.authenticationHeader = "Basic " + encodeToBase64(configuration.getProperty(PaySafeCardConstants.AUTHORISATIONKEY_KEY).getValue());
+            this.headers = PaySafeHeaders.get(configuration.getProperty(PaySafeCardConstants.AUTHORISATIONKEY_KEY).getValue());
         }
     }
 
     public String getAuthenticationHeader() {
-        return authenticationHeader;
+        return headers[1].getValue();
+    }
+
+    /**
+     * @return a copy of the Content-Type and Authorization headers
+     */
+    public Header[] getHeaders() {
+        return headers.clone();
     }
 
     public static String encodeToBase64(String toEncode) {
-        if (toEncode == null) toEncode = "";
-        return Base64.getEncoder().encodeToString(toEncode.getBytes());
+        return PaySafeHeaders.encodeToBase64(toEncode);
     }
 }
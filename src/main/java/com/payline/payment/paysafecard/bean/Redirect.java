@@ -1,9 +1,16 @@
 package com.payline.payment.paysafecard.bean;
 
+import com.google.gson.TypeAdapter;
+import com.google.gson.annotations.JsonAdapter;
 import com.google.gson.annotations.SerializedName;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonWriter;
 import com.payline.payment.paysafecard.utils.InvalidRequestException;
 import com.payline.pmapi.bean.payment.Environment;
 
+import java.io.IOException;
+
+@JsonAdapter(Redirect.Adapter.class)
 public class Redirect {
     @SerializedName("success_url")
     private String successUrl;
@@ -12,6 +19,9 @@ public class Redirect {
     @SerializedName("auth_url")
     private String authUrl;
 
+    private Redirect() {
+    }
+
     Redirect(Environment environment) throws InvalidRequestException {
         if (environment.getRedirectionReturnURL() == null) {
             throw new InvalidRequestException("PaySafeRequest must have a success url when created");
@@ -26,4 +36,42 @@ public class Redirect {
     public String getAuthUrl() {
         return authUrl;
     }
+
+    /**
+     * Reads and writes a redirect without reflection
+     */
+    public static final class Adapter extends TypeAdapter<Redirect> {
+        @Override
+        public void write(JsonWriter out, Redirect redirect) throws IOException {
+            out.beginObject();
+            out.name("success_url").value(redirect.successUrl);
+            out.name("failure_url").value(redirect.failureUrl);
+            out.name("auth_url").value(redirect.authUrl);
+            out.endObject();
+        }
+
+        @Override
+        public Redirect read(JsonReader in) throws IOException {
+            final Redirect redirect = new Redirect();
+            in.beginObject();
+            while (in.hasNext()) {
+                switch (in.nextName()) {
+                    case "success_url":
+                        redirect.successUrl = JsonHelper.nextString(in);
+                        break;
+                    case "failure_url":
+                        redirect.failureUrl = JsonHelper.nextString(in);
+                        break;
+                    case "auth_url":
+                        redirect.authUrl = JsonHelper.nextString(in);
+                        break;
+                    default:
+                        in.skipValue();
+                        break;
+                }
+            }
+            in.endObject();
+            return redirect;
+        }
+    }
 }
@@ -12,15 +12,23 @@ import com.payline.pmapi.bean.configuration.parameter.impl.InputParameter;
 import com.payline.pmapi.bean.configuration.parameter.impl.ListBoxParameter;
 import com.payline.pmapi.bean.configuration.parameter.impl.PasswordParameter;
 import com.payline.pmapi.bean.configuration.request.ContractParametersCheckRequest;
+import com.payline.pmapi.bean.payment.ContractConfiguration;
 import com.payline.pmapi.service.ConfigurationService;
 import com.payline.pmapi.logger.LogManager;
 import org.apache.logging.log4j.Logger;
 
 import java.io.IOException;
-import java.net.URISyntaxException;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.time.LocalDate;
 import java.time.format.DateTimeFormatter;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
 
 import static com.payline.payment.paysafecard.utils.PaySafeCardConstants.*;
 import static com.payline.payment.paysafecard.utils.properties.constants.ConfigurationConstants.PAYMENT_METHOD_NAME;
@@ -28,21 +36,70 @@ import static com.payline.payment.paysafecard.utils.properties.constants.Configu
 public class ConfigurationServiceImpl implements ConfigurationService {
     private static final Logger LOGGER = LogManager.getLogger(ConfigurationServiceImpl.class);
 
+    /**
+     * Messages shown with the contract parameters
+     */
+    private static final String[] MESSAGE_KEYS = {MERCHANT_NAME_LABEL, MERCHANT_ID_LABEL, AUTHORISATIONKEY_LABEL,
+            AUTHORISATIONKEY_DESCRIPTION, SETTLEMENT_LABEL, MINAGE_LABEL, KYCLEVEL_SIMPLE_VAL, KYCLEVEL_FULL_VAL,
+            KYCLEVEL_LABEL, COUNTRYRESTRICTION_LABEL, COUNTRYRESTRICTION_DESCRIPTION, DIRECT_REFUND_NO_VAL,
+            DIRECT_REFUND_YES_VAL, DIRECT_REFUND_LABEL};
+
+    /**
+     * Translated messages per language, built at startup for the translated languages
+     */
+    private static final Map<String, Map<String, String>> MESSAGES;
+    // the other languages get the default messages
+    private static final Map<String, String> DEFAULT_MESSAGES;
+
+    static {
+        final I18nService i18nService = I18nService.getInstance();
+        final Map<String, Map<String, String>> messages = new HashMap<>();
+        for (Locale locale : i18nService.getLocales()) {
+            messages.put(locale.getLanguage(), createMessages(i18nService, locale));
+        }
+        MESSAGES = Collections.unmodifiableMap(messages);
+        DEFAULT_MESSAGES = createMessages(i18nService, null);
+    }
+
+    /**
+     * Results of the partner checks, keyed by a hash of the checked credentials and parameters.
+     * A success is kept longer than a rejection, which the merchant is likely to fix quickly.
+     */
+    private static final int CHECK_CACHE_SIZE = 1000;
+    private static final long CHECK_SUCCESS_TTL = TimeUnit.MINUTES.toMillis(10);
+    private static final long CHECK_FAILURE_TTL = TimeUnit.MINUTES.toMillis(1);
+    private static final TtlCache<String, Map<String, String>> CHECK_CACHE = new TtlCache<>(CHECK_CACHE_SIZE);
+
     private final I18nService i18n;
-    private PaySafeHttpClient httpClient;
 
     public ConfigurationServiceImpl() {
         i18n = I18nService.getInstance();
     }
 
+    /**
+     * The messages only depend on the language: they are translated once per language, and the parameters are built
+     * from them on each call, since the caller may modify them.
+     */
     @Override
     public List<AbstractParameter> getParameters(Locale locale) {
+        return createParameters(locale == null ? DEFAULT_MESSAGES : MESSAGES.getOrDefault(locale.getLanguage(), DEFAULT_MESSAGES));
+    }
+
+    private static Map<String, String> createMessages(I18nService i18n, Locale locale) {
+        final Map<String, String> messages = new HashMap<>();
+        for (String key : MESSAGE_KEYS) {
+            messages.put(key, i18n.getMessage(key, locale));
+        }
+        return Collections.unmodifiableMap(messages);
+    }
+
+    private static List<AbstractParameter> createParameters(Map<String, String> messages) {
         List<AbstractParameter> parameters = new ArrayList<>();
 
         // Merchant name
         final InputParameter merchantName = new InputParameter();
         merchantName.setKey(PaySafeCardConstants.MERCHANT_NAME_KEY);
-        merchantName.setLabel(i18n.getMessage(MERCHANT_NAME_LABEL, locale));
+        merchantName.setLabel(messages.get(MERCHANT_NAME_LABEL));
         merchantName.setRequired(true);
 
         parameters.add(merchantName);
@@ -50,7 +107,7 @@ public class ConfigurationServiceImpl implements ConfigurationService {
         // Mid
         final InputParameter merchantId = new InputParameter();
         merchantId.setKey(PaySafeCardConstants.MERCHANT_ID_KEY);
-        merchantId.setLabel(i18n.getMessage(MERCHANT_ID_LABEL, locale));
+        merchantId.setLabel(messages.get(MERCHANT_ID_LABEL));
         merchantId.setRequired(true);
 
         parameters.add(merchantId);
@@ -58,8 +115,8 @@ public class ConfigurationServiceImpl implements ConfigurationService {
         // authorisation key
         final PasswordParameter authorisationKey = new PasswordParameter();
         authorisationKey.setKey(PaySafeCardConstants.AUTHORISATIONKEY_KEY);
-        authorisationKey.setLabel(i18n.getMessage(AUTHORISATIONKEY_LABEL, locale));
-        authorisationKey.setDescription(i18n.getMessage(AUTHORISATIONKEY_DESCRIPTION, locale));
+        authorisationKey.setLabel(messages.get(AUTHORISATIONKEY_LABEL));
+        authorisationKey.setDescription(messages.get(AUTHORISATIONKEY_DESCRIPTION));
         authorisationKey.setRequired(true);
 
         parameters.add(authorisationKey);
@@ -67,7 +124,7 @@ public class ConfigurationServiceImpl implements ConfigurationService {
         //settlement key
         final PasswordParameter settlementKey = new PasswordParameter();
         settlementKey.setKey(PaySafeCardConstants.SETTLEMENT_KEY);
-        settlementKey.setLabel(i18n.getMessage(SETTLEMENT_LABEL, locale));
+        settlementKey.setLabel(messages.get(SETTLEMENT_LABEL));
         settlementKey.setRequired(false);
 
         parameters.add(settlementKey);
@@ -75,19 +132,19 @@ public class ConfigurationServiceImpl implements ConfigurationService {
         // age limit
         final InputParameter minAge = new InputParameter();
         minAge.setKey(PaySafeCardConstants.MINAGE_KEY);
-        minAge.setLabel(i18n.getMessage(MINAGE_LABEL, locale));
+        minAge.setLabel(messages.get(MINAGE_LABEL));
         minAge.setRequired(false);
 
         parameters.add(minAge);
 
         // kyc level
         Map<String, String> kycLevelMap = new HashMap<>();
-        kycLevelMap.put(PaySafeCardConstants.KYCLEVEL_SIMPLE_KEY, i18n.getMessage(KYCLEVEL_SIMPLE_VAL, locale));
-        kycLevelMap.put(PaySafeCardConstants.KYCLEVEL_FULL_KEY, i18n.getMessage(KYCLEVEL_FULL_VAL, locale));
+        kycLevelMap.put(PaySafeCardConstants.KYCLEVEL_SIMPLE_KEY, messages.get(KYCLEVEL_SIMPLE_VAL));
+        kycLevelMap.put(PaySafeCardConstants.KYCLEVEL_FULL_KEY, messages.get(KYCLEVEL_FULL_VAL));
 
         final ListBoxParameter kycLevel = new ListBoxParameter();
         kycLevel.setKey(PaySafeCardConstants.KYCLEVEL_KEY);
-        kycLevel.setLabel(i18n.getMessage(KYCLEVEL_LABEL, locale));
+        kycLevel.setLabel(messages.get(KYCLEVEL_LABEL));
         kycLevel.setList(kycLevelMap);
         kycLevel.setRequired(false);
 
@@ -96,17 +153,114 @@ public class ConfigurationServiceImpl implements ConfigurationService {
         // country restriction
         final InputParameter countryRestriction = new InputParameter();
         countryRestriction.setKey(PaySafeCardConstants.COUNTRYRESTRICTION_KEY);
-        countryRestriction.setLabel(i18n.getMessage(COUNTRYRESTRICTION_LABEL, locale));
-        countryRestriction.setDescription(i18n.getMessage(COUNTRYRESTRICTION_DESCRIPTION, locale));
+        countryRestriction.setLabel(messages.get(COUNTRYRESTRICTION_LABEL));
+        countryRestriction.setDescription(messages.get(COUNTRYRESTRICTION_DESCRIPTION));
         countryRestriction.setRequired(false);
 
         parameters.add(countryRestriction);
 
+        // refund in a single call, without validation call
+        Map<String, String> directRefundMap = new HashMap<>();
+        directRefundMap.put(PaySafeCardConstants.DIRECT_REFUND_NO_KEY, messages.get(DIRECT_REFUND_NO_VAL));
+        directRefundMap.put(PaySafeCardConstants.DIRECT_REFUND_YES_KEY, messages.get(DIRECT_REFUND_YES_VAL));
+
+        final ListBoxParameter directRefund = new ListBoxParameter();
+        directRefund.setKey(PaySafeCardConstants.DIRECT_REFUND_KEY);
+        directRefund.setLabel(messages.get(DIRECT_REFUND_LABEL));
+        directRefund.setList(directRefundMap);
+        directRefund.setRequired(false);
+
+        parameters.add(directRefund);
+
         return parameters;
     }
 
     @Override
     public Map<String, String> check(ContractParametersCheckRequest contractParametersCheckRequest) {
+        Map<String, String> errors = checkFields(contractParametersCheckRequest);
+
+        // if there is some errors, stop the process and return them
+        if (errors.size() > 0) {
+            return errors;
+        }
+
+        return checkPartner(contractParametersCheckRequest, createCheckKey(contractParametersCheckRequest));
+    }
+
+    /**
+     * Check many contracts at once. The fields of every contract are checked first, then the partner is called once per
+     * distinct set of checked parameters, with at most {@code concurrency} calls at the same time.
+     *
+     * @param contractParametersCheckRequests the contracts to check
+     * @param concurrency                     the maximum number of simultaneous partner calls
+     * @return the errors of each contract, in the order of the requests
+     */
+    public List<Map<String, String>> check(Collection<ContractParametersCheckRequest> contractParametersCheckRequests, int concurrency) {
+        if (concurrency < 1) {
+            throw new IllegalArgumentException("concurrency must be at least 1");
+        }
+        final List<ContractParametersCheckRequest> requests = new ArrayList<>(contractParametersCheckRequests);
+        final List<Map<String, String>> results = new ArrayList<>(Collections.nCopies(requests.size(), null));
+
+        // indexes of the requests to check with the partner, per set of checked parameters
+        final Map<String, List<Integer>> partnerChecks = new LinkedHashMap<>();
+        for (int i = 0; i < requests.size(); i++) {
+            final Map<String, String> errors = checkFields(requests.get(i));
+            if (errors.isEmpty()) {
+                partnerChecks.computeIfAbsent(createCheckKey(requests.get(i)), k -> new ArrayList<>()).add(i);
+            } else {
+                results.set(i, errors);
+            }
+        }
+        if (partnerChecks.isEmpty()) {
+            return results;
+        }
+
+        // at most concurrency checks in flight, each released when its response is handled
+        final Semaphore permits = new Semaphore(concurrency);
+        final Map<String, CompletableFuture<Map<String, String>>> futures = new HashMap<>();
+        try {
+            for (Map.Entry<String, List<Integer>> partnerCheck : partnerChecks.entrySet()) {
+                final ContractParametersCheckRequest request = requests.get(partnerCheck.getValue().get(0));
+                permits.acquire();
+                futures.put(partnerCheck.getKey(), checkPartnerAsync(request, partnerCheck.getKey())
+                        .whenComplete((errors, throwable) -> permits.release()));
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        for (Map.Entry<String, List<Integer>> partnerCheck : partnerChecks.entrySet()) {
+            final Future<Map<String, String>> future = futures.get(partnerCheck.getKey());
+            final Map<String, String> errors = future == null ? createGenericError("interrupted") : getErrors(future);
+            for (Integer index : partnerCheck.getValue()) {
+                results.set(index, new HashMap<>(errors));
+            }
+        }
+        return results;
+    }
+
+    private static Map<String, String> getErrors(Future<Map<String, String>> future) {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return createGenericError("interrupted");
+        } catch (ExecutionException e) {
+            LOGGER.error("unable to check the connection", e.getCause());
+            return createGenericError(e.getCause().getMessage());
+        }
+    }
+
+    private static Map<String, String> createGenericError(String message) {
+        final Map<String, String> errors = new HashMap<>();
+        errors.put(ContractParametersCheckRequest.GENERIC_ERROR, message);
+        return errors;
+    }
+
+    /**
+     * @return the errors of the contract fields, checked without calling the partner
+     */
+    private Map<String, String> checkFields(ContractParametersCheckRequest contractParametersCheckRequest) {
         Map<String, String> errors = new HashMap<>();
         Locale locale = contractParametersCheckRequest.getLocale();
 
@@ -127,9 +281,18 @@ public class ConfigurationServiceImpl implements ConfigurationService {
             errors.put(e.getField(), i18n.getMessage(e.getMessage(), locale));
         }
 
-        // if there is some errors, stop the process and return them
-        if (errors.size() > 0) {
-            return errors;
+        return errors;
+    }
+
+    /**
+     * @param cacheKey the key given by {@link #createCheckKey(ContractParametersCheckRequest)}
+     * @return the errors returned by the partner, or the cached ones if the same parameters have been checked recently
+     */
+    private Map<String, String> checkPartner(ContractParametersCheckRequest contractParametersCheckRequest, String cacheKey) {
+        // the same parameters have been checked recently
+        final Map<String, String> cachedErrors = CHECK_CACHE.get(cacheKey);
+        if (cachedErrors != null) {
+            return new HashMap<>(cachedErrors);
         }
 
         try {
@@ -138,25 +301,134 @@ public class ConfigurationServiceImpl implements ConfigurationService {
 
             // do the request
             Boolean isSandbox = contractParametersCheckRequest.getEnvironment().isSandbox();
-            httpClient = PaySafeHttpClient.getInstance(contractParametersCheckRequest.getPartnerConfiguration());
-            PaySafePaymentResponse response = httpClient.initiate(checkRequest, isSandbox);
-
-            // check response object
-            if (response.getCode() != null) {
-                findErrors(response, errors);
-            }
-
-        } catch (IOException | URISyntaxException e) {
+            PaySafeHttpClient httpClient = getHttpClient(contractParametersCheckRequest);
+            return getErrors(httpClient.initiate(checkRequest, isSandbox), cacheKey);
+        } catch (IOException e) {
             LOGGER.error("unable to check the connection", e);
-            errors.put(ContractParametersCheckRequest.GENERIC_ERROR, e.getMessage());
+            return createGenericError(e.getMessage());
         }catch ( InvalidRequestException e) {
             LOGGER.info("unable to check the connection", e.getMessage());
-            errors.put(ContractParametersCheckRequest.GENERIC_ERROR, e.getMessage());
+            return createGenericError(e.getMessage());
         }
+    }
 
+    /**
+     * Asynchronous version of {@link #checkPartner}: the returned future completes with the errors, never exceptionally.
+     */
+    private CompletableFuture<Map<String, String>> checkPartnerAsync(ContractParametersCheckRequest contractParametersCheckRequest, String cacheKey) {
+        // the same parameters have been checked recently
+        final Map<String, String> cachedErrors = CHECK_CACHE.get(cacheKey);
+        if (cachedErrors != null) {
+            return CompletableFuture.completedFuture(new HashMap<>(cachedErrors));
+        }
+
+        final PaySafePaymentRequest checkRequest;
+        try {
+            checkRequest = new PaySafePaymentRequest(contractParametersCheckRequest);
+        } catch (InvalidRequestException e) {
+            LOGGER.info("unable to check the connection", e.getMessage());
+            return CompletableFuture.completedFuture(createGenericError(e.getMessage()));
+        }
+
+        final boolean isSandbox = contractParametersCheckRequest.getEnvironment().isSandbox();
+        return getHttpClient(contractParametersCheckRequest).initiateAsync(checkRequest, isSandbox).handle((response, throwable) -> {
+            if (throwable == null) {
+                return getErrors(response, cacheKey);
+            }
+            final Throwable cause = PaySafeErrorHandler.unwrap(throwable);
+            LOGGER.error("unable to check the connection", cause);
+            return createGenericError(cause.getMessage());
+        });
+    }
+
+    private Map<String, String> getErrors(PaySafePaymentResponse response, String cacheKey) {
+        final Map<String, String> errors = new HashMap<>();
+        // check response object
+        if (response.getCode() != null) {
+            findErrors(response, errors);
+        }
+
+        // only the verdicts on the parameters are kept, not the partner failures nor the communication errors
+        if (isVerdict(response)) {
+            CHECK_CACHE.put(cacheKey, Collections.unmodifiableMap(new HashMap<>(errors)), errors.isEmpty() ? CHECK_SUCCESS_TTL : CHECK_FAILURE_TTL);
+        }
         return errors;
     }
 
+    /**
+     * @return true if the response accepts the parameters, or rejects the authorisation key or another parameter
+     */
+    private static boolean isVerdict(PaySafePaymentResponse response) {
+        if (response.getCode() == null) {
+            return true;
+        }
+        switch (response.getCode()) {
+            case "invalid_api_key":
+            case "invalid_request_parameter":
+            case "invalid_restriction":
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    public PaySafeHttpClient getHttpClient(final ContractParametersCheckRequest contractParametersCheckRequest) {
+        return PaySafeHttpClient.getInstance(contractParametersCheckRequest.getPartnerConfiguration());
+    }
+
+    /**
+     * Forget the cached result of the check of these parameters, so that the next check calls the partner
+     */
+    public void invalidateCheck(ContractParametersCheckRequest contractParametersCheckRequest) {
+        CHECK_CACHE.invalidate(createCheckKey(contractParametersCheckRequest));
+    }
+
+    /**
+     * Forget all the cached check results
+     */
+    public void invalidateChecks() {
+        CHECK_CACHE.invalidateAll();
+    }
+
+    /**
+     * @return a SHA-256 of the parameters sent to the partner by the check, so that the authorisation key is not kept in memory
+     */
+    static String createCheckKey(ContractParametersCheckRequest contractParametersCheckRequest) {
+        final ContractConfiguration configuration = contractParametersCheckRequest.getContractConfiguration();
+        final boolean isSandbox = contractParametersCheckRequest.getEnvironment() != null && contractParametersCheckRequest.getEnvironment().isSandbox();
+        return hash(getValue(configuration, AUTHORISATIONKEY_KEY), String.valueOf(isSandbox), getValue(configuration, MINAGE_KEY),
+                getValue(configuration, KYCLEVEL_KEY), getValue(configuration, COUNTRYRESTRICTION_KEY));
+    }
+
+    /**
+     * @return the hexadecimal SHA-256 of the values, so that a cache key does not keep the authorisation key in memory
+     */
+    static String hash(String... values) {
+        final MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            // every Java platform supports SHA-256
+            throw new IllegalStateException(e);
+        }
+        for (String value : values) {
+            if (value != null) {
+                digest.update(value.getBytes(StandardCharsets.UTF_8));
+            }
+            // separator, which also tells a null value from an empty one
+            digest.update(value == null ? (byte) 1 : (byte) 0);
+        }
+        final StringBuilder key = new StringBuilder(64);
+        for (byte b : digest.digest()) {
+            key.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+        }
+        return key.toString();
+    }
+
+    static String getValue(ContractConfiguration configuration, String key) {
+        return configuration == null || configuration.getProperty(key) == null ? null : configuration.getProperty(key).getValue();
+    }
+
     @Override
     public ReleaseInformation getReleaseInformation() {
         LocalDate date = LocalDate.parse(ReleaseProperties.INSTANCE.get(ConfigurationConstants.RELEASE_DATE),
@@ -11,11 +11,6 @@ import com.payline.pmapi.service.PaymentFormConfigurationService;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 
-import javax.imageio.ImageIO;
-import java.awt.image.BufferedImage;
-import java.io.ByteArrayOutputStream;
-import java.io.IOException;
-import java.io.InputStream;
 import java.util.Locale;
 
 import static com.payline.payment.paysafecard.utils.properties.constants.LogoConstants.*;
@@ -34,29 +29,11 @@ public interface DefaultPaymentFormConfigurationService extends PaymentFormConfi
                 .build();
     }
 
+    /**
+     * The logo is read once, see {@link LogoCache}
+     */
     @Override
     default PaymentFormLogo getLogo(String s, Locale locale) {
-        String fileName = LogoProperties.INSTANCE.get(LOGO_FILE_NAME);
-        InputStream input = PaymentFormConfigurationServiceImpl.class.getClassLoader().getResourceAsStream(fileName);
-        if (input == null) {
-            LOGGER.error("Unable to load the logo {}", LOGO_FILE_NAME);
-            throw new RuntimeException("Unable to load the logo " + LOGO_FILE_NAME);
-        }
-        try {
-            // Read logo file
-            BufferedImage logo = ImageIO.read(input);
-
-            // Recover byte array from image
-            ByteArrayOutputStream baos = new ByteArrayOutputStream();
-            ImageIO.write(logo, LogoProperties.INSTANCE.get(LOGO_FORMAT), baos);
-
-            return PaymentFormLogo.PaymentFormLogoBuilder.aPaymentFormLogo()
-                    .withFile(baos.toByteArray())
-                    .withContentType(LogoProperties.INSTANCE.get(LOGO_CONTENT_TYPE))
-                    .build();
-        } catch (IOException e) {
-            LOGGER.error("Unable to load the logo", e);
-            throw new RuntimeException(e);
-        }
+        return LogoCache.INSTANCE.getLogo();
     }
 }
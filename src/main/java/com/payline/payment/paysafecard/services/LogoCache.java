@@ -0,0 +1,132 @@
+package com.payline.payment.paysafecard.services;
+
+import com.payline.payment.paysafecard.utils.properties.service.LogoProperties;
+import com.payline.pmapi.bean.paymentform.bean.PaymentFormLogo;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import javax.imageio.ImageIO;
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import static com.payline.payment.paysafecard.utils.properties.constants.LogoConstants.*;
+
+/**
+ * Logo served by {@link DefaultPaymentFormConfigurationService#getLogo}: logo.properties is parsed and the file read once.
+ * The file bytes are served as is when the image has the size given in logo.properties, otherwise the image is scaled once.
+ * Each call gets its own {@link PaymentFormLogo} and copy of the bytes, which the caller may modify.
+ */
+enum LogoCache {
+
+    INSTANCE;
+
+    private static final Logger LOGGER = LogManager.getLogger(LogoCache.class);
+
+    private final int width;
+    private final int height;
+    private final String contentType;
+    private final String fileName;
+    private final String format;
+    private final Object lock = new Object();
+    private volatile byte[] file;
+    private volatile BufferedImage image;
+    // the file bytes per size (width x height)
+    private final Map<Long, byte[]> files = new ConcurrentHashMap<>();
+
+    LogoCache() {
+        width = Integer.parseInt(LogoProperties.INSTANCE.get(LOGO_WIDTH));
+        height = Integer.parseInt(LogoProperties.INSTANCE.get(LOGO_HEIGHT));
+        contentType = LogoProperties.INSTANCE.get(LOGO_CONTENT_TYPE);
+        fileName = LogoProperties.INSTANCE.get(LOGO_FILE_NAME);
+        format = LogoProperties.INSTANCE.get(LOGO_FORMAT);
+    }
+
+    /**
+     * @return the logo, with the size given in logo.properties
+     */
+    PaymentFormLogo getLogo() {
+        return getLogo(width, height);
+    }
+
+    /**
+     * @return the logo scaled to this size, computed on first call
+     */
+    PaymentFormLogo getLogo(int width, int height) {
+        final Long key = ((long) width << 32) | height;
+        byte[] bytes = files.get(key);
+        if (bytes == null) {
+            bytes = files.computeIfAbsent(key, k -> createFile(width, height));
+        }
+        return PaymentFormLogo.PaymentFormLogoBuilder.aPaymentFormLogo()
+                .withFile(bytes.clone())
+                .withContentType(contentType)
+                .build();
+    }
+
+    private byte[] createFile(int width, int height) {
+        loadFile();
+        return image.getWidth() == width && image.getHeight() == height ? file : scale(width, height);
+    }
+
+    /**
+     * Read the file, only once. On failure, the next call tries again.
+     */
+    private void loadFile() {
+        if (file != null) {
+            return;
+        }
+        synchronized (lock) {
+            if (file != null) {
+                return;
+            }
+            try (InputStream input = LogoCache.class.getClassLoader().getResourceAsStream(fileName)) {
+                if (input == null) {
+                    LOGGER.error("Unable to load the logo {}", fileName);
+                    throw new RuntimeException("Unable to load the logo " + fileName);
+                }
+                final ByteArrayOutputStream baos = new ByteArrayOutputStream();
+                final byte[] buffer = new byte[4096];
+                int read;
+                while ((read = input.read(buffer)) != -1) {
+                    baos.write(buffer, 0, read);
+                }
+                final byte[] bytes = baos.toByteArray();
+                final BufferedImage decoded = ImageIO.read(new ByteArrayInputStream(bytes));
+                if (decoded == null) {
+                    throw new IOException("Unsupported image format: " + fileName);
+                }
+                image = decoded;
+                file = bytes;
+            } catch (IOException e) {
+                LOGGER.error("Unable to load the logo", e);
+                throw new RuntimeException(e);
+            }
+        }
+    }
+
+    private byte[] scale(int width, int height) {
+        final BufferedImage scaled = new BufferedImage(width, height, BufferedImage.TYPE_INT_ARGB);
+        final Graphics2D graphics = scaled.createGraphics();
+        try {
+            graphics.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BICUBIC);
+            graphics.drawImage(image, 0, 0, width, height, null);
+        } finally {
+            graphics.dispose();
+        }
+        try {
+            final ByteArrayOutputStream baos = new ByteArrayOutputStream();
+            ImageIO.write(scaled, format, baos);
+            return baos.toByteArray();
+        } catch (IOException e) {
+            LOGGER.error("Unable to scale the logo", e);
+            throw new RuntimeException(e);
+        }
+    }
+}
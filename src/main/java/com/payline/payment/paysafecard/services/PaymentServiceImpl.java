@@ -16,31 +16,55 @@ import com.payline.pmapi.logger.LogManager;
 import org.apache.logging.log4j.Logger;
 
 import java.io.IOException;
-import java.net.URISyntaxException;
+import java.net.MalformedURLException;
 import java.net.URL;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 
 public class PaymentServiceImpl implements PaymentService {
     private static final Logger LOGGER = LogManager.getLogger(PaymentServiceImpl.class);
 
-    private PaySafeHttpClient httpClient;
-
 
     @Override
     public PaymentResponse paymentRequest(PaymentRequest paymentRequest) {
+        return paymentRequestAsync(paymentRequest).join();
+    }
+
+    /**
+     * Non blocking version of {@link #paymentRequest(PaymentRequest)}: no thread waits for the partner response
+     *
+     * @param paymentRequest the payment request
+     * @return a future completed with the payment response
+     */
+    public CompletableFuture<PaymentResponse> paymentRequestAsync(PaymentRequest paymentRequest) {
         try {
             // create the PaySAfeCard payment request
             PaySafePaymentRequest request = new PaySafePaymentRequest(paymentRequest);
 
             Boolean isSandbox = paymentRequest.getEnvironment().isSandbox();
-            httpClient = PaySafeHttpClient.getInstance(paymentRequest.getPartnerConfiguration());
-            PaySafePaymentResponse response = httpClient.initiate(request, isSandbox);
+            PaySafeHttpClient httpClient = getHttpClient(paymentRequest);
+            return httpClient.initiateAsync(request, isSandbox)
+                    .thenApply(this::createResponse)
+                    .exceptionally(this::handleException);
+
+        } catch (InvalidRequestException e) {
+            LOGGER.info("wrong request when init the payment", e.getMessage());
+            return CompletableFuture.completedFuture(PaySafeErrorHandler.getPaymentResponseFailure(e.getMessage(), FailureCause.INVALID_DATA));
+        }
+    }
+
+    public PaySafeHttpClient getHttpClient(final PaymentRequest paymentRequest) {
+        return PaySafeHttpClient.getInstance(paymentRequest.getPartnerConfiguration());
+    }
 
-            // check response object
-            if (response.getCode() != null) {
-                return PaySafeErrorHandler.findError(response);
-            } else {
+    private PaymentResponse createResponse(PaySafePaymentResponse response) {
+        // check response object
+        if (response.getCode() != null) {
+            return PaySafeErrorHandler.findError(response);
+        } else {
+            try {
                 // get the url to get
                 URL redirectURL = new URL(response.getRedirectURL());
                 //get a  object which contains the url to get redirection Builder
@@ -60,15 +84,19 @@ public class PaymentServiceImpl implements PaymentService {
                         .withStatusCode(response.getStatus())
                         .withRequestContext(requestContext)
                         .build();
+            } catch (MalformedURLException e) {
+                throw new CompletionException(e);
             }
+        }
+    }
 
-        } catch (IOException |URISyntaxException e) {
+    private PaymentResponse handleException(Throwable throwable) {
+        Throwable cause = PaySafeErrorHandler.unwrap(throwable);
+        if (cause instanceof IOException) {
             String errorMessage = "Networks error when init the payment";
-            LOGGER.error(errorMessage, e);
-            return PaySafeErrorHandler.getPaymentResponseFailure(errorMessage, FailureCause.COMMUNICATION_ERROR);
-        } catch (InvalidRequestException e) {
-            LOGGER.info("wrong request when init the payment", e.getMessage());
-            return PaySafeErrorHandler.getPaymentResponseFailure(e.getMessage(), FailureCause.INVALID_DATA);
+            LOGGER.error(errorMessage, cause);
+            return PaySafeErrorHandler.getPaymentResponseFailure(PaySafeErrorHandler.getErrorCode((IOException) cause, errorMessage), PaySafeErrorHandler.getFailureCause((IOException) cause, FailureCause.COMMUNICATION_ERROR));
         }
+        throw throwable instanceof CompletionException ? (CompletionException) throwable : new CompletionException(throwable);
     }
 }
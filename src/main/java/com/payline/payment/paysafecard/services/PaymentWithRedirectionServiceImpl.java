@@ -14,7 +14,14 @@ import com.payline.pmapi.service.PaymentWithRedirectionService;
 import org.apache.logging.log4j.Logger;
 
 import java.io.IOException;
-import java.net.URISyntaxException;
+import java.util.Collection;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.BiConsumer;
 
 import static com.payline.payment.paysafecard.utils.PaySafeCardConstants.DEFAULT_EMAIL;
 import static com.payline.payment.paysafecard.utils.PaySafeCardConstants.DEFAULT_SUCCESS_STATUS_CODE;
@@ -22,7 +29,20 @@ import static com.payline.payment.paysafecard.utils.PaySafeCardConstants.DEFAULT
 public class PaymentWithRedirectionServiceImpl implements PaymentWithRedirectionService {
     private static final Logger LOGGER = LogManager.getLogger(PaymentWithRedirectionServiceImpl.class);
 
-    private PaySafeHttpClient httpClient;
+    // number of second calls done, and not done, by the finalization compared to an unconditional second call
+    private static final LongAdder finalizeRepolls = new LongAdder();
+    private static final LongAdder finalizeSavedCalls = new LongAdder();
+
+    private volatile PollingSchedule pollingSchedule = PollingSchedule.PollingScheduleBuilder.aPollingSchedule().build();
+    // the buyer is waiting: one short wait, only for the statuses which may still change
+    private volatile PollingSchedule finalizeSchedule = PollingSchedule.PollingScheduleBuilder.aPollingSchedule()
+            .withPendingDelay(PaySafeCardConstants.STATUS_INITIATED, 300)
+            .withPendingDelay(PaySafeCardConstants.STATUS_REDIRECTED, 300)
+            .withPendingDelay(PaySafeCardConstants.STATUS_AUTHORIZED, 300)
+            .withErrorDelay(300)
+            .withMaxPolls(2)
+            .withDeadline(5000)
+            .build();
 
     @Override
     public PaymentResponse finalizeRedirectionPayment(RedirectionPaymentRequest redirectionPaymentRequest) {
@@ -30,14 +50,7 @@ public class PaymentWithRedirectionServiceImpl implements PaymentWithRedirection
             PaySafeCaptureRequest request = createRequest(redirectionPaymentRequest);
             boolean isSandbox = redirectionPaymentRequest.getEnvironment().isSandbox();
 
-            // first try
-            PaymentResponse response = validatePayment(request, isSandbox);
-            if (PaymentResponseSuccess.class.equals(response.getClass())) {
-                return response;
-            } else {
-                // second try
-                return validatePayment(request, isSandbox);
-            }
+            return finalizePaymentAsync(request, isSandbox, finalizeSchedule, 1, System.currentTimeMillis()).join();
 
         } catch (InvalidRequestException e) {
             LOGGER.info("unable to finalize the payment", e.getMessage());
@@ -51,13 +64,64 @@ public class PaymentWithRedirectionServiceImpl implements PaymentWithRedirection
             PaySafeCaptureRequest request = createRequest(transactionStatusRequest);
             boolean isSandbox = transactionStatusRequest.getEnvironment().isSandbox();
 
-            return validatePayment(request, isSandbox);
+            return validatePaymentAsync(request, isSandbox).join();
         } catch (InvalidRequestException e) {
             LOGGER.info("unable to handle the session expiration", e.getMessage());
             return PaySafeErrorHandler.getPaymentResponseFailure(e.getMessage(), FailureCause.INVALID_DATA);
         }
     }
 
+    /**
+     * Reconcile a batch of pending payments: each payment is polled until it reaches a final status, following the
+     * polling schedule, and captured as soon as it is authorized.
+     *
+     * @param requests    the payments to reconcile
+     * @param isSandbox   true to call the sandbox environment
+     * @param concurrency the maximum number of payments being called at the same time
+     * @param listener    called with the payment id and the payment response as soon as each payment is settled
+     * @return a future completed once all the payments are settled
+     */
+    public CompletableFuture<Void> reconcile(Collection<PaySafeCaptureRequest> requests, boolean isSandbox, int concurrency,
+                                             BiConsumer<String, PaymentResponse> listener) {
+        if (concurrency < 1) {
+            throw new IllegalArgumentException("concurrency must be at least 1");
+        }
+        return new Reconciliation(isSandbox, concurrency, requests.size(), pollingSchedule, listener).start(requests);
+    }
+
+    /**
+     * @return the number of extra calls done by the finalization because the payment was still pending
+     */
+    public static long getFinalizeRepolls() {
+        return finalizeRepolls.sum();
+    }
+
+    /**
+     * @return the number of extra calls avoided by the finalization because the first outcome was final
+     */
+    public static long getFinalizeSavedCalls() {
+        return finalizeSavedCalls.sum();
+    }
+
+    public PollingSchedule getFinalizeSchedule() {
+        return finalizeSchedule;
+    }
+
+    /**
+     * @param finalizeSchedule the waits between the calls done while the buyer is redirected back to the merchant
+     */
+    public void setFinalizeSchedule(PollingSchedule finalizeSchedule) {
+        this.finalizeSchedule = finalizeSchedule;
+    }
+
+    public PollingSchedule getPollingSchedule() {
+        return pollingSchedule;
+    }
+
+    public void setPollingSchedule(PollingSchedule pollingSchedule) {
+        this.pollingSchedule = pollingSchedule;
+    }
+
     /**
      * Used for test (mocking)
      *
@@ -106,32 +170,209 @@ public class PaymentWithRedirectionServiceImpl implements PaymentWithRedirection
                 .build();
     }
 
-    private PaymentResponse validatePayment(PaySafeCaptureRequest request, boolean isSandbox) {
-        try {
-            // retrieve payment data
-            httpClient = PaySafeHttpClient.getInstance(request.getPartnerConfiguration());
-            PaySafePaymentResponse response = httpClient.retrievePaymentData(request, isSandbox);
-            if (response.getCode() != null) {
-                return PaySafeErrorHandler.findError(response);
-            } else {
-                // check if the payment has to be captured
-                if (PaySafeCardConstants.STATUS_AUTHORIZED.equals(response.getStatus())) {
-                    response = httpClient.capture(request, isSandbox);
-                }
+    public PaySafeHttpClient getHttpClient(final PaySafeCaptureRequest request) {
+        return PaySafeHttpClient.getInstance(request.getPartnerConfiguration());
+    }
 
-                if (response.getCode() != null) {
-                    return PaySafeErrorHandler.findError(response);
+    /**
+     * Retrieve the payment data then capture it if needed, without blocking a thread while waiting for the partner
+     *
+     * @param request   the capture request
+     * @param isSandbox true to call the sandbox environment
+     * @return a future completed with the payment response
+     */
+    public CompletableFuture<PaymentResponse> validatePaymentAsync(PaySafeCaptureRequest request, boolean isSandbox) {
+        return retrieveAndCaptureAsync(request, isSandbox)
+                .thenApply(this::createResponse)
+                .exceptionally(this::handleException);
+    }
+
+    /**
+     * Validate the payment, then validate it again after a wait while its outcome may still change
+     */
+    private CompletableFuture<PaymentResponse> finalizePaymentAsync(PaySafeCaptureRequest request, boolean isSandbox, PollingSchedule schedule,
+                                                                    int poll, long start) {
+        return retrieveAndCaptureAsync(request, isSandbox)
+                .handle((response, throwable) -> {
+                    final long delay = getPollDelay(schedule, poll, response, throwable, getHttpClient(request).getRetryPolicy());
+                    if (schedule.hasNextPoll(poll, System.currentTimeMillis() - start, delay)) {
+                        finalizeRepolls.increment();
+                        return PaySafeScheduler.delay(delay).thenCompose(v -> finalizePaymentAsync(request, isSandbox, schedule, poll + 1, start));
+                    }
+                    if (poll == 1 && delay < 0 && !isSuccess(response)) {
+                        finalizeSavedCalls.increment();
+                    }
+                    return CompletableFuture.completedFuture(throwable == null ? createResponse(response) : handleException(throwable));
+                })
+                .thenCompose(future -> future);
+    }
+
+    /**
+     * Retrieve the payment data then capture it if needed, without blocking a thread while waiting for the partner
+     */
+    private CompletableFuture<PaySafePaymentResponse> retrieveAndCaptureAsync(PaySafeCaptureRequest request, boolean isSandbox) {
+        // retrieve payment data
+        PaySafeHttpClient httpClient = getHttpClient(request);
+        return httpClient.retrievePaymentDataAsync(request, isSandbox)
+                .thenCompose(response -> {
+                    // check if the payment has to be captured
+                    if (response.getCode() == null && PaySafeCardConstants.STATUS_AUTHORIZED.equals(response.getStatus())) {
+                        return httpClient.captureAsync(request, isSandbox);
+                    }
+                    return CompletableFuture.completedFuture(response);
+                });
+    }
+
+    /**
+     * @return the delay before polling the payment again, -1 if its outcome is final
+     */
+    private static long getPollDelay(PollingSchedule schedule, int poll, PaySafePaymentResponse response, Throwable throwable, RetryPolicy retryPolicy) {
+        if (throwable != null) {
+            // transient communication errors only: a call refused by the client (circuit breaker open, rate limit...)
+            // would only be refused again, and the other exceptions are bugs
+            final Throwable cause = PaySafeErrorHandler.unwrap(throwable);
+            return cause instanceof IOException && !PaySafeErrorHandler.isRejected(cause)
+                    && retryPolicy.isRetryable(PaySafeOperation.RETRIEVE, (IOException) cause) ? schedule.getDelay(null, poll) : -1;
+        }
+        if (response.getCode() != null || response.getStatus() == null) {
+            return -1;
+        }
+        return schedule.getDelay(response.getStatus(), poll);
+    }
+
+    private static boolean isSuccess(PaySafePaymentResponse response) {
+        return response != null && response.getCode() == null && PaySafeCardConstants.STATUS_SUCCESS.equals(response.getStatus());
+    }
+
+    private PaymentResponse createResponse(PaySafePaymentResponse response) {
+        if (response.getCode() != null) {
+            return PaySafeErrorHandler.findError(response);
+        }
+        // check if the payment is well captured
+        if (PaySafeCardConstants.STATUS_SUCCESS.equals(response.getStatus())) {
+            return createResponseSuccess(response);
+        } else {
+            return getErrorFromStatus(response.getStatus());
+        }
+    }
+
+    private PaymentResponse handleException(Throwable throwable) {
+        Throwable cause = PaySafeErrorHandler.unwrap(throwable);
+        if (cause instanceof IOException) {
+            LOGGER.error("unable to validate the payment", cause);
+            return PaySafeErrorHandler.getPaymentResponseFailure(PaySafeErrorHandler.getErrorCode((IOException) cause, cause.getMessage()), PaySafeErrorHandler.getFailureCause((IOException) cause, FailureCause.COMMUNICATION_ERROR));
+        }
+        throw throwable instanceof CompletionException ? (CompletionException) throwable : new CompletionException(throwable);
+    }
+
+    /**
+     * State of a reconciliation. The partner calls waiting for a free slot are queued, and started by whichever
+     * thread frees a slot, without recursion when the calls complete immediately.
+     */
+    private final class Reconciliation {
+        private final boolean isSandbox;
+        private final int concurrency;
+        private final PollingSchedule schedule;
+        private final BiConsumer<String, PaymentResponse> listener;
+        private final Queue<Runnable> waiting = new ConcurrentLinkedQueue<>();
+        private final AtomicInteger running = new AtomicInteger();
+        // number of drain requests, only the thread which moves it from 0 drains the queue
+        private final AtomicInteger drainRequests = new AtomicInteger();
+        private final AtomicInteger remaining;
+        private final CompletableFuture<Void> done = new CompletableFuture<>();
+
+        private Reconciliation(boolean isSandbox, int concurrency, int size, PollingSchedule schedule, BiConsumer<String, PaymentResponse> listener) {
+            this.isSandbox = isSandbox;
+            this.concurrency = concurrency;
+            this.schedule = schedule;
+            this.listener = listener;
+            this.remaining = new AtomicInteger(size);
+        }
+
+        private CompletableFuture<Void> start(Collection<PaySafeCaptureRequest> requests) {
+            if (requests.isEmpty()) {
+                done.complete(null);
+            }
+            final long start = System.currentTimeMillis();
+            for (PaySafeCaptureRequest request : requests) {
+                waiting.add(() -> poll(request, 1, start));
+            }
+            drain();
+            return done;
+        }
+
+        private void drain() {
+            if (drainRequests.getAndIncrement() != 0) {
+                return;
+            }
+            int missed = 1;
+            do {
+                Runnable call;
+                while (running.get() < concurrency && (call = waiting.poll()) != null) {
+                    running.incrementAndGet();
+                    call.run();
                 }
-                // check if the payment is well captured
-                if (PaySafeCardConstants.STATUS_SUCCESS.equals(response.getStatus())) {
-                    return createResponseSuccess(response);
-                } else {
-                    return getErrorFromStatus(response.getStatus());
+                missed = drainRequests.addAndGet(-missed);
+            } while (missed != 0);
+        }
+
+        private void submit(Runnable call) {
+            waiting.add(call);
+            drain();
+        }
+
+        private void poll(PaySafeCaptureRequest request, int poll, long start) {
+            CompletableFuture<PaySafePaymentResponse> future;
+            try {
+                future = retrieveAndCaptureAsync(request, isSandbox);
+            } catch (RuntimeException e) {
+                future = new CompletableFuture<>();
+                future.completeExceptionally(e);
+            }
+            future.whenComplete((response, throwable) -> {
+                running.decrementAndGet();
+                try {
+                    onResult(request, poll, start, response, throwable);
+                } catch (RuntimeException e) {
+                    LOGGER.error("unable to reconcile the payment {}", request.getPaymentId(), e);
+                    settle(request, PaySafeErrorHandler.getPaymentResponseFailure(String.valueOf(e.getMessage()), FailureCause.INTERNAL_ERROR));
                 }
+                drain();
+            });
+        }
+
+        private void onResult(PaySafeCaptureRequest request, int poll, long start, PaySafePaymentResponse response, Throwable throwable) {
+            final Throwable cause = throwable == null ? null : PaySafeErrorHandler.unwrap(throwable);
+            final boolean communicationError = cause instanceof IOException;
+            final long delay = getPollDelay(schedule, poll, response, throwable, getHttpClient(request).getRetryPolicy());
+            if (schedule.hasNextPoll(poll, System.currentTimeMillis() - start, delay)) {
+                LOGGER.debug("payment {} polled again in {}ms [STATUS: {}]", request.getPaymentId(), delay, response == null ? cause : response.getStatus());
+                PaySafeScheduler.delay(delay).thenRun(() -> submit(() -> poll(request, poll + 1, start)));
+                return;
+            }
+
+            PaymentResponse paymentResponse;
+            if (throwable == null) {
+                paymentResponse = createResponse(response);
+            } else if (communicationError) {
+                LOGGER.error("unable to reconcile the payment {}", request.getPaymentId(), cause);
+                paymentResponse = PaySafeErrorHandler.getPaymentResponseFailure(PaySafeErrorHandler.getErrorCode((IOException) cause, cause.getMessage()), PaySafeErrorHandler.getFailureCause((IOException) cause, FailureCause.COMMUNICATION_ERROR));
+            } else {
+                LOGGER.error("unable to reconcile the payment {}", request.getPaymentId(), cause);
+                paymentResponse = PaySafeErrorHandler.getPaymentResponseFailure(String.valueOf(cause.getMessage()), FailureCause.INTERNAL_ERROR);
+            }
+            settle(request, paymentResponse);
+        }
+
+        private void settle(PaySafeCaptureRequest request, PaymentResponse response) {
+            try {
+                listener.accept(request.getPaymentId(), response);
+            } catch (RuntimeException e) {
+                LOGGER.error("reconciliation listener failed for the payment {}", request.getPaymentId(), e);
+            }
+            if (remaining.decrementAndGet() == 0) {
+                done.complete(null);
             }
-        } catch (IOException | URISyntaxException e) {
-            LOGGER.error("unable to validate the payment", e);
-            return PaySafeErrorHandler.getPaymentResponseFailure(e.getMessage(), FailureCause.COMMUNICATION_ERROR);
         }
     }
 }
@@ -2,11 +2,21 @@ package com.payline.payment.paysafecard.services;
 
 import com.payline.payment.paysafecard.bean.PaySafePaymentResponse;
 import com.payline.payment.paysafecard.bean.PaySafeRefundRequest;
+import com.payline.payment.paysafecard.utils.BulkheadFullException;
+import com.payline.payment.paysafecard.utils.CircuitBreakerOpenException;
+import com.payline.payment.paysafecard.utils.DeadlineExceededException;
 import com.payline.payment.paysafecard.utils.InvalidRequestException;
 import com.payline.payment.paysafecard.utils.PaySafeCardConstants;
 import com.payline.payment.paysafecard.utils.PaySafeErrorHandler;
 import com.payline.payment.paysafecard.utils.PaySafeHttpClient;
+import com.payline.payment.paysafecard.utils.PaySafeScheduler;
+import com.payline.payment.paysafecard.utils.RateLimitExceededException;
+import com.payline.payment.paysafecard.utils.TokenBucket;
+import com.payline.payment.paysafecard.utils.TtlCache;
+import com.payline.pmapi.bean.common.Amount;
+import com.payline.pmapi.bean.common.Buyer;
 import com.payline.pmapi.bean.common.FailureCause;
+import com.payline.pmapi.bean.payment.ContractProperty;
 import com.payline.pmapi.bean.refund.request.RefundRequest;
 import com.payline.pmapi.bean.refund.response.RefundResponse;
 import com.payline.pmapi.bean.refund.response.impl.RefundResponseSuccess;
@@ -15,13 +25,27 @@ import com.payline.pmapi.logger.LogManager;
 import org.apache.logging.log4j.Logger;
 
 import java.io.IOException;
-import java.net.URISyntaxException;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.BiConsumer;
+import java.util.stream.Stream;
 
 import static com.payline.payment.paysafecard.utils.PaySafeCardConstants.DEFAULT_SUCCESS_STATUS_CODE;
 
 public class RefundServiceImpl implements RefundService {
     private static final Logger LOGGER = LogManager.getLogger(RefundServiceImpl.class);
 
+    // a validated refund whose capture failed is captured without validating it again, if retried soon enough
+    private static final long VALIDATION_TTL = 2 * 60 * 1000L;
+    private static final TtlCache<String, Boolean> VALIDATIONS = new TtlCache<>(1000);
+    private static final LongAdder oneCallRefunds = new LongAdder();
+    private static final LongAdder twoCallRefunds = new LongAdder();
+
     private PaySafeHttpClient httpClient;
 
     @Override
@@ -32,37 +56,199 @@ public class RefundServiceImpl implements RefundService {
             PaySafeRefundRequest request = createRequest(refundRequest);
 
             httpClient = getHttpClient(refundRequest);
-            PaySafePaymentResponse response = httpClient.refund(request, isSandbox);
+            PaySafePaymentResponse response;
+
+            // validation call, unless the contract opts in to direct refunds or the refund has just been validated
+            final String validationKey = getValidationKey(refundRequest);
+            final boolean validated = isValidated(validationKey);
+            if (!validated) {
+                response = httpClient.refund(request, isSandbox);
 
-            if (response.getCode() != null) {
-                return PaySafeErrorHandler.findRefundError(response, transactionId);
-            } else if (!PaySafeCardConstants.STATUS_REFUND_SUCCESS.equals(response.getStatus())) {
-                return PaySafeErrorHandler.getRefundResponseFailure(response.getStatus(),  FailureCause.PARTNER_UNKNOWN_ERROR, transactionId);
+                RefundResponse failure = checkValidation(response, validationKey, transactionId);
+                if (failure != null) {
+                    return failure;
+                }
             }
 
             updateRequest(request);
+            (validated ? oneCallRefunds : twoCallRefunds).increment();
             response = httpClient.refund(request, isSandbox);
 
-            if (response.getCode() != null) {
-                return PaySafeErrorHandler.findRefundError(response, transactionId);
-            } else if (!PaySafeCardConstants.STATUS_SUCCESS.equals(response.getStatus())) {
-                return PaySafeErrorHandler.getRefundResponseFailure(response.getStatus(), FailureCause.PARTNER_UNKNOWN_ERROR, transactionId);
-            }
+            return createResponse(response, validationKey, transactionId);
+        } catch (IOException e) {
+            return handleException(e, transactionId);
+        } catch (InvalidRequestException e) {
+            LOGGER.info("unable to refund the payment", e.getMessage());
+            return PaySafeErrorHandler.getRefundResponseFailure(e.getMessage(), FailureCause.CANCEL, transactionId);
+        }
+    }
+
+    /**
+     * Refund a batch of payments (ex: an end of day refund file), without blocking a thread while waiting for the partner.
+     * <ul>
+     * <li>the requests are read from the stream only when there is room for them, so the stream can be much bigger
+     * than the number of refunds in flight</li>
+     * <li>the calls of each merchant are paced by a token bucket, shared by the refunds of the same authorisation key:
+     * a refund is only started once its merchant has a token, and the stream is not read while it waits</li>
+     * </ul>
+     *
+     * @param refundRequests the refunds
+     * @param maxInFlight    the maximum number of refunds in flight at the same time, for all the merchants
+     * @param rate           the number of calls per second allowed per authorisation key
+     * @param burst          the number of calls per authorisation key which can be sent at once
+     * @param listener       called with each refund request and its response, in completion order
+     * @return a future completed once all the refunds are done
+     */
+    public CompletableFuture<Void> refundAll(Stream<RefundRequest> refundRequests, int maxInFlight, double rate, int burst,
+                                             BiConsumer<RefundRequest, RefundResponse> listener) {
+        if (maxInFlight < 1) {
+            throw new IllegalArgumentException("maxInFlight must be at least 1");
+        }
+        return new RefundBatch(refundRequests.iterator(), maxInFlight, rate, burst, listener).start();
+    }
+
+    /**
+     * Validate then capture the refund, each call waiting for a token of the bucket
+     */
+    private CompletableFuture<RefundResponse> refundAsync(RefundRequest refundRequest, TokenBucket bucket) {
+        final String transactionId = refundRequest.getTransactionId();
+        final boolean isSandbox;
+        final PaySafeRefundRequest request;
+        final PaySafeHttpClient client;
+        try {
+            isSandbox = refundRequest.getEnvironment().isSandbox();
+            request = createRequest(refundRequest);
+            client = getHttpClient(refundRequest);
+        } catch (InvalidRequestException e) {
+            LOGGER.info("unable to refund the payment", e.getMessage());
+            return CompletableFuture.completedFuture(PaySafeErrorHandler.getRefundResponseFailure(e.getMessage(), FailureCause.CANCEL, transactionId));
+        } catch (RuntimeException e) {
+            LOGGER.error("unable to refund the payment", e);
+            return CompletableFuture.completedFuture(PaySafeErrorHandler.getRefundResponseFailure(String.valueOf(e.getMessage()), FailureCause.INTERNAL_ERROR, transactionId));
+        }
 
-            // refund Success
-            return RefundResponseSuccess.RefundResponseSuccessBuilder.aRefundResponseSuccess()
-                    .withStatusCode(DEFAULT_SUCCESS_STATUS_CODE)
-                    .withPartnerTransactionId(transactionId)
-                    .build();
+        final String validationKey = getValidationKey(refundRequest);
+        final boolean validated = isValidated(validationKey);
+        final CompletableFuture<RefundResponse> validation = validated ? CompletableFuture.completedFuture(null)
+                : throttle(bucket).thenCompose(v -> client.refundAsync(request, isSandbox))
+                .thenApply(response -> checkValidation(response, validationKey, transactionId));
 
+        return validation
+                .thenCompose(failure -> {
+                    if (failure != null) {
+                        return CompletableFuture.completedFuture(failure);
+                    }
+                    updateRequest(request);
+                    (validated ? oneCallRefunds : twoCallRefunds).increment();
+                    return throttle(bucket).thenCompose(v -> client.refundAsync(request, isSandbox))
+                            .thenApply(response -> createResponse(response, validationKey, transactionId));
+                })
+                .exceptionally(throwable -> {
+                    final Throwable cause = PaySafeErrorHandler.unwrap(throwable);
+                    if (cause instanceof IOException) {
+                        return handleException((IOException) cause, transactionId);
+                    }
+                    LOGGER.error("unable to refund the payment", cause);
+                    return PaySafeErrorHandler.getRefundResponseFailure(String.valueOf(cause.getMessage()), FailureCause.INTERNAL_ERROR, transactionId);
+                });
+    }
+
+    // a refund is only started once a token is available: at most one token is reserved in advance per refund in flight
+    private static CompletableFuture<Void> throttle(TokenBucket bucket) {
+        return PaySafeScheduler.delay(TimeUnit.NANOSECONDS.toMillis(bucket.reserve(Long.MAX_VALUE)));
+    }
+
+    /**
+     * @return the failure if the validation call failed, null if the refund can be captured
+     */
+    private static RefundResponse checkValidation(PaySafePaymentResponse response, String validationKey, String transactionId) {
+        if (response.getCode() != null) {
+            return PaySafeErrorHandler.findRefundError(response, transactionId);
+        } else if (!PaySafeCardConstants.STATUS_REFUND_SUCCESS.equals(response.getStatus())) {
+            return PaySafeErrorHandler.getRefundResponseFailure(response.getStatus(), FailureCause.PARTNER_UNKNOWN_ERROR, transactionId);
+        }
+        VALIDATIONS.put(validationKey, Boolean.TRUE, VALIDATION_TTL);
+        return null;
+    }
 
-        } catch (URISyntaxException | IOException e) {
+    private static RefundResponse createResponse(PaySafePaymentResponse response, String validationKey, String transactionId) {
+        // the partner has answered: the validation must not be reused
+        if (validationKey != null) {
+            VALIDATIONS.invalidate(validationKey);
+        }
+        if (response.getCode() != null) {
+            return PaySafeErrorHandler.findRefundError(response, transactionId);
+        } else if (!PaySafeCardConstants.STATUS_SUCCESS.equals(response.getStatus())) {
+            return PaySafeErrorHandler.getRefundResponseFailure(response.getStatus(), FailureCause.PARTNER_UNKNOWN_ERROR, transactionId);
+        }
+
+        // refund Success
+        return RefundResponseSuccess.RefundResponseSuccessBuilder.aRefundResponseSuccess()
+                .withStatusCode(DEFAULT_SUCCESS_STATUS_CODE)
+                .withPartnerTransactionId(transactionId)
+                .build();
+    }
+
+    private static RefundResponse handleException(IOException e, String transactionId) {
+        if (e instanceof CircuitBreakerOpenException || e instanceof RateLimitExceededException || e instanceof BulkheadFullException
+                || e instanceof DeadlineExceededException) {
+            LOGGER.warn("unable to refund the payment: {}", e.getMessage());
+        } else {
             LOGGER.error("unable to refund the payment", e);
-            return PaySafeErrorHandler.getRefundResponseFailure(e.getMessage(), FailureCause.CANCEL, transactionId);
-        }catch (InvalidRequestException e) {
-            LOGGER.info("unable to refund the payment", e.getMessage());
-            return PaySafeErrorHandler.getRefundResponseFailure(e.getMessage(), FailureCause.CANCEL, transactionId);
         }
+        return PaySafeErrorHandler.getRefundResponseFailure(PaySafeErrorHandler.getErrorCode(e, e.getMessage()), PaySafeErrorHandler.getFailureCause(e, FailureCause.CANCEL), transactionId);
+    }
+
+    /**
+     * @return the number of refunds sent in a single call, because the contract opts in or the validation was cached
+     */
+    public static long getOneCallRefunds() {
+        return oneCallRefunds.sum();
+    }
+
+    /**
+     * @return the number of refunds sent in two calls: validation then capture
+     */
+    public static long getTwoCallRefunds() {
+        return twoCallRefunds.sum();
+    }
+
+    /**
+     * Forget the cached validations, so that the next refunds are validated again
+     */
+    public static void invalidateValidations() {
+        VALIDATIONS.invalidateAll();
+    }
+
+    /**
+     * @return the key of the cached validation, null if the refund is sent without validation
+     */
+    private static String getValidationKey(RefundRequest refundRequest) {
+        return isDirectRefund(refundRequest) ? null : createValidationKey(refundRequest);
+    }
+
+    private static boolean isValidated(String validationKey) {
+        return validationKey == null || VALIDATIONS.get(validationKey) != null;
+    }
+
+    private static boolean isDirectRefund(RefundRequest refundRequest) {
+        final ContractProperty property = refundRequest.getContractConfiguration() == null ? null
+                : refundRequest.getContractConfiguration().getProperty(PaySafeCardConstants.DIRECT_REFUND_KEY);
+        return property != null && PaySafeCardConstants.DIRECT_REFUND_YES_KEY.equals(property.getValue());
+    }
+
+    /**
+     * @return a hash of the authorisation key, environment, payment id, amount, currency and customer of the refund
+     */
+    private static String createValidationKey(RefundRequest refundRequest) {
+        final Amount amount = refundRequest.getAmount();
+        final Buyer buyer = refundRequest.getBuyer();
+        final boolean isSandbox = refundRequest.getEnvironment() != null && refundRequest.getEnvironment().isSandbox();
+        return ConfigurationServiceImpl.hash(ConfigurationServiceImpl.getValue(refundRequest.getContractConfiguration(), PaySafeCardConstants.AUTHORISATIONKEY_KEY),
+                String.valueOf(isSandbox), refundRequest.getPartnerTransactionId(),
+                amount == null ? null : String.valueOf(amount.getAmountInSmallestUnit()),
+                amount == null || amount.getCurrency() == null ? null : amount.getCurrency().getCurrencyCode(),
+                buyer == null ? null : buyer.getCustomerIdentifier());
     }
 
     public PaySafeHttpClient getHttpClient(final RefundRequest refundRequest) {
@@ -87,4 +273,110 @@ public class RefundServiceImpl implements RefundService {
     public boolean canPartial() {
         return false;
     }
+
+    /**
+     * State of a batch refund. The requests are read from the source while there is room for them, by whichever
+     * thread frees a slot, without recursion when the refunds complete immediately.
+     */
+    private final class RefundBatch {
+        private final Iterator<RefundRequest> source;
+        private final int maxInFlight;
+        private final double rate;
+        private final int burst;
+        private final BiConsumer<RefundRequest, RefundResponse> listener;
+        private final Map<String, TokenBucket> buckets = new ConcurrentHashMap<>();
+        private final AtomicInteger inFlight = new AtomicInteger();
+        // number of drain requests, only the thread which moves it from 0 reads the source
+        private final AtomicInteger drainRequests = new AtomicInteger();
+        private final CompletableFuture<Void> done = new CompletableFuture<>();
+        // only read and written by the draining thread
+        private boolean exhausted;
+        // read from the source, waiting for a token of its merchant
+        private RefundRequest next;
+        // a drain is scheduled for when the next refund gets a token
+        private volatile boolean drainScheduled;
+
+        private RefundBatch(Iterator<RefundRequest> source, int maxInFlight, double rate, int burst, BiConsumer<RefundRequest, RefundResponse> listener) {
+            this.source = source;
+            this.maxInFlight = maxInFlight;
+            this.rate = rate;
+            this.burst = burst;
+            this.listener = listener;
+        }
+
+        private CompletableFuture<Void> start() {
+            // fail at once on a wrong rate or burst
+            new TokenBucket(rate, burst);
+            drain();
+            return done;
+        }
+
+        private void drain() {
+            if (drainRequests.getAndIncrement() != 0) {
+                return;
+            }
+            int missed = 1;
+            do {
+                try {
+                    while (!exhausted && inFlight.get() < maxInFlight) {
+                        if (next == null) {
+                            if (!source.hasNext()) {
+                                exhausted = true;
+                                break;
+                            }
+                            next = source.next();
+                        }
+                        final TokenBucket bucket = getBucket(next);
+                        final double available = bucket.getAvailableTokens();
+                        if (available < 1) {
+                            scheduleDrain((long) Math.ceil((1 - available) * 1000 / rate));
+                            break;
+                        }
+                        final RefundRequest refundRequest = next;
+                        next = null;
+                        inFlight.incrementAndGet();
+                        refundAsync(refundRequest, bucket)
+                                .whenComplete((response, throwable) -> onResult(refundRequest, response, throwable));
+                    }
+                } catch (RuntimeException e) {
+                    // the source is broken: stop reading it, the refunds in flight still complete
+                    LOGGER.error("unable to read the refund requests", e);
+                    exhausted = true;
+                    done.completeExceptionally(e);
+                }
+                if (exhausted && inFlight.get() == 0) {
+                    done.complete(null);
+                }
+                missed = drainRequests.addAndGet(-missed);
+            } while (missed != 0);
+        }
+
+        private void scheduleDrain(long delay) {
+            if (!drainScheduled) {
+                drainScheduled = true;
+                PaySafeScheduler.delay(delay).thenRun(() -> {
+                    drainScheduled = false;
+                    drain();
+                });
+            }
+        }
+
+        private TokenBucket getBucket(RefundRequest refundRequest) {
+            final ContractProperty property = refundRequest.getContractConfiguration() == null ? null
+                    : refundRequest.getContractConfiguration().getProperty(PaySafeCardConstants.AUTHORISATIONKEY_KEY);
+            final String key = property == null || property.getValue() == null ? "" : property.getValue();
+            return buckets.computeIfAbsent(key, k -> new TokenBucket(rate, burst));
+        }
+
+        private void onResult(RefundRequest refundRequest, RefundResponse response, Throwable throwable) {
+            try {
+                listener.accept(refundRequest, throwable == null ? response : PaySafeErrorHandler.getRefundResponseFailure(
+                        String.valueOf(throwable.getMessage()), FailureCause.INTERNAL_ERROR, refundRequest.getTransactionId()));
+            } catch (RuntimeException e) {
+                LOGGER.error("refund listener failed for the transaction {}", refundRequest.getTransactionId(), e);
+            }
+            inFlight.decrementAndGet();
+            drain();
+        }
+    }
 }
@@ -0,0 +1,12 @@
+package com.payline.payment.paysafecard.utils;
+
+import java.io.IOException;
+
+/**
+ * Thrown instead of calling the partner when the concurrent calls limit of the environment is reached
+ */
+public class BulkheadFullException extends IOException {
+    public BulkheadFullException(String s) {
+        super(s);
+    }
+}
@@ -0,0 +1,299 @@
+package com.payline.payment.paysafecard.utils;
+
+import com.payline.pmapi.logger.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Stops calling the partner when it fails or answers too slowly, so that the calls fail fast instead of waiting for the timeouts.
+ * <ul>
+ * <li>CLOSED: calls are permitted, their outcome is recorded in a sliding window of the last calls. When the failure rate
+ * or the slow call rate of the window reaches its threshold, the breaker opens.</li>
+ * <li>OPEN: calls are rejected until the open duration is elapsed, then the breaker becomes half open.</li>
+ * <li>HALF_OPEN: a few probe calls are permitted. If they all succeed the breaker closes, otherwise it opens again.</li>
+ * </ul>
+ */
+public class CircuitBreaker {
+    private static final Logger LOGGER = LogManager.getLogger(CircuitBreaker.class);
+
+    public enum State {
+        CLOSED, OPEN, HALF_OPEN
+    }
+
+    private static final byte FAILED = 1;
+    private static final byte SLOW = 2;
+
+    private final String name;
+    private final int failureRateThreshold;
+    private final int slowCallRateThreshold;
+    private final long slowCallDuration;
+    private final int minimumNumberOfCalls;
+    private final long openDuration;
+    private final int permittedCallsInHalfOpenState;
+
+    // sliding window of the last call outcomes
+    private final byte[] window;
+    private int windowIndex;
+    private int windowCount;
+    private int failedCount;
+    private int slowCount;
+
+    private State state = State.CLOSED;
+    private long openedAt;
+    private int halfOpenCalls;
+    private int halfOpenSuccesses;
+
+    private final AtomicLong successfulCalls = new AtomicLong();
+    private final AtomicLong failedCalls = new AtomicLong();
+    private final AtomicLong slowCalls = new AtomicLong();
+    private final AtomicLong notPermittedCalls = new AtomicLong();
+    private final AtomicLong stateTransitions = new AtomicLong();
+
+    private CircuitBreaker(CircuitBreakerBuilder builder) {
+        this.name = builder.name;
+        this.failureRateThreshold = builder.failureRateThreshold;
+        this.slowCallRateThreshold = builder.slowCallRateThreshold;
+        this.slowCallDuration = builder.slowCallDuration;
+        this.window = new byte[builder.windowSize];
+        this.minimumNumberOfCalls = Math.min(builder.minimumNumberOfCalls, builder.windowSize);
+        this.openDuration = builder.openDuration;
+        this.permittedCallsInHalfOpenState = builder.permittedCallsInHalfOpenState;
+    }
+
+    /**
+     * Must be called before each call. A permitted call must then be reported with {@link #onResult(long, boolean)}.
+     *
+     * @throws CircuitBreakerOpenException if the call is not permitted
+     */
+    public void acquirePermission() throws CircuitBreakerOpenException {
+        if (!tryAcquirePermission()) {
+            notPermittedCalls.incrementAndGet();
+            throw new CircuitBreakerOpenException("Circuit breaker " + name + " is " + getState());
+        }
+    }
+
+    private synchronized boolean tryAcquirePermission() {
+        if (state == State.OPEN) {
+            if (System.currentTimeMillis() - openedAt < openDuration) {
+                return false;
+            }
+            transitionTo(State.HALF_OPEN);
+        }
+        if (state == State.HALF_OPEN) {
+            if (halfOpenCalls >= permittedCallsInHalfOpenState) {
+                return false;
+            }
+            halfOpenCalls++;
+        }
+        return true;
+    }
+
+    /**
+     * Give back the permission of a call which ended without an outcome (cancelled), so that it does not hold a half
+     * open probe slot
+     */
+    public synchronized void releasePermission() {
+        if (state == State.HALF_OPEN && halfOpenCalls > 0) {
+            halfOpenCalls--;
+        }
+    }
+
+    /**
+     * Record the outcome of a permitted call
+     *
+     * @param duration the call duration, in milliseconds
+     * @param failed   true if the call failed (network error, server error)
+     */
+    public void onResult(long duration, boolean failed) {
+        final boolean slow = duration >= slowCallDuration;
+        (failed ? failedCalls : successfulCalls).incrementAndGet();
+        if (slow) {
+            slowCalls.incrementAndGet();
+        }
+        record(failed, slow);
+    }
+
+    private synchronized void record(boolean failed, boolean slow) {
+        switch (state) {
+            case HALF_OPEN:
+                if (failed || slow) {
+                    transitionTo(State.OPEN);
+                } else if (++halfOpenSuccesses >= permittedCallsInHalfOpenState) {
+                    transitionTo(State.CLOSED);
+                }
+                break;
+            case CLOSED:
+                addToWindow(failed, slow);
+                if (windowCount >= minimumNumberOfCalls
+                        && (failedCount * 100 >= failureRateThreshold * windowCount || slowCount * 100 >= slowCallRateThreshold * windowCount)) {
+                    transitionTo(State.OPEN);
+                }
+                break;
+            default:
+                // the call was permitted before the breaker opened: nothing to do
+                break;
+        }
+    }
+
+    private void addToWindow(boolean failed, boolean slow) {
+        if (windowCount == window.length) {
+            byte oldest = window[windowIndex];
+            if ((oldest & FAILED) != 0) {
+                failedCount--;
+            }
+            if ((oldest & SLOW) != 0) {
+                slowCount--;
+            }
+        } else {
+            windowCount++;
+        }
+        byte outcome = 0;
+        if (failed) {
+            outcome |= FAILED;
+            failedCount++;
+        }
+        if (slow) {
+            outcome |= SLOW;
+            slowCount++;
+        }
+        window[windowIndex] = outcome;
+        windowIndex = (windowIndex + 1) % window.length;
+    }
+
+    private void transitionTo(State newState) {
+        LOGGER.warn("Circuit breaker {} state change [{} -> {}] [FAILED: {}/{}] [SLOW: {}/{}]", name, state, newState, failedCount, windowCount, slowCount, windowCount);
+        stateTransitions.incrementAndGet();
+        state = newState;
+        halfOpenCalls = 0;
+        halfOpenSuccesses = 0;
+        if (newState == State.OPEN) {
+            openedAt = System.currentTimeMillis();
+        } else if (newState == State.CLOSED) {
+            windowIndex = 0;
+            windowCount = 0;
+            failedCount = 0;
+            slowCount = 0;
+        }
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public synchronized State getState() {
+        return state;
+    }
+
+    public long getSuccessfulCalls() {
+        return successfulCalls.get();
+    }
+
+    public long getFailedCalls() {
+        return failedCalls.get();
+    }
+
+    public long getSlowCalls() {
+        return slowCalls.get();
+    }
+
+    public long getNotPermittedCalls() {
+        return notPermittedCalls.get();
+    }
+
+    public long getStateTransitions() {
+        return stateTransitions.get();
+    }
+
+    public static final class CircuitBreakerBuilder {
+        private String name = "";
+        private int failureRateThreshold = 50;
+        private int slowCallRateThreshold = 100;
+        private long slowCallDuration = 10000;
+        private int windowSize = 20;
+        private int minimumNumberOfCalls = 10;
+        private long openDuration = 30000;
+        private int permittedCallsInHalfOpenState = 3;
+
+        private CircuitBreakerBuilder() {
+        }
+
+        public static CircuitBreakerBuilder aCircuitBreaker() {
+            return new CircuitBreakerBuilder();
+        }
+
+        /**
+         * @param name name used in logs, usually host and operation
+         */
+        public CircuitBreakerBuilder withName(String name) {
+            this.name = name;
+            return this;
+        }
+
+        /**
+         * @param failureRateThreshold failure rate, in percent, from which the breaker opens
+         */
+        public CircuitBreakerBuilder withFailureRateThreshold(int failureRateThreshold) {
+            this.failureRateThreshold = failureRateThreshold;
+            return this;
+        }
+
+        /**
+         * @param slowCallRateThreshold slow call rate, in percent, from which the breaker opens
+         */
+        public CircuitBreakerBuilder withSlowCallRateThreshold(int slowCallRateThreshold) {
+            this.slowCallRateThreshold = slowCallRateThreshold;
+            return this;
+        }
+
+        /**
+         * @param slowCallDuration duration, in milliseconds, from which a call is slow
+         */
+        public CircuitBreakerBuilder withSlowCallDuration(long slowCallDuration) {
+            this.slowCallDuration = slowCallDuration;
+            return this;
+        }
+
+        /**
+         * @param windowSize number of calls in the sliding window
+         */
+        public CircuitBreakerBuilder withWindowSize(int windowSize) {
+            this.windowSize = windowSize;
+            return this;
+        }
+
+        /**
+         * @param minimumNumberOfCalls number of calls needed in the window before computing the rates
+         */
+        public CircuitBreakerBuilder withMinimumNumberOfCalls(int minimumNumberOfCalls) {
+            this.minimumNumberOfCalls = minimumNumberOfCalls;
+            return this;
+        }
+
+        /**
+         * @param openDuration time, in milliseconds, to wait in OPEN state before probing the partner
+         */
+        public CircuitBreakerBuilder withOpenDuration(long openDuration) {
+            this.openDuration = openDuration;
+            return this;
+        }
+
+        /**
+         * @param permittedCallsInHalfOpenState number of probe calls in HALF_OPEN state
+         */
+        public CircuitBreakerBuilder withPermittedCallsInHalfOpenState(int permittedCallsInHalfOpenState) {
+            this.permittedCallsInHalfOpenState = permittedCallsInHalfOpenState;
+            return this;
+        }
+
+        public CircuitBreaker build() {
+            if (failureRateThreshold < 1 || failureRateThreshold > 100 || slowCallRateThreshold < 1 || slowCallRateThreshold > 100) {
+                throw new IllegalArgumentException("rate thresholds must be between 1 and 100");
+            }
+            if (windowSize < 1 || minimumNumberOfCalls < 1 || permittedCallsInHalfOpenState < 1) {
+                throw new IllegalArgumentException("windowSize, minimumNumberOfCalls and permittedCallsInHalfOpenState must be at least 1");
+            }
+            return new CircuitBreaker(this);
+        }
+    }
+}
@@ -0,0 +1,12 @@
+package com.payline.payment.paysafecard.utils;
+
+import java.io.IOException;
+
+/**
+ * Thrown instead of calling the partner while its circuit breaker is open
+ */
+public class CircuitBreakerOpenException extends IOException {
+    public CircuitBreakerOpenException(String s) {
+        super(s);
+    }
+}
@@ -1,10 +1,18 @@
 package com.payline.payment.paysafecard.utils;
 
-
-import java.util.Arrays;
 import java.util.Locale;
 
 public class DataChecker {
+    private static final int LETTERS = 26;
+    // one bit per ISO-3166 alpha-2 code, indexed by (first letter * 26 + second letter)
+    private static final long[] ISO_COUNTRIES = new long[(LETTERS * LETTERS + 63) / 64];
+
+    static {
+        for (String country : Locale.getISOCountries()) {
+            final int index = index(country.charAt(0), country.charAt(1));
+            ISO_COUNTRIES[index >>> 6] |= 1L << index;
+        }
+    }
 
     private DataChecker(){
         // ras.
@@ -27,17 +35,25 @@ public class DataChecker {
     }
 
     /**
-     * verify country restriction is ISO-3166 alpha-2
+     * verify country restriction is a comma separated list of ISO-3166 alpha-2 codes, in upper or lower case
      * @param countryRestriction
      * @throws BadFieldException
      */
     public static void verifyCountryRestriction(String countryRestriction) throws BadFieldException {
-        if (!isEmpty(countryRestriction )) {
-            countryRestriction = countryRestriction.toUpperCase();
-            if (!isISO3166(countryRestriction)) {
-                throw new BadFieldException(PaySafeCardConstants.COUNTRYRESTRICTION_KEY , "contract.errors.countryNotISO");
-            }
+        if (!isEmpty(countryRestriction) && !isISO3166List(countryRestriction)) {
+            throw new BadFieldException(PaySafeCardConstants.COUNTRYRESTRICTION_KEY, "contract.errors.countryNotISO");
+        }
+    }
+
+    /**
+     * @param countryRestriction a country restriction accepted by {@link #verifyCountryRestriction(String)}
+     * @return the country restriction as Paysafecard expects it: upper case codes separated by commas, without spaces
+     */
+    public static String normalizeCountryRestriction(String countryRestriction) {
+        if (isEmpty(countryRestriction)) {
+            return countryRestriction;
         }
+        return countryRestriction.replace(" ", "").toUpperCase(Locale.ROOT);
     }
 
     /**
@@ -46,7 +62,58 @@ public class DataChecker {
      * @return true if countryCode is in ISO-3166 list, else return false
      */
     public static boolean isISO3166(String countryCode) {
-        return Arrays.asList(Locale.getISOCountries()).contains(countryCode);
+        return countryCode != null && countryCode.length() == 2
+                && isUpperCase(countryCode.charAt(0)) && isUpperCase(countryCode.charAt(1))
+                && isISO3166(countryCode.charAt(0), countryCode.charAt(1));
+    }
+
+    /**
+     * check in a single pass that each code of a comma separated list is ISO-3166, spaces around the codes are ignored
+     */
+    private static boolean isISO3166List(String countryCodes) {
+        final int length = countryCodes.length();
+        int i = 0;
+        while (true) {
+            i = skipSpaces(countryCodes, i);
+            if (i + 2 > length || !isISO3166(toUpperCase(countryCodes.charAt(i)), toUpperCase(countryCodes.charAt(i + 1)))) {
+                return false;
+            }
+            i = skipSpaces(countryCodes, i + 2);
+            if (i == length) {
+                return true;
+            }
+            if (countryCodes.charAt(i) != ',') {
+                return false;
+            }
+            i++;
+        }
+    }
+
+    private static boolean isISO3166(char first, char second) {
+        if (!isUpperCase(first) || !isUpperCase(second)) {
+            return false;
+        }
+        final int index = index(first, second);
+        return (ISO_COUNTRIES[index >>> 6] & (1L << index)) != 0;
+    }
+
+    private static int index(char first, char second) {
+        return (first - 'A') * LETTERS + (second - 'A');
+    }
+
+    private static int skipSpaces(String str, int i) {
+        while (i < str.length() && str.charAt(i) == ' ') {
+            i++;
+        }
+        return i;
+    }
+
+    private static boolean isUpperCase(char c) {
+        return c >= 'A' && c <= 'Z';
+    }
+
+    private static char toUpperCase(char c) {
+        return c >= 'a' && c <= 'z' ? (char) (c - ('a' - 'A')) : c;
     }
 
     /**
@@ -0,0 +1,12 @@
+package com.payline.payment.paysafecard.utils;
+
+import java.io.IOException;
+
+/**
+ * Thrown instead of calling the partner when the deadline of the call is reached
+ */
+public class DeadlineExceededException extends IOException {
+    public DeadlineExceededException(String s) {
+        super(s);
+    }
+}
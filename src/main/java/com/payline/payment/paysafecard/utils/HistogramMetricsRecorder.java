@@ -0,0 +1,107 @@
+package com.payline.payment.paysafecard.utils;
+
+import org.HdrHistogram.Histogram;
+import org.HdrHistogram.Recorder;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Default {@link MetricsRecorder}: one latency histogram and a few counters per operation and environment.
+ * Recording is lock-free (HdrHistogram {@link Recorder} and {@link LongAdder}), only {@link #snapshot()} is synchronized.
+ */
+public class HistogramMetricsRecorder implements MetricsRecorder {
+    /**
+     * Latencies are recorded in microseconds, from 1 microsecond to 1 hour, with 3 significant digits
+     */
+    private static final long HIGHEST_TRACKABLE_LATENCY = TimeUnit.HOURS.toMicros(1);
+    private static final int SIGNIFICANT_DIGITS = 3;
+
+    private final OperationMetrics[] metrics;
+
+    public HistogramMetricsRecorder() {
+        final PaySafeOperation[] operations = PaySafeOperation.values();
+        this.metrics = new OperationMetrics[operations.length * 2];
+        for (PaySafeOperation operation : operations) {
+            metrics[index(operation, false)] = new OperationMetrics(operation, false);
+            metrics[index(operation, true)] = new OperationMetrics(operation, true);
+        }
+    }
+
+    private static int index(PaySafeOperation operation, boolean isSandbox) {
+        return operation.ordinal() * 2 + (isSandbox ? 1 : 0);
+    }
+
+    @Override
+    public void record(PaySafeOperation operation, boolean isSandbox, long duration, int statusCode, int retries, Class<? extends Throwable> exception) {
+        metrics[index(operation, isSandbox)].record(duration, statusCode, retries, exception);
+    }
+
+    /**
+     * @return the metrics of the operation on the environment, since the creation of the recorder
+     */
+    public MetricsSnapshot snapshot(PaySafeOperation operation, boolean isSandbox) {
+        return metrics[index(operation, isSandbox)].snapshot();
+    }
+
+    /**
+     * @return the metrics of every operation and environment having at least one call
+     */
+    public List<MetricsSnapshot> snapshot() {
+        final List<MetricsSnapshot> snapshots = new ArrayList<>();
+        for (OperationMetrics operationMetrics : metrics) {
+            final MetricsSnapshot snapshot = operationMetrics.snapshot();
+            if (snapshot.getCount() > 0) {
+                snapshots.add(snapshot);
+            }
+        }
+        return Collections.unmodifiableList(snapshots);
+    }
+
+    private static final class OperationMetrics {
+        private final PaySafeOperation operation;
+        private final boolean isSandbox;
+        private final Recorder recorder = new Recorder(HIGHEST_TRACKABLE_LATENCY, SIGNIFICANT_DIGITS);
+        private final LongAdder retries = new LongAdder();
+        private final Map<Integer, LongAdder> statusCodes = new ConcurrentHashMap<>();
+        private final Map<String, LongAdder> exceptions = new ConcurrentHashMap<>();
+        // accumulated by the snapshots, guarded by this
+        private final Histogram total = new Histogram(HIGHEST_TRACKABLE_LATENCY, SIGNIFICANT_DIGITS);
+        private Histogram interval;
+
+        private OperationMetrics(PaySafeOperation operation, boolean isSandbox) {
+            this.operation = operation;
+            this.isSandbox = isSandbox;
+        }
+
+        private void record(long duration, int statusCode, int retries, Class<? extends Throwable> exception) {
+            recorder.recordValue(Math.min(Math.max(TimeUnit.NANOSECONDS.toMicros(duration), 1), HIGHEST_TRACKABLE_LATENCY));
+            if (retries > 0) {
+                this.retries.add(retries);
+            }
+            statusCodes.computeIfAbsent(statusCode, k -> new LongAdder()).increment();
+            if (exception != null) {
+                exceptions.computeIfAbsent(exception.getName(), k -> new LongAdder()).increment();
+            }
+        }
+
+        private synchronized MetricsSnapshot snapshot() {
+            // the recorder swaps its histogram, the writers are never blocked
+            interval = recorder.getIntervalHistogram(interval);
+            total.add(interval);
+            return new MetricsSnapshot(operation, isSandbox, total.copy(), retries.sum(), sum(statusCodes), sum(exceptions));
+        }
+
+        private static <K> Map<K, Long> sum(Map<K, LongAdder> counters) {
+            final Map<K, Long> result = new TreeMap<>();
+            counters.forEach((key, counter) -> result.put(key, counter.sum()));
+            return result;
+        }
+    }
+}
@@ -0,0 +1,122 @@
+package com.payline.payment.paysafecard.utils;
+
+import org.apache.http.HttpEntity;
+import org.apache.http.entity.ByteArrayEntity;
+
+import java.io.Writer;
+import java.util.Arrays;
+
+/**
+ * Encodes the characters written by a JsonWriter in UTF-8, directly into the request body.
+ * Unlike an OutputStreamWriter there is no intermediate char or byte buffer, and the bytes are given to the entity without copy.
+ * Not thread safe: one instance per request body.
+ */
+public final class JsonBodyWriter extends Writer {
+    private byte[] buf;
+    private int count;
+    private char highSurrogate;
+
+    public JsonBodyWriter() {
+        this(512);
+    }
+
+    public JsonBodyWriter(int initialCapacity) {
+        this.buf = new byte[initialCapacity];
+    }
+
+    @Override
+    public void write(int c) {
+        writeChar((char) c);
+    }
+
+    @Override
+    public void write(char[] cbuf, int off, int len) {
+        for (int i = off; i < off + len; i++) {
+            writeChar(cbuf[i]);
+        }
+    }
+
+    @Override
+    public void write(String str) {
+        write(str, 0, str.length());
+    }
+
+    @Override
+    public void write(String str, int off, int len) {
+        for (int i = off; i < off + len; i++) {
+            writeChar(str.charAt(i));
+        }
+    }
+
+    private void writeChar(char c) {
+        if (highSurrogate != 0) {
+            final char high = highSurrogate;
+            highSurrogate = 0;
+            if (Character.isLowSurrogate(c)) {
+                final int codePoint = Character.toCodePoint(high, c);
+                ensureCapacity(4);
+                buf[count++] = (byte) (0xF0 | (codePoint >> 18));
+                buf[count++] = (byte) (0x80 | ((codePoint >> 12) & 0x3F));
+                buf[count++] = (byte) (0x80 | ((codePoint >> 6) & 0x3F));
+                buf[count++] = (byte) (0x80 | (codePoint & 0x3F));
+                return;
+            }
+            // unpaired surrogate, replaced as the JDK encoder does
+            writeByte('?');
+        }
+        if (c < 0x80) {
+            writeByte(c);
+        } else if (c < 0x800) {
+            ensureCapacity(2);
+            buf[count++] = (byte) (0xC0 | (c >> 6));
+            buf[count++] = (byte) (0x80 | (c & 0x3F));
+        } else if (Character.isHighSurrogate(c)) {
+            highSurrogate = c;
+        } else if (Character.isLowSurrogate(c)) {
+            writeByte('?');
+        } else {
+            ensureCapacity(3);
+            buf[count++] = (byte) (0xE0 | (c >> 12));
+            buf[count++] = (byte) (0x80 | ((c >> 6) & 0x3F));
+            buf[count++] = (byte) (0x80 | (c & 0x3F));
+        }
+    }
+
+    private void writeByte(int b) {
+        ensureCapacity(1);
+        buf[count++] = (byte) b;
+    }
+
+    private void ensureCapacity(int length) {
+        if (count + length > buf.length) {
+            buf = Arrays.copyOf(buf, Math.max(buf.length * 2, count + length));
+        }
+    }
+
+    @Override
+    public void flush() {
+        // nothing to flush, the bytes are already in the buffer
+    }
+
+    @Override
+    public void close() {
+        if (highSurrogate != 0) {
+            highSurrogate = 0;
+            writeByte('?');
+        }
+    }
+
+    /**
+     * @return the number of bytes written
+     */
+    public int size() {
+        return count;
+    }
+
+    /**
+     * @return an entity sharing the written bytes
+     */
+    public HttpEntity toEntity() {
+        return new ByteArrayEntity(buf, 0, count);
+    }
+}
@@ -0,0 +1,24 @@
+package com.payline.payment.paysafecard.utils;
+
+/**
+ * Receives the outcome of each partner call made by {@link PaySafeHttpClient}.
+ * Called from the request threads and from the NIO threads: implementations must be thread safe and must not block.
+ */
+public interface MetricsRecorder {
+
+    /**
+     * Records nothing
+     */
+    MetricsRecorder NONE = (operation, isSandbox, duration, statusCode, retries, exception) -> {
+    };
+
+    /**
+     * @param operation  the operation
+     * @param isSandbox  true if the call was made on the sandbox environment
+     * @param duration   the call duration, retries included, in nanoseconds
+     * @param statusCode the HTTP status code of the last attempt, 0 if no response was received
+     * @param retries    the number of attempts after the first one
+     * @param exception  the class of the exception ending the call, null if a response was returned
+     */
+    void record(PaySafeOperation operation, boolean isSandbox, long duration, int statusCode, int retries, Class<? extends Throwable> exception);
+}
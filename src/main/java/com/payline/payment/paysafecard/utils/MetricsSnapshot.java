@@ -0,0 +1,100 @@
+package com.payline.payment.paysafecard.utils;
+
+import org.HdrHistogram.Histogram;
+
+import java.util.Collections;
+import java.util.Map;
+
+/**
+ * Metrics of one operation on one environment, as read by {@link HistogramMetricsRecorder#snapshot()}.
+ * Latencies are in microseconds.
+ */
+public final class MetricsSnapshot {
+    private final PaySafeOperation operation;
+    private final boolean isSandbox;
+    private final Histogram latencies;
+    private final long retries;
+    private final Map<Integer, Long> statusCodes;
+    private final Map<String, Long> exceptions;
+
+    MetricsSnapshot(PaySafeOperation operation, boolean isSandbox, Histogram latencies, long retries,
+                    Map<Integer, Long> statusCodes, Map<String, Long> exceptions) {
+        this.operation = operation;
+        this.isSandbox = isSandbox;
+        this.latencies = latencies;
+        this.retries = retries;
+        this.statusCodes = Collections.unmodifiableMap(statusCodes);
+        this.exceptions = Collections.unmodifiableMap(exceptions);
+    }
+
+    public PaySafeOperation getOperation() {
+        return operation;
+    }
+
+    public boolean isSandbox() {
+        return isSandbox;
+    }
+
+    /**
+     * @return "sandbox" or "production"
+     */
+    public String getEnvironment() {
+        return isSandbox ? "sandbox" : "production";
+    }
+
+    /**
+     * @return the number of calls
+     */
+    public long getCount() {
+        return latencies.getTotalCount();
+    }
+
+    /**
+     * @return the number of attempts made after the first one, for all the calls
+     */
+    public long getRetries() {
+        return retries;
+    }
+
+    /**
+     * @return the number of calls per HTTP status code of their last attempt, 0 when no response was received
+     */
+    public Map<Integer, Long> getStatusCodes() {
+        return statusCodes;
+    }
+
+    /**
+     * @return the number of calls ended by an exception, per exception class name
+     */
+    public Map<String, Long> getExceptions() {
+        return exceptions;
+    }
+
+    public long getMinLatency() {
+        return getCount() == 0 ? 0 : latencies.getMinValue();
+    }
+
+    public long getMaxLatency() {
+        return latencies.getMaxValue();
+    }
+
+    public double getMeanLatency() {
+        return latencies.getMean();
+    }
+
+    /**
+     * @param percentile the percentile, between 0 and 100 (ex: 99.9)
+     * @return the latency under which this percentage of the calls are
+     */
+    public long getLatencyAtPercentile(double percentile) {
+        return latencies.getValueAtPercentile(percentile);
+    }
+
+    @Override
+    public String toString() {
+        return operation.getName() + " [" + getEnvironment() + "] [COUNT: " + getCount() + "] [RETRIES: " + retries
+                + "] [P50: " + getLatencyAtPercentile(50) + "us] [P99: " + getLatencyAtPercentile(99)
+                + "us] [P99.9: " + getLatencyAtPercentile(99.9) + "us] [MAX: " + getMaxLatency()
+                + "us] [CODES: " + statusCodes + "] [EXCEPTIONS: " + exceptions + "]";
+    }
+}
@@ -0,0 +1,254 @@
+package com.payline.payment.paysafecard.utils;
+
+import org.apache.http.client.config.RequestConfig;
+import org.apache.http.config.Registry;
+import org.apache.http.config.RegistryBuilder;
+import org.apache.http.conn.socket.ConnectionSocketFactory;
+import org.apache.http.conn.socket.PlainConnectionSocketFactory;
+import org.apache.http.conn.ssl.SSLConnectionSocketFactory;
+import org.apache.http.impl.client.BasicCredentialsProvider;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.client.HttpClientBuilder;
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
+import org.apache.http.impl.nio.client.CloseableHttpAsyncClient;
+import org.apache.http.impl.nio.client.HttpAsyncClientBuilder;
+import org.apache.http.impl.nio.conn.PoolingNHttpClientConnectionManager;
+import org.apache.http.impl.nio.reactor.DefaultConnectingIOReactor;
+import org.apache.http.impl.nio.reactor.IOReactorConfig;
+import org.apache.http.nio.conn.NoopIOSessionStrategy;
+import org.apache.http.nio.conn.SchemeIOSessionStrategy;
+import org.apache.http.nio.conn.ssl.SSLIOSessionStrategy;
+import org.apache.http.ssl.SSLContexts;
+
+import javax.net.ssl.HttpsURLConnection;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * The HTTP clients of one environment, with their own connection pools, timeouts and concurrent calls limit:
+ * the sandbox calls can not take the connections nor the threads of the production calls.
+ */
+public class PaySafeBulkhead {
+    // the timeouts are checked at each select: the default second is too coarse for the short timeouts of the status checks
+    private static final IOReactorConfig IO_REACTOR_CONFIG = IOReactorConfig.custom().setSelectInterval(100).build();
+
+    private final String name;
+    private final PaySafeHttpClientConfiguration.EnvironmentConfiguration configuration;
+    private final PaySafeEndpoints endpoints;
+    private final RequestConfig requestConfig;
+    // indexed by operation ordinal
+    private final RequestConfig[] operationRequestConfigs;
+    private volatile CloseableHttpClient client;
+    private volatile CloseableHttpAsyncClient asyncClient;
+    private final Semaphore permits;
+    private final LongAdder rejectedCalls = new LongAdder();
+
+    PaySafeBulkhead(String name, PaySafeHttpClientConfiguration.EnvironmentConfiguration configuration, PaySafeEndpoints endpoints) {
+        this.name = name;
+        this.configuration = configuration;
+        this.endpoints = endpoints;
+        this.permits = new Semaphore(configuration.getMaxConcurrentCalls());
+        this.requestConfig = RequestConfig.custom()
+                .setConnectTimeout(configuration.getConnectTimeout())
+                .setConnectionRequestTimeout(configuration.getConnectionRequestTimeout())
+                .setSocketTimeout(configuration.getSocketTimeout()).build();
+        final PaySafeOperation[] operations = PaySafeOperation.values();
+        this.operationRequestConfigs = new RequestConfig[operations.length];
+        for (PaySafeOperation operation : operations) {
+            final PaySafeHttpClientConfiguration.TimeoutProfile profile = configuration.getTimeoutProfile(operation);
+            operationRequestConfigs[operation.ordinal()] = RequestConfig.copy(requestConfig)
+                    .setConnectTimeout(profile.getConnectTimeout())
+                    .setConnectionRequestTimeout(profile.getConnectionRequestTimeout())
+                    .setSocketTimeout(profile.getSocketTimeout()).build();
+        }
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public PaySafeEndpoints getEndpoints() {
+        return endpoints;
+    }
+
+    public RequestConfig getRequestConfig() {
+        return requestConfig;
+    }
+
+    /**
+     * @return the timeouts of the operation
+     */
+    public PaySafeHttpClientConfiguration.TimeoutProfile getTimeoutProfile(PaySafeOperation operation) {
+        return configuration.getTimeoutProfile(operation);
+    }
+
+    /**
+     * @param operation the operation
+     * @param remaining the time, in milliseconds, left before the deadline of the call
+     * @return the timeouts of the operation, shortened so that the attempt does not last beyond the deadline
+     */
+    public RequestConfig getRequestConfig(PaySafeOperation operation, long remaining) {
+        final RequestConfig config = operationRequestConfigs[operation.ordinal()];
+        if (fits(config.getConnectTimeout(), remaining) && fits(config.getConnectionRequestTimeout(), remaining)
+                && fits(config.getSocketTimeout(), remaining)) {
+            return config;
+        }
+        final int max = (int) Math.min(remaining, Integer.MAX_VALUE);
+        return RequestConfig.copy(config)
+                .setConnectTimeout(fits(config.getConnectTimeout(), remaining) ? config.getConnectTimeout() : max)
+                .setConnectionRequestTimeout(fits(config.getConnectionRequestTimeout(), remaining) ? config.getConnectionRequestTimeout() : max)
+                .setSocketTimeout(fits(config.getSocketTimeout(), remaining) ? config.getSocketTimeout() : max)
+                .build();
+    }
+
+    // a timeout of 0 or less is infinite
+    private static boolean fits(int timeout, long remaining) {
+        return timeout > 0 && timeout <= remaining;
+    }
+
+    /**
+     * The clients are created on first use, and again after {@link #close()}.
+     */
+    CloseableHttpClient getClient() {
+        CloseableHttpClient result = client;
+        if (result == null) {
+            synchronized (this) {
+                result = client;
+                if (result == null) {
+                    result = createClient();
+                    client = result;
+                }
+            }
+        }
+        return result;
+    }
+
+    private CloseableHttpClient createClient() {
+        final Registry<ConnectionSocketFactory> socketFactoryRegistry = RegistryBuilder.<ConnectionSocketFactory>create()
+                .register("http", PlainConnectionSocketFactory.getSocketFactory())
+                .register("https", new SSLConnectionSocketFactory(HttpsURLConnection.getDefaultSSLSocketFactory(), SSLConnectionSocketFactory.getDefaultHostnameVerifier()))
+                .build();
+        final PoolingHttpClientConnectionManager connectionManager = new PoolingHttpClientConnectionManager(socketFactoryRegistry);
+        connectionManager.setMaxTotal(configuration.getMaxConnectionsTotal());
+        connectionManager.setDefaultMaxPerRoute(configuration.getMaxConnectionsPerRoute());
+
+        return HttpClientBuilder.create()
+                .useSystemProperties()
+                .setDefaultRequestConfig(requestConfig)
+                .setDefaultCredentialsProvider(new BasicCredentialsProvider())
+                .setConnectionManager(connectionManager)
+                // retries are handled by the RetryPolicy
+                .disableAutomaticRetries()
+                .build();
+    }
+
+    /**
+     * Close the clients and their connection pools. No call may be in flight.
+     */
+    synchronized void close() throws IOException {
+        final CloseableHttpClient closedClient = client;
+        final CloseableHttpAsyncClient closedAsyncClient = asyncClient;
+        client = null;
+        asyncClient = null;
+        try {
+            if (closedClient != null) {
+                closedClient.close();
+            }
+        } finally {
+            if (closedAsyncClient != null) {
+                closedAsyncClient.close();
+            }
+        }
+    }
+
+    /**
+     * The NIO client is only started when the first asynchronous call is made.
+     */
+    CloseableHttpAsyncClient getAsyncClient() throws IOException {
+        CloseableHttpAsyncClient result = asyncClient;
+        if (result == null) {
+            synchronized (this) {
+                result = asyncClient;
+                if (result == null) {
+                    result = createAsyncClient();
+                    result.start();
+                    asyncClient = result;
+                }
+            }
+        }
+        return result;
+    }
+
+    private CloseableHttpAsyncClient createAsyncClient() throws IOException {
+        final Registry<SchemeIOSessionStrategy> sessionStrategyRegistry = RegistryBuilder.<SchemeIOSessionStrategy>create()
+                .register("http", NoopIOSessionStrategy.INSTANCE)
+                .register("https", new SSLIOSessionStrategy(SSLContexts.createSystemDefault(), SSLConnectionSocketFactory.getDefaultHostnameVerifier()))
+                .build();
+        final PoolingNHttpClientConnectionManager connectionManager = new PoolingNHttpClientConnectionManager(new DefaultConnectingIOReactor(IO_REACTOR_CONFIG), sessionStrategyRegistry);
+        connectionManager.setMaxTotal(configuration.getMaxConnectionsTotal());
+        connectionManager.setDefaultMaxPerRoute(configuration.getMaxConnectionsPerRoute());
+
+        return HttpAsyncClientBuilder.create()
+                .useSystemProperties()
+                .setDefaultRequestConfig(requestConfig)
+                .setDefaultCredentialsProvider(new BasicCredentialsProvider())
+                .setConnectionManager(connectionManager)
+                .build();
+    }
+
+    /**
+     * Wait for a call slot, as long as for a pooled connection. The slot must be given back with {@link #release()}.
+     *
+     * @param operation the operation, giving the connection request timeout
+     * @param remaining the time, in milliseconds, left before the deadline of the call
+     * @throws BulkheadFullException if no slot is free within the connection request timeout
+     */
+    void acquire(PaySafeOperation operation, long remaining) throws IOException {
+        final long timeout = Math.min(configuration.getTimeoutProfile(operation).getConnectionRequestTimeout(), remaining);
+        try {
+            if (!permits.tryAcquire(timeout, TimeUnit.MILLISECONDS)) {
+                throw reject();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for a " + name + " call slot");
+        }
+    }
+
+    /**
+     * Take a call slot without waiting, for the non blocking calls. The slot must be given back with {@link #release()}.
+     *
+     * @throws BulkheadFullException if no slot is free
+     */
+    void tryAcquire() throws BulkheadFullException {
+        if (!permits.tryAcquire()) {
+            throw reject();
+        }
+    }
+
+    void release() {
+        permits.release();
+    }
+
+    private BulkheadFullException reject() {
+        rejectedCalls.increment();
+        return new BulkheadFullException("Too many concurrent " + name + " calls");
+    }
+
+    /**
+     * @return the number of calls which can be sent now
+     */
+    public int getAvailableCalls() {
+        return permits.availablePermits();
+    }
+
+    /**
+     * @return the number of calls rejected because the concurrent calls limit was reached
+     */
+    public long getRejectedCalls() {
+        return rejectedCalls.sum();
+    }
+}
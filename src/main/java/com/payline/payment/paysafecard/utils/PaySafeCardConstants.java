@@ -10,6 +10,8 @@ public class PaySafeCardConstants {
     public static final String PATH_REFUND = "refunds";
     public static final String PSC_ID = "psc_id";
 
+    public static final String STATUS_INITIATED = "INITIATED";
+    public static final String STATUS_REDIRECTED = "REDIRECTED";
     public static final String STATUS_AUTHORIZED = "AUTHORIZED";
     public static final String STATUS_SUCCESS = "SUCCESS";
     public static final String STATUS_REFUND_SUCCESS = "VALIDATION_SUCCESSFUL";
@@ -44,6 +46,12 @@ public class PaySafeCardConstants {
     public static final String COUNTRYRESTRICTION_KEY = "COUNTRY_RESTRICTION";
     public static final String COUNTRYRESTRICTION_LABEL = "contract.countryRestriction.label";
     public static final String COUNTRYRESTRICTION_DESCRIPTION = "contract.countryRestriction.description";
+    public static final String DIRECT_REFUND_KEY = "DIRECT_REFUND";
+    public static final String DIRECT_REFUND_LABEL = "contract.directRefund.label";
+    public static final String DIRECT_REFUND_YES_KEY = "YES";
+    public static final String DIRECT_REFUND_YES_VAL = "contract.directRefund.yes";
+    public static final String DIRECT_REFUND_NO_KEY = "NO";
+    public static final String DIRECT_REFUND_NO_VAL = "contract.directRefund.no";
 
     // data used in PaymentFormConfigurationService
     public static final String NO_FIELD_TEXT = "form.button.paySafeCard.text";
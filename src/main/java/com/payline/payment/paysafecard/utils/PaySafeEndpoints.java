@@ -0,0 +1,86 @@
+package com.payline.payment.paysafecard.utils;
+
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * URIs of the Paysafecard API on one environment. The payments URI is computed once, the other ones only append the
+ * payment id to it.
+ */
+public final class PaySafeEndpoints {
+    private static final char[] HEX = "0123456789ABCDEF".toCharArray();
+
+    // ex: https://apitest.paysafecard.com/v1/payments/
+    private final String paymentsUrl;
+    private final URI payments;
+
+    /**
+     * @param scheme the scheme, http or https
+     * @param host   the host
+     * @param port   the port, -1 for the scheme default port
+     */
+    public PaySafeEndpoints(String scheme, String host, int port) {
+        this.paymentsUrl = scheme + "://" + host + (port < 0 ? "" : ":" + port) + "/" + PaySafeCardConstants.PATH_VERSION + "/" + PaySafeCardConstants.PATH + "/";
+        this.payments = URI.create(paymentsUrl);
+    }
+
+    /**
+     * @return the URI to create a payment
+     */
+    public URI payments() {
+        return payments;
+    }
+
+    /**
+     * @return the URI to retrieve a payment
+     */
+    public URI payment(String paymentId) {
+        return URI.create(paymentsUrl + encode(paymentId) + "/");
+    }
+
+    /**
+     * @return the URI to capture a payment
+     */
+    public URI capture(String paymentId) {
+        return URI.create(paymentsUrl + encode(paymentId) + "/" + PaySafeCardConstants.PATH_CAPTURE + "/");
+    }
+
+    /**
+     * @return the URI to refund a payment
+     */
+    public URI refunds(String paymentId) {
+        return URI.create(paymentsUrl + encode(paymentId) + "/" + PaySafeCardConstants.PATH_REFUND + "/");
+    }
+
+    /**
+     * Percent-encode a path segment. Paysafecard ids only contain unreserved characters and are returned as is.
+     */
+    static String encode(String segment) {
+        final String value = String.valueOf(segment);
+        int i = 0;
+        while (i < value.length() && isUnreserved(value.charAt(i))) {
+            i++;
+        }
+        if (i == value.length()) {
+            return value;
+        }
+        final StringBuilder sb = new StringBuilder(value.length() + 16).append(value, 0, i);
+        for (byte b : value.substring(i).getBytes(StandardCharsets.UTF_8)) {
+            if (isUnreserved((char) b)) {
+                sb.append((char) b);
+            } else {
+                sb.append('%').append(HEX[(b >> 4) & 0xF]).append(HEX[b & 0xF]);
+            }
+        }
+        return sb.toString();
+    }
+
+    private static boolean isUnreserved(char c) {
+        return (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || (c >= '0' && c <= '9') || c == '-' || c == '_' || c == '.' || c == '~';
+    }
+
+    @Override
+    public String toString() {
+        return paymentsUrl;
+    }
+}
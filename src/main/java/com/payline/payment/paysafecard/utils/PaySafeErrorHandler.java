@@ -6,7 +6,14 @@ import com.payline.pmapi.bean.payment.response.impl.PaymentResponseFailure;
 import com.payline.pmapi.bean.refund.response.RefundResponse;
 import com.payline.pmapi.bean.refund.response.impl.RefundResponseFailure;
 
+import java.io.IOException;
+import java.util.concurrent.CompletionException;
+
 public class PaySafeErrorHandler {
+    /**
+     * Error code of the calls not sent because the rate limit of their API key was reached
+     */
+    public static final String RATE_LIMITED = "rate_limited";
     private static final int ERROR_LENGTH = 50;
 
     private PaySafeErrorHandler() {
@@ -135,4 +142,45 @@ public class PaySafeErrorHandler {
         if (message == null) return "";
         return message.length() > length ? message.substring(0, length) : message;
     }
+
+    /**
+     * @param e            the exception raised instead of the partner response
+     * @param defaultCause the failure cause of the network errors
+     * @return the failure cause matching the exception
+     */
+    public static FailureCause getFailureCause(IOException e, FailureCause defaultCause) {
+        // the call was not sent: it can be made again later
+        return isRejected(e) ? FailureCause.COMMUNICATION_ERROR : defaultCause;
+    }
+
+    /**
+     * @return true if the client refused to send the call to protect the partner (circuit breaker open, rate limit,
+     * too many concurrent calls) or because its deadline was reached
+     */
+    public static boolean isRejected(Throwable e) {
+        return e instanceof RateLimitExceededException || e instanceof CircuitBreakerOpenException
+                || e instanceof BulkheadFullException || e instanceof DeadlineExceededException;
+    }
+
+    /**
+     * @param e                the exception raised instead of the partner response
+     * @param defaultErrorCode the error code of the other exceptions
+     * @return {@link #RATE_LIMITED} if the call was not sent because of the rate limit, the default error code otherwise
+     */
+    public static String getErrorCode(IOException e, String defaultErrorCode) {
+        return e instanceof RateLimitExceededException ? RATE_LIMITED : defaultErrorCode;
+    }
+
+    /**
+     * Exceptions raised in a CompletableFuture stage are wrapped in a CompletionException
+     *
+     * @param throwable the exception received by the stage
+     * @return the original exception
+     */
+    public static Throwable unwrap(Throwable throwable) {
+        if (throwable instanceof CompletionException && throwable.getCause() != null) {
+            return throwable.getCause();
+        }
+        return throwable;
+    }
 }
@@ -0,0 +1,63 @@
+package com.payline.payment.paysafecard.utils;
+
+import org.apache.http.Header;
+import org.apache.http.message.BasicHeader;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Request headers, built once per authorisation key and shared by all the requests of the contract.
+ */
+public final class PaySafeHeaders {
+    public static final String CONTENT_TYPE_KEY = "Content-Type";
+    public static final String AUTHENTICATION_KEY = "Authorization";
+    public static final String CONTENT_TYPE = "application/json";
+    private static final int MAX_SIZE = 1000;
+
+    private static final Header CONTENT_TYPE_HEADER = new BasicHeader(CONTENT_TYPE_KEY, CONTENT_TYPE);
+    // least recently used first: the oldest API key is dropped when the bound is reached
+    private static final Map<String, Header[]> HEADERS = Collections.synchronizedMap(new LinkedHashMap<String, Header[]>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Header[]> eldest) {
+            return size() > MAX_SIZE;
+        }
+    });
+
+    private PaySafeHeaders() {
+    }
+
+    /**
+     * @param authorisationKey the API key of the contract
+     * @return a copy of the Content-Type and Authorization headers: the headers themselves are immutable and shared
+     */
+    public static Header[] get(String authorisationKey) {
+        final String key = authorisationKey == null ? "" : authorisationKey;
+        return HEADERS.computeIfAbsent(key, PaySafeHeaders::createHeaders).clone();
+    }
+
+    /**
+     * @return the Base64 encoding of the UTF-8 bytes of the string, an empty string if it is null
+     */
+    public static String encodeToBase64(String toEncode) {
+        if (toEncode == null) {
+            return "";
+        }
+        return Base64.getEncoder().encodeToString(toEncode.getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * @param authorisationKey the API key of the contract
+     * @return the value of the Authorization header
+     */
+    public static String getAuthorization(String authorisationKey) {
+        return "Basic " + encodeToBase64(authorisationKey);
+    }
+
+    private static Header[] createHeaders(String authorisationKey) {
+        return new Header[]{CONTENT_TYPE_HEADER, new BasicHeader(AUTHENTICATION_KEY, getAuthorization(authorisationKey))};
+    }
+}
@@ -2,203 +2,823 @@ package com.payline.payment.paysafecard.utils;
 
 import com.google.gson.Gson;
 import com.google.gson.GsonBuilder;
+import com.google.gson.JsonSyntaxException;
+import com.google.gson.TypeAdapter;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonWriter;
+import com.google.gson.stream.MalformedJsonException;
 import com.payline.payment.paysafecard.bean.PaySafeCaptureRequest;
 import com.payline.payment.paysafecard.bean.PaySafePaymentRequest;
 import com.payline.payment.paysafecard.bean.PaySafePaymentResponse;
 import com.payline.payment.paysafecard.bean.PaySafeRequest;
 import com.payline.pmapi.bean.configuration.PartnerConfiguration;
 import org.apache.http.Header;
+import org.apache.http.HttpEntity;
+import org.apache.http.HttpResponse;
+import org.apache.http.concurrent.FutureCallback;
 import org.apache.http.client.config.RequestConfig;
 import org.apache.http.client.methods.CloseableHttpResponse;
+import org.apache.http.conn.ConnectionPoolTimeoutException;
 import org.apache.http.client.methods.HttpGet;
 import org.apache.http.client.methods.HttpPost;
 import org.apache.http.client.methods.HttpRequestBase;
-import org.apache.http.client.utils.URIBuilder;
-import org.apache.http.conn.ssl.SSLConnectionSocketFactory;
-import org.apache.http.entity.StringEntity;
-import org.apache.http.impl.client.BasicCredentialsProvider;
-import org.apache.http.impl.client.CloseableHttpClient;
-import org.apache.http.impl.client.HttpClientBuilder;
-import org.apache.http.message.BasicHeader;
+import org.apache.http.entity.ByteArrayEntity;
+import org.apache.http.entity.ContentType;
+import org.apache.http.impl.nio.client.CloseableHttpAsyncClient;
 import org.apache.http.util.EntityUtils;
 import com.payline.pmapi.logger.LogManager;
 import org.apache.logging.log4j.Logger;
 
-import javax.net.ssl.HttpsURLConnection;
+import java.io.EOFException;
 import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.InterruptedIOException;
 import java.net.URI;
-import java.net.URISyntaxException;
-import java.util.concurrent.atomic.AtomicBoolean;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
 
 public class PaySafeHttpClient {
 
     public static final String KEY_CONNECT_TIMEOUT = "connect.time.out";
     public static final String CONNECTION_REQUEST_TIMEOUT = "connect.request.time.out";
     public static final String READ_SOCKET_TIMEOUT = "read.time.out";
+    public static final String MAX_CONNECTIONS_TOTAL = "max.connections.total";
+    public static final String MAX_CONNECTIONS_PER_ROUTE = "max.connections.per.route";
+    public static final String MAX_CONCURRENT_CALLS = "max.concurrent.calls";
+    /**
+     * Prefix of the timeouts, pool sizes and concurrent calls limit applying to the sandbox environment only
+     */
+    public static final String SANDBOX_PREFIX = "sandbox.";
+    /**
+     * Prefix of the timeouts, pool sizes and concurrent calls limit applying to the production environment only
+     */
+    public static final String PRODUCTION_PREFIX = "production.";
+    public static final String RETRY_MAX_ATTEMPTS = "retry.max.attempts";
+    public static final String RETRY_BASE_DELAY = "retry.base.delay";
+    public static final String RETRY_MAX_DELAY = "retry.max.delay";
+    public static final String RETRY_DEADLINE = "retry.deadline";
+    /**
+     * Time, in milliseconds, given to a call, retries included, when prefixed by the operation name (ex: retrieve.deadline).
+     * The retry deadline by default.
+     */
+    public static final String DEADLINE = "deadline";
+    public static final String CIRCUIT_BREAKER_FAILURE_RATE = "circuit.breaker.failure.rate";
+    public static final String CIRCUIT_BREAKER_SLOW_CALL_RATE = "circuit.breaker.slow.call.rate";
+    public static final String CIRCUIT_BREAKER_SLOW_CALL_DURATION = "circuit.breaker.slow.call.duration";
+    public static final String CIRCUIT_BREAKER_WINDOW_SIZE = "circuit.breaker.window.size";
+    public static final String CIRCUIT_BREAKER_MINIMUM_CALLS = "circuit.breaker.minimum.calls";
+    public static final String CIRCUIT_BREAKER_OPEN_DURATION = "circuit.breaker.open.duration";
+    public static final String CIRCUIT_BREAKER_HALF_OPEN_CALLS = "circuit.breaker.half.open.calls";
+    /**
+     * Time, in milliseconds, a call waits for a token of its rate limiter before failing with a {@link RateLimitExceededException}
+     */
+    public static final String RATE_LIMIT_MAX_WAIT = "rate.limit.max.wait";
+    private static final String RATE_LIMIT_PREFIX = "rate.limit.";
+    /**
+     * Scheme, host and port (ex: http://localhost:8080) called instead of the Paysafecard API, to test against a simulator.
+     * Sandbox only: the production calls always go to the Paysafecard API.
+     */
+    public static final String URL_OVERRIDE = "url.override";
 
     private static final Logger LOGGER = LogManager.getLogger(PaySafeHttpClient.class);
-    private static final String DEFAULT_CHARSET = "UTF-8";
-    private static final String CONTENT_TYPE_KEY = "Content-Type";
-    private static final String AUTHENTICATION_KEY = "Authorization";
-    private static final String CONTENT_TYPE = "application/json";
-    private CloseableHttpClient client;
+    private static final TypeAdapter<PaySafePaymentResponse> RESPONSE_ADAPTER = new PaySafePaymentResponse.Adapter();
+    // repeatable, shared by all the capture requests
+    private static final HttpEntity EMPTY_BODY = new ByteArrayEntity(new byte[0]);
+    private final PaySafeHttpClientConfiguration configuration;
+    private final PaySafeBulkhead sandbox;
+    private final PaySafeBulkhead production;
+    private volatile RetryPolicy retryPolicy;
+    /**
+     * One circuit breaker per host and operation
+     */
+    private final Map<String, CircuitBreaker> circuitBreakers = new ConcurrentHashMap<>();
+    /**
+     * One token bucket per operation and Authorization header, that is per API key
+     */
+    private static final int MAX_RATE_LIMITERS = 1000;
+    private final TokenBucketCache rateLimiters = new TokenBucketCache(MAX_RATE_LIMITERS);
+    private final LongAdder rateLimitedCalls = new LongAdder();
     private Gson parser;
 
-    private static final AtomicBoolean isInit = new AtomicBoolean(false);
+    /**
+     * One client per effective configuration (timeouts and pool sizes), shared by all the calls using the same settings.
+     * Least recently used first: the oldest client is removed when the bound is reached, and its pools are closed once
+     * its last call is over.
+     */
+    private static final int MAX_INSTANCES = 100;
+    private static final Map<PaySafeHttpClientConfiguration, PaySafeHttpClient> instances = new LinkedHashMap<PaySafeHttpClientConfiguration, PaySafeHttpClient>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<PaySafeHttpClientConfiguration, PaySafeHttpClient> eldest) {
+            if (size() > MAX_INSTANCES) {
+                eldest.getValue().retire();
+                return true;
+            }
+            return false;
+        }
+    };
+    // calls in flight, or CLOSED once the pools of a removed client are closed
+    private static final int CLOSED = -1;
+    private final AtomicInteger calls = new AtomicInteger();
+    private volatile boolean retired;
 
-    private static PaySafeHttpClient instance;
+    /**
+     * Shared by all the instances, so that the host application reads the metrics of every partner call from one place
+     */
+    private static volatile MetricsRecorder metricsRecorder = new HistogramMetricsRecorder();
 
     /**
-     * @return the singleton instance
+     * @return the recorder of the partner calls, a {@link HistogramMetricsRecorder} unless replaced
+     */
+    public static MetricsRecorder getMetricsRecorder() {
+        return metricsRecorder;
+    }
+
+    /**
+     * Replace the recorder of the partner calls, for example to forward them to the monitoring of the host application
+     *
+     * @param recorder the new recorder, {@link MetricsRecorder#NONE} to record nothing
+     */
+    public static void setMetricsRecorder(MetricsRecorder recorder) {
+        metricsRecorder = Objects.requireNonNull(recorder);
+    }
+
+    /**
+     * @return the partner configuration key of the calls per second allowed for the operation and an API key, no limit if missing
+     */
+    public static String getRateLimitRateKey(PaySafeOperation operation) {
+        return RATE_LIMIT_PREFIX + operation.getName() + ".rate";
+    }
+
+    /**
+     * @return the partner configuration key of the calls allowed at once for the operation and an API key, the rate if missing
+     */
+    public static String getRateLimitBurstKey(PaySafeOperation operation) {
+        return RATE_LIMIT_PREFIX + operation.getName() + ".burst";
+    }
+
+    /**
+     * @return the partner configuration key applying to the operation only (ex: retrieve.read.time.out)
+     */
+    public static String getOperationKey(PaySafeOperation operation, String key) {
+        return operation.getName() + "." + key;
+    }
+
+    /**
+     * @return the instance matching the partner configuration, created on first call
      */
     public static PaySafeHttpClient getInstance(final PartnerConfiguration partnerConfiguration) {
-        //On initialise le service avec les configurations du partenaire si c'est le premier appel.
-        if (!isInit.getAndSet(true)) {
-            LOGGER.info("Initialisation du service HTTP Client");
-            instance = new PaySafeHttpClient(partnerConfiguration);
+        final PaySafeHttpClientConfiguration configuration = PaySafeHttpClientConfiguration.from(partnerConfiguration);
+        synchronized (instances) {
+            return instances.computeIfAbsent(configuration, PaySafeHttpClient::new);
         }
-        return instance;
     }
 
-    private PaySafeHttpClient(final PartnerConfiguration partnerConfiguration) {
+    private PaySafeHttpClient(final PaySafeHttpClientConfiguration configuration) {
+        LOGGER.info("Initialisation du service HTTP Client");
+        LOGGER.debug("HTTP Client configuration {}", configuration);
+        this.configuration = configuration;
+        this.retryPolicy = configuration.createRetryPolicy();
+        this.sandbox = new PaySafeBulkhead("sandbox", configuration.getEnvironment(true), createEndpoints(true));
+        this.production = new PaySafeBulkhead("production", configuration.getEnvironment(false), createEndpoints(false));
         this.parser = new GsonBuilder().create();
-        final RequestConfig requestConfig = RequestConfig.custom()
-                .setConnectTimeout(Integer.parseInt(partnerConfiguration.getProperty(KEY_CONNECT_TIMEOUT)))
-                .setConnectionRequestTimeout(Integer.parseInt(partnerConfiguration.getProperty(CONNECTION_REQUEST_TIMEOUT)))
-                .setSocketTimeout(Integer.parseInt(partnerConfiguration.getProperty(READ_SOCKET_TIMEOUT))).build();
-
-        final HttpClientBuilder builder = HttpClientBuilder.create();
-        builder.useSystemProperties()
-                .setDefaultRequestConfig(requestConfig)
-                .setDefaultCredentialsProvider(new BasicCredentialsProvider())
-                .setSSLSocketFactory(new SSLConnectionSocketFactory(HttpsURLConnection.getDefaultSSLSocketFactory(), SSLConnectionSocketFactory.getDefaultHostnameVerifier()));
-        this.client = builder.build();
     }
 
     public String getHost(boolean isSandbox) {
         return isSandbox ? PaySafeCardConstants.SANDBOX_URL : PaySafeCardConstants.PRODUCTION_URL;
     }
 
-    public String createPath(String... path) {
-        StringBuilder sb = new StringBuilder("/");
-        if (path != null && path.length > 0) {
-            for (String aPath : path) {
-                sb.append(aPath).append("/");
+    /**
+     * @return the endpoints of the environment, or of the URL override if any in the sandbox
+     */
+    public PaySafeEndpoints getEndpoints(boolean isSandbox) {
+        return getBulkhead(isSandbox).getEndpoints();
+    }
+
+    /**
+     * @return the connection pools and concurrent calls limit of the environment, to read their counters
+     */
+    public PaySafeBulkhead getBulkhead(boolean isSandbox) {
+        return isSandbox ? sandbox : production;
+    }
+
+    /**
+     * @return true if the client has been removed from the instances and its pools closed, until its next call opens them again
+     */
+    public boolean isClosed() {
+        return calls.get() == CLOSED;
+    }
+
+    private void startCall() {
+        while (true) {
+            final int current = calls.get();
+            if (current == CLOSED) {
+                // the caller kept the client after its removal: wait for the pools to be closed, they are opened again on use
+                synchronized (this) {
+                    if (calls.compareAndSet(CLOSED, 1)) {
+                        return;
+                    }
+                }
+            } else if (calls.compareAndSet(current, current + 1)) {
+                return;
             }
         }
+    }
 
-        return sb.toString();
+    private void endCall() {
+        if (calls.decrementAndGet() == 0 && retired) {
+            closeLater();
+        }
     }
 
-    private Header[] createHeaders(String authentication) {
-        Header[] headers = new Header[2];
-        headers[0] = new BasicHeader(CONTENT_TYPE_KEY, CONTENT_TYPE);
-        headers[1] = new BasicHeader(AUTHENTICATION_KEY, authentication);
-        return headers;
+    /**
+     * Called when the client is removed from the instances: its pools are closed now, or when its last call is over
+     */
+    private void retire() {
+        retired = true;
+        if (calls.get() == 0) {
+            closeLater();
+        }
     }
 
-    public String doGet(String scheme, String host, String path, Header[] headers) throws IOException, URISyntaxException {
+    /**
+     * The last call may end on the NIO client thread, which can not wait for its own client to stop
+     */
+    private void closeLater() {
+        final Thread thread = new Thread(this::close, "paysafecard-close");
+        thread.setDaemon(true);
+        thread.start();
+    }
 
-        final URI uri = new URIBuilder()
-                .setScheme(scheme)
-                .setHost(host)
-                .setPath(path)
-                .build();
+    private synchronized void close() {
+        if (!calls.compareAndSet(0, CLOSED)) {
+            return;
+        }
+        LOGGER.info("Fermeture du service HTTP Client");
+        try {
+            sandbox.close();
+            production.close();
+        } catch (IOException e) {
+            LOGGER.warn("unable to close the HTTP client", e);
+        }
+    }
+
+    private PaySafeEndpoints createEndpoints(boolean isSandbox) {
+        final URI urlOverride = configuration.getUrlOverride();
+        if (urlOverride == null || !isSandbox) {
+            return new PaySafeEndpoints(PaySafeCardConstants.SCHEME, getHost(isSandbox), -1);
+        }
+        return new PaySafeEndpoints(urlOverride.getScheme(), urlOverride.getHost(), urlOverride.getPort());
+    }
 
+    private HttpGet createGet(URI uri, Header[] headers) {
         final HttpGet httpGetRequest = new HttpGet(uri);
         httpGetRequest.setHeaders(headers);
-        return this.execute(httpGetRequest);
+        return httpGetRequest;
     }
 
-    public String doPost(String scheme, String host, String path, Header[] headers, String body) throws IOException, URISyntaxException {
-
-        final URI uri = new URIBuilder()
-                .setScheme(scheme)
-                .setHost(host)
-                .setPath(path)
-                .build();
-
+    private HttpPost createPost(URI uri, Header[] headers, HttpEntity body) {
         final HttpPost httpPostRequest = new HttpPost(uri);
         httpPostRequest.setHeaders(headers);
-        httpPostRequest.setEntity(new StringEntity(body));
-        return this.execute(httpPostRequest);
+        httpPostRequest.setEntity(body);
+        return httpPostRequest;
+    }
+
+    /**
+     * Write the request in UTF-8 directly into the request body, without intermediate String
+     */
+    private HttpEntity createJsonBody(PaySafeRequest request) throws IOException {
+        final JsonBodyWriter body = new JsonBodyWriter();
+        try (JsonWriter writer = parser.newJsonWriter(body)) {
+            parser.toJson(request, request.getClass(), writer);
+        }
+        return body.toEntity();
+    }
+
+    public RetryPolicy getRetryPolicy() {
+        return retryPolicy;
+    }
+
+    /**
+     * Replace the retry policy read from the partner configuration
+     *
+     * @param retryPolicy the new retry policy
+     */
+    public void setRetryPolicy(RetryPolicy retryPolicy) {
+        this.retryPolicy = retryPolicy;
+    }
+
+    /**
+     * @param operation the operation
+     * @param host      the partner host
+     * @return the circuit breaker protecting the calls of this operation on this host, created on first call
+     */
+    public CircuitBreaker getCircuitBreaker(PaySafeOperation operation, String host) {
+        return circuitBreakers.computeIfAbsent(host + "/" + operation.getName(), configuration::createCircuitBreaker);
+    }
+
+    /**
+     * @return the circuit breakers created so far, to read their state and counters
+     */
+    public Collection<CircuitBreaker> getCircuitBreakers() {
+        return Collections.unmodifiableCollection(circuitBreakers.values());
+    }
+
+    /**
+     * @param operation     the operation
+     * @param authorization the Authorization header value
+     * @return the token bucket limiting the calls of this operation with this API key, created on first call, null if the operation is not limited
+     */
+    private TokenBucket getRateLimiter(PaySafeOperation operation, String authorization) {
+        if (configuration.getRateLimitBurst(operation) == 0) {
+            return null;
+        }
+        return rateLimiters.get(getRateLimiterKey(operation, authorization), () -> configuration.createRateLimiter(operation));
+    }
+
+    /**
+     * @param operation        the operation
+     * @param authorisationKey the API key of the contract
+     * @return the number of calls the API key can make now without waiting, {@link Double#POSITIVE_INFINITY} if the operation is not limited
+     */
+    public double getRateLimiterFill(PaySafeOperation operation, String authorisationKey) {
+        final int burst = configuration.getRateLimitBurst(operation);
+        if (burst == 0) {
+            return Double.POSITIVE_INFINITY;
+        }
+        // the bucket of an API key which has not called yet, or not for long, is full
+        final TokenBucket bucket = rateLimiters.getIfPresent(getRateLimiterKey(operation, PaySafeHeaders.getAuthorization(authorisationKey)));
+        return bucket == null ? burst : bucket.getAvailableTokens();
+    }
+
+    private static String getRateLimiterKey(PaySafeOperation operation, String authorization) {
+        return operation.getName() + ' ' + authorization;
     }
 
-    protected String execute(final HttpRequestBase request) throws IOException {
-        final long start = System.currentTimeMillis();
-        int count = 0;
-        String strResp = null;
-        while (count < 3) {
-            try (CloseableHttpResponse httpResp = this.client.execute(request)) {
+    /**
+     * @return the number of calls rejected because the rate limit of their API key was reached
+     */
+    public long getRateLimitedCalls() {
+        return rateLimitedCalls.sum();
+    }
+
+    /**
+     * Take a token from the bucket of the request API key
+     *
+     * @param remaining the time, in milliseconds, left before the deadline of the call
+     * @return the time, in milliseconds, to wait before sending the request
+     * @throws RateLimitExceededException if no token is available within the max wait
+     */
+    private long throttle(PaySafeOperation operation, HttpRequestBase request, long remaining) throws RateLimitExceededException {
+        final Header authorization = request.getFirstHeader(PaySafeHeaders.AUTHENTICATION_KEY);
+        final TokenBucket bucket = getRateLimiter(operation, authorization == null ? "" : authorization.getValue());
+        if (bucket == null) {
+            return 0;
+        }
+        final long wait = bucket.reserve(TimeUnit.MILLISECONDS.toNanos(Math.min(configuration.getRateLimitMaxWait(), remaining)));
+        if (wait < 0) {
+            rateLimitedCalls.increment();
+            throw new RateLimitExceededException("Rate limit of " + operation.getName() + " reached");
+        }
+        // round up, so that the token is there when the request is sent
+        return (wait + TimeUnit.MILLISECONDS.toNanos(1) - 1) / TimeUnit.MILLISECONDS.toNanos(1);
+    }
+
+    /**
+     * A server error means the partner is not able to process the request, unlike the other error codes
+     */
+    private static boolean isServerError(int statusCode) {
+        return statusCode >= 500;
+    }
 
-                if (httpResp.getEntity() != null) {
-                    LOGGER.info("Start partner call... [HOST: {}]", request.getURI().getHost());
-                    strResp = EntityUtils.toString(httpResp.getEntity(), DEFAULT_CHARSET);
+    protected PaySafePaymentResponse execute(final PaySafeOperation operation, final boolean isSandbox, final HttpRequestBase request) throws IOException {
+        startCall();
+        try {
+            return executeAttempts(operation, isSandbox, request);
+        } finally {
+            endCall();
+        }
+    }
+
+    private PaySafePaymentResponse executeAttempts(final PaySafeOperation operation, final boolean isSandbox, final HttpRequestBase request) throws IOException {
+        final RetryPolicy policy = this.retryPolicy;
+        final PaySafeBulkhead bulkhead = getBulkhead(isSandbox);
+        final CircuitBreaker circuitBreaker = getCircuitBreaker(operation, request.getURI().getHost());
+        final long start = System.nanoTime();
+        final long deadline = start + TimeUnit.MILLISECONDS.toNanos(bulkhead.getTimeoutProfile(operation).getDeadline());
+        int attempt = 0;
+        int statusCode = 0;
+        try {
+            while (true) {
+                attempt++;
+                statusCode = 0;
+                // every attempt counts in the partner quota
+                sleep(throttle(operation, request, getRemaining(operation, deadline)));
+                PaySafePaymentResponse response = null;
+                long retryDelay = -1;
+                bulkhead.acquire(operation, getRemaining(operation, deadline));
+                try {
+                    // the attempt can not last beyond the deadline
+                    request.setConfig(bulkhead.getRequestConfig(operation, getRemaining(operation, deadline)));
+                    // fail fast, without retry, while the partner is considered down
+                    circuitBreaker.acquirePermission();
+                    final long attemptStart = System.currentTimeMillis();
+                    try (CloseableHttpResponse httpResp = bulkhead.getClient().execute(request)) {
+                        statusCode = httpResp.getStatusLine().getStatusCode();
+                        if (policy.isRetryable(operation, statusCode)) {
+                            retryDelay = getRetryDelay(policy, attempt, start, deadline);
+                        }
+                        try {
+                            response = readResponse(request, httpResp, retryDelay >= 0);
+                        } catch (RuntimeException e) {
+                            // an unreadable body (ex: HTML error page) is a failed call, and gives back the permission
+                            circuitBreaker.onResult(System.currentTimeMillis() - attemptStart, true);
+                            throw e;
+                        }
+
+                        final long duration = System.currentTimeMillis() - attemptStart;
+                        LOGGER.info("End partner call [T: {}ms] [CODE: {}]", duration, statusCode);
+                        circuitBreaker.onResult(duration, isServerError(statusCode));
+                    } catch (final IOException e) {
+                        final long duration = System.currentTimeMillis() - attemptStart;
+                        LOGGER.error("Error while partner call [T: {}ms]", duration, e);
+                        circuitBreaker.onResult(duration, true);
+                        retryDelay = policy.isRetryable(operation, e) ? getRetryDelay(policy, attempt, start, deadline) : -1;
+                        if (retryDelay < 0) {
+                            throw e;
+                        }
+                    }
+                } finally {
+                    // the slot is not kept while waiting before the next attempt
+                    bulkhead.release();
                 }
 
-                final long end = System.currentTimeMillis();
-                LOGGER.info("End partner call [T: {}ms] [CODE: {}]", end - start, httpResp.getStatusLine().getStatusCode());
-                return strResp;
+                if (retryDelay < 0) {
+                    record(operation, isSandbox, start, statusCode, attempt, null);
+                    return response;
+                }
+                waitBeforeRetry(operation, attempt, retryDelay);
+            }
+        } catch (IOException | RuntimeException e) {
+            record(operation, isSandbox, start, statusCode, attempt, e);
+            throw e;
+        }
+    }
 
-            } catch (final IOException e) {
-                LOGGER.error("Error while partner call [T: {}ms]", System.currentTimeMillis() - start, e);
-            } finally {
-                count++;
+    /**
+     * Send the outcome of a call to the metrics recorder. A failing recorder must not fail the call.
+     */
+    private static void record(PaySafeOperation operation, boolean isSandbox, long start, int statusCode, int attempts, Throwable exception) {
+        try {
+            metricsRecorder.record(operation, isSandbox, System.nanoTime() - start, statusCode, Math.max(attempts - 1, 0),
+                    exception == null ? null : exception.getClass());
+        } catch (RuntimeException e) {
+            LOGGER.warn("Unable to record the partner call metrics", e);
+        }
+    }
+
+    /**
+     * @param start    the {@link System#nanoTime()} of the first attempt
+     * @param deadline the {@link System#nanoTime()} at which the call must be over
+     * @return the delay given by the retry policy before the next attempt, or -1 if no attempt is left
+     */
+    private static long getRetryDelay(RetryPolicy policy, int attempt, long start, long deadline) {
+        final long delay = policy.getDelay(attempt);
+        final long now = System.nanoTime();
+        if (now + TimeUnit.MILLISECONDS.toNanos(delay) >= deadline) {
+            return -1;
+        }
+        return policy.hasNextAttempt(attempt, TimeUnit.NANOSECONDS.toMillis(now - start), delay) ? delay : -1;
+    }
+
+    /**
+     * @param deadline the {@link System#nanoTime()} at which the call must be over
+     * @return the time, in milliseconds, left before the deadline
+     * @throws DeadlineExceededException if the deadline is reached
+     */
+    private static long getRemaining(PaySafeOperation operation, long deadline) throws DeadlineExceededException {
+        final long remaining = TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime());
+        if (remaining <= 0) {
+            throw new DeadlineExceededException("Deadline of " + operation.getName() + " reached");
+        }
+        return remaining;
+    }
+
+    private static void waitBeforeRetry(PaySafeOperation operation, int attempt, long delay) throws IOException {
+        LOGGER.warn("Retry partner call [OPERATION: {}] [ATTEMPT: {}] [DELAY: {}ms]", operation.getName(), attempt + 1, delay);
+        sleep(delay);
+    }
+
+    private static void sleep(long delay) throws IOException {
+        if (delay <= 0) {
+            return;
+        }
+        try {
+            Thread.sleep(delay);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting before the partner call");
+        }
+    }
+
+    /**
+     * @param retry true if the response will be discarded because the call is sent again
+     * @return the decoded response, or null if there is no body or if the response is discarded
+     */
+    private PaySafePaymentResponse readResponse(HttpRequestBase request, HttpResponse httpResp, boolean retry) throws IOException {
+        final HttpEntity entity = httpResp.getEntity();
+        if (retry) {
+            EntityUtils.consume(entity);
+            return null;
+        }
+        if (entity == null) {
+            return null;
+        }
+        LOGGER.info("Start partner call... [HOST: {}]", request.getURI().getHost());
+        return parse(entity);
+    }
+
+    /**
+     * Non blocking version of {@link #execute(PaySafeOperation, boolean, HttpRequestBase)}: the request is sent by the NIO client
+     * and no thread waits for the partner response, nor for the delay between two attempts.
+     *
+     * @param operation the operation the request belongs to
+     * @param isSandbox true if the request is sent to the sandbox environment
+     * @param request   the request to send
+     * @return a future completed with the decoded response, or completed exceptionally with an IOException
+     */
+    protected CompletableFuture<PaySafePaymentResponse> executeAsync(final PaySafeOperation operation, final boolean isSandbox, final HttpRequestBase request) {
+        final CompletableFuture<PaySafePaymentResponse> future = new CompletableFuture<>();
+        final long start = System.nanoTime();
+        startCall();
+        future.whenComplete((response, throwable) -> endCall());
+        try {
+            final PaySafeBulkhead bulkhead = getBulkhead(isSandbox);
+            // started here, so that a failure to start the NIO client is reported before the first attempt
+            bulkhead.getAsyncClient();
+            final CircuitBreaker circuitBreaker = getCircuitBreaker(operation, request.getURI().getHost());
+            final long deadline = start + TimeUnit.MILLISECONDS.toNanos(bulkhead.getTimeoutProfile(operation).getDeadline());
+            executeAsync(operation, isSandbox, request, bulkhead, this.retryPolicy, circuitBreaker, start, deadline, 1, future);
+        } catch (IOException e) {
+            record(operation, isSandbox, start, 0, 0, e);
+            future.completeExceptionally(e);
+        }
+        return future;
+    }
+
+    private void executeAsync(final PaySafeOperation operation, final boolean isSandbox, final HttpRequestBase request, final PaySafeBulkhead bulkhead,
+                              final RetryPolicy policy, final CircuitBreaker circuitBreaker, final long start, final long deadline, final int attempt,
+                              final CompletableFuture<PaySafePaymentResponse> future) {
+        final long wait;
+        try {
+            wait = throttle(operation, request, getRemaining(operation, deadline));
+        } catch (IOException e) {
+            record(operation, isSandbox, start, 0, attempt, e);
+            future.completeExceptionally(e);
+            return;
+        }
+        if (wait > 0) {
+            PaySafeScheduler.delay(wait).thenRun(() -> send(operation, isSandbox, request, bulkhead, policy, circuitBreaker, start, deadline, attempt, future))
+                    .whenComplete((v, t) -> completeOnFailure(future, t));
+        } else {
+            send(operation, isSandbox, request, bulkhead, policy, circuitBreaker, start, deadline, attempt, future);
+        }
+    }
+
+    private void send(final PaySafeOperation operation, final boolean isSandbox, final HttpRequestBase request, final PaySafeBulkhead bulkhead,
+                      final RetryPolicy policy, final CircuitBreaker circuitBreaker, final long start, final long deadline, final int attempt,
+                      final CompletableFuture<PaySafePaymentResponse> future) {
+        final CloseableHttpAsyncClient asyncClient;
+        final RequestConfig requestConfig;
+        try {
+            asyncClient = bulkhead.getAsyncClient();
+            // the attempt can not last beyond the deadline
+            requestConfig = bulkhead.getRequestConfig(operation, getRemaining(operation, deadline));
+            // no thread to block: fail fast when the environment has too many calls in flight
+            bulkhead.tryAcquire();
+        } catch (IOException e) {
+            record(operation, isSandbox, start, 0, attempt, e);
+            future.completeExceptionally(e);
+            return;
+        }
+        try {
+            circuitBreaker.acquirePermission();
+        } catch (CircuitBreakerOpenException e) {
+            bulkhead.release();
+            record(operation, isSandbox, start, 0, attempt, e);
+            future.completeExceptionally(e);
+            return;
+        }
+        request.setConfig(requestConfig);
+        final long attemptStart = System.currentTimeMillis();
+        final FutureCallback<HttpResponse> callback = new FutureCallback<HttpResponse>() {
+            private boolean released;
+
+            @Override
+            public void completed(HttpResponse httpResp) {
+                // the response body is already buffered
+                release();
+                final int statusCode = httpResp.getStatusLine().getStatusCode();
+                final long retryDelay = policy.isRetryable(operation, statusCode) ? getRetryDelay(policy, attempt, start, deadline) : -1;
+                final PaySafePaymentResponse response;
+                try {
+                    response = readResponse(request, httpResp, retryDelay >= 0);
+                } catch (IOException e) {
+                    failed(e);
+                    return;
+                } catch (RuntimeException e) {
+                    // an unreadable body (ex: HTML error page) is a failed call, and gives back the permission
+                    circuitBreaker.onResult(System.currentTimeMillis() - attemptStart, true);
+                    record(operation, isSandbox, start, statusCode, attempt, e);
+                    future.completeExceptionally(e);
+                    return;
+                }
+                final long duration = System.currentTimeMillis() - attemptStart;
+                LOGGER.info("End partner call [T: {}ms] [CODE: {}]", duration, statusCode);
+                circuitBreaker.onResult(duration, isServerError(statusCode));
+                if (retryDelay < 0) {
+                    record(operation, isSandbox, start, statusCode, attempt, null);
+                    future.complete(response);
+                } else {
+                    retry(retryDelay);
+                }
+            }
+
+            @Override
+            public void failed(Exception exception) {
+                release();
+                final IOException e = toIOException(exception);
+                final long duration = System.currentTimeMillis() - attemptStart;
+                LOGGER.error("Error while partner call [T: {}ms]", duration, e);
+                circuitBreaker.onResult(duration, true);
+                final long delay = policy.isRetryable(operation, e) ? getRetryDelay(policy, attempt, start, deadline) : -1;
+                if (delay < 0) {
+                    record(operation, isSandbox, start, 0, attempt, e);
+                    future.completeExceptionally(e);
+                } else {
+                    retry(delay);
+                }
+            }
+
+            @Override
+            public void cancelled() {
+                release();
+                circuitBreaker.releasePermission();
+                future.cancel(false);
+            }
+
+            // completed() calls failed() when the response can not be read
+            private void release() {
+                if (!released) {
+                    released = true;
+                    bulkhead.release();
+                }
+            }
+
+            private void retry(long delay) {
+                LOGGER.warn("Retry partner call [OPERATION: {}] [ATTEMPT: {}] [DELAY: {}ms]", operation.getName(), attempt + 1, delay);
+                PaySafeScheduler.delay(delay).thenRun(() -> executeAsync(operation, isSandbox, request, bulkhead, policy, circuitBreaker, start, deadline, attempt + 1, future))
+                        .whenComplete((v, t) -> completeOnFailure(future, t));
+            }
+        };
+        try {
+            asyncClient.execute(request, callback);
+        } catch (RuntimeException e) {
+            // ex: the NIO client is stopped, the callback is never called
+            bulkhead.release();
+            circuitBreaker.releasePermission();
+            throw e;
+        }
+    }
+
+    /**
+     * A delayed attempt runs on the scheduler: its unexpected failure must complete the call, or the caller would wait forever
+     */
+    private static void completeOnFailure(CompletableFuture<PaySafePaymentResponse> future, Throwable throwable) {
+        if (throwable != null) {
+            future.completeExceptionally(PaySafeErrorHandler.unwrap(throwable));
+        }
+    }
+
+    /**
+     * The NIO pool reports a lease timeout with a {@link TimeoutException}: every failure of a non blocking call is made
+     * an IOException, as for the blocking calls, for the retry policy and the callers.
+     */
+    private static IOException toIOException(Exception exception) {
+        if (exception instanceof IOException) {
+            return (IOException) exception;
+        }
+        final IOException e = exception instanceof TimeoutException
+                ? new ConnectionPoolTimeoutException("Timeout waiting for connection from pool")
+                : new IOException(exception.getMessage());
+        e.initCause(exception);
+        return e;
+    }
+
+    /**
+     * Decode the response directly from the response stream, without copying the body into a String
+     */
+    private PaySafePaymentResponse parse(HttpEntity entity) throws IOException {
+        final ContentType contentType = ContentType.get(entity);
+        final Charset charset = contentType == null || contentType.getCharset() == null ? StandardCharsets.UTF_8 : contentType.getCharset();
+        try (JsonReader reader = new JsonReader(new InputStreamReader(entity.getContent(), charset))) {
+            reader.setLenient(true);
+            try {
+                reader.peek();
+            } catch (EOFException e) {
+                // empty body
+                return null;
             }
+            return RESPONSE_ADAPTER.read(reader);
+        } catch (MalformedJsonException | IllegalStateException e) {
+            throw new JsonSyntaxException(e);
         }
-        throw new IOException("Partner response empty");
     }
 
-    public PaySafePaymentResponse initiate(PaySafeRequest request, boolean isSandbox) throws IOException, URISyntaxException {
-        String host = getHost(isSandbox);
-        String path = createPath(PaySafeCardConstants.PATH_VERSION, PaySafeCardConstants.PATH);
-        String jsonBody = parser.toJson(request);
-        Header[] headers = createHeaders(request.getAuthenticationHeader());
+    private static <T> CompletableFuture<T> failedFuture(Throwable e) {
+        final CompletableFuture<T> future = new CompletableFuture<>();
+        future.completeExceptionally(e);
+        return future;
+    }
 
-        // do the request
-        final String responseString = doPost(PaySafeCardConstants.SCHEME, host, path, headers, jsonBody);
+    private HttpRequestBase createInitiateRequest(PaySafeRequest request, boolean isSandbox) throws IOException {
+        URI uri = getEndpoints(isSandbox).payments();
+        HttpEntity jsonBody = createJsonBody(request);
+        Header[] headers = request.getHeaders();
 
-        // create object from PaySafeCard response
-        return parser.fromJson(responseString, PaySafePaymentResponse.class);
+        return createPost(uri, headers, jsonBody);
     }
 
-    public PaySafePaymentResponse retrievePaymentData(PaySafeCaptureRequest request, boolean isSandbox) throws IOException, URISyntaxException {
-        String host = getHost(isSandbox);
-        String path = createPath(PaySafeCardConstants.PATH_VERSION, PaySafeCardConstants.PATH, request.getPaymentId());
-        Header[] headers = createHeaders(request.getAuthenticationHeader());
+    private HttpRequestBase createRetrievePaymentDataRequest(PaySafeCaptureRequest request, boolean isSandbox) {
+        URI uri = getEndpoints(isSandbox).payment(request.getPaymentId());
+        Header[] headers = request.getHeaders();
+
+        return createGet(uri, headers);
+    }
 
-        // do the request
-        final String responseString = doGet(PaySafeCardConstants.SCHEME, host, path, headers);
+    private HttpRequestBase createCaptureRequest(PaySafeCaptureRequest request, boolean isSandbox) {
+        URI uri = getEndpoints(isSandbox).capture(request.getPaymentId());
+        Header[] headers = request.getHeaders();
 
-        // create object from PaySafeCard response
-        return parser.fromJson(responseString, PaySafePaymentResponse.class);
+        return createPost(uri, headers, EMPTY_BODY);
     }
 
-    public PaySafePaymentResponse capture(PaySafeCaptureRequest request, boolean isSandbox) throws IOException, URISyntaxException {
-        String host = getHost(isSandbox);
-        String path = createPath(PaySafeCardConstants.PATH_VERSION, PaySafeCardConstants.PATH, request.getPaymentId(), PaySafeCardConstants.PATH_CAPTURE);
+    private HttpRequestBase createRefundRequest(PaySafePaymentRequest request, boolean isSandbox) throws IOException {
+        URI uri = getEndpoints(isSandbox).refunds(request.getPaymentId());
+        HttpEntity jsonBody = createJsonBody(request);
+        Header[] headers = request.getHeaders();
 
-        String body = "";
-        Header[] headers = createHeaders(request.getAuthenticationHeader());
+        return createPost(uri, headers, jsonBody);
+    }
+
+    public PaySafePaymentResponse initiate(PaySafeRequest request, boolean isSandbox) throws IOException {
+        return execute(PaySafeOperation.INITIATE, isSandbox, createInitiateRequest(request, isSandbox));
+    }
+
+    public PaySafePaymentResponse retrievePaymentData(PaySafeCaptureRequest request, boolean isSandbox) throws IOException {
+        return execute(PaySafeOperation.RETRIEVE, isSandbox, createRetrievePaymentDataRequest(request, isSandbox));
+    }
+
+    public PaySafePaymentResponse capture(PaySafeCaptureRequest request, boolean isSandbox) throws IOException {
+        return execute(PaySafeOperation.CAPTURE, isSandbox, createCaptureRequest(request, isSandbox));
+    }
 
-        // do the request
-        final String responseString = doPost(PaySafeCardConstants.SCHEME, host, path, headers, body);
+    public PaySafePaymentResponse refund(PaySafePaymentRequest request, boolean isSandbox) throws IOException {
+        return execute(PaySafeOperation.REFUND, isSandbox, createRefundRequest(request, isSandbox));
+    }
 
-        // create object from PaySafeCard response
-        return parser.fromJson(responseString, PaySafePaymentResponse.class);
+    public CompletableFuture<PaySafePaymentResponse> initiateAsync(PaySafeRequest request, boolean isSandbox) {
+        try {
+            return executeAsync(PaySafeOperation.INITIATE, isSandbox, createInitiateRequest(request, isSandbox));
+        } catch (IOException e) {
+            return failedFuture(e);
+        }
     }
 
-    public PaySafePaymentResponse refund(PaySafePaymentRequest request, boolean isSandbox) throws IOException, URISyntaxException {
-        String host = getHost(isSandbox);
-        String path = createPath(PaySafeCardConstants.PATH_VERSION, PaySafeCardConstants.PATH, request.getPaymentId(), PaySafeCardConstants.PATH_REFUND);
-        String jsonBody = parser.toJson(request);
-        Header[] headers = createHeaders(request.getAuthenticationHeader());
+    public CompletableFuture<PaySafePaymentResponse> retrievePaymentDataAsync(PaySafeCaptureRequest request, boolean isSandbox) {
+        return executeAsync(PaySafeOperation.RETRIEVE, isSandbox, createRetrievePaymentDataRequest(request, isSandbox));
+    }
 
-        // do the request
-        final String responseString = doPost(PaySafeCardConstants.SCHEME, host, path, headers, jsonBody);
+    public CompletableFuture<PaySafePaymentResponse> captureAsync(PaySafeCaptureRequest request, boolean isSandbox) {
+        return executeAsync(PaySafeOperation.CAPTURE, isSandbox, createCaptureRequest(request, isSandbox));
+    }
 
-        // create object from PaySafeCard response
-        return parser.fromJson(responseString, PaySafePaymentResponse.class);
+    public CompletableFuture<PaySafePaymentResponse> refundAsync(PaySafePaymentRequest request, boolean isSandbox) {
+        try {
+            return executeAsync(PaySafeOperation.REFUND, isSandbox, createRefundRequest(request, isSandbox));
+        } catch (IOException e) {
+            return failedFuture(e);
+        }
     }
 
 }
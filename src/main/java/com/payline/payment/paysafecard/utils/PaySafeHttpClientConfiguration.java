@@ -0,0 +1,442 @@
+package com.payline.payment.paysafecard.utils;
+
+import com.payline.pmapi.bean.configuration.PartnerConfiguration;
+
+import java.net.URI;
+import java.util.Arrays;
+import java.util.Objects;
+
+/**
+ * Effective settings of a {@link PaySafeHttpClient}, read from the partner configuration.
+ * Used as the key of the client registry: two partner configurations with the same settings share the same client.
+ * <p>
+ * The timeouts, pool sizes and concurrent calls limit are read per environment: a key prefixed by {@value PaySafeHttpClient#SANDBOX_PREFIX}
+ * or {@value PaySafeHttpClient#PRODUCTION_PREFIX} overrides the unprefixed one for this environment only.
+ * The timeouts and the deadline are also read per operation: a key prefixed by the operation name (ex: retrieve.read.time.out)
+ * overrides the timeout of the environment for this operation only.
+ */
+public final class PaySafeHttpClientConfiguration {
+
+    static final int DEFAULT_CONNECT_TIMEOUT = 5000;
+    static final int DEFAULT_CONNECTION_REQUEST_TIMEOUT = 5000;
+    static final int DEFAULT_READ_SOCKET_TIMEOUT = 10000;
+    static final int DEFAULT_MAX_CONNECTIONS_TOTAL = 200;
+    static final int DEFAULT_MAX_CONNECTIONS_PER_ROUTE = 100;
+    static final int DEFAULT_RETRY_MAX_ATTEMPTS = 3;
+    static final int DEFAULT_RETRY_BASE_DELAY = 100;
+    static final int DEFAULT_RETRY_MAX_DELAY = 2000;
+    static final int DEFAULT_RETRY_DEADLINE = 15000;
+    static final int DEFAULT_CIRCUIT_BREAKER_FAILURE_RATE = 50;
+    static final int DEFAULT_CIRCUIT_BREAKER_SLOW_CALL_RATE = 100;
+    static final int DEFAULT_CIRCUIT_BREAKER_SLOW_CALL_DURATION = 5000;
+    static final int DEFAULT_CIRCUIT_BREAKER_WINDOW_SIZE = 20;
+    static final int DEFAULT_CIRCUIT_BREAKER_MINIMUM_CALLS = 10;
+    static final int DEFAULT_CIRCUIT_BREAKER_OPEN_DURATION = 30000;
+    static final int DEFAULT_CIRCUIT_BREAKER_HALF_OPEN_CALLS = 3;
+    static final int DEFAULT_RATE_LIMIT_MAX_WAIT = 0;
+
+    private final EnvironmentConfiguration sandbox;
+    private final EnvironmentConfiguration production;
+    private final int retryMaxAttempts;
+    private final int retryBaseDelay;
+    private final int retryMaxDelay;
+    private final int retryDeadline;
+    private final int circuitBreakerFailureRate;
+    private final int circuitBreakerSlowCallRate;
+    private final int circuitBreakerSlowCallDuration;
+    private final int circuitBreakerWindowSize;
+    private final int circuitBreakerMinimumCalls;
+    private final int circuitBreakerOpenDuration;
+    private final int circuitBreakerHalfOpenCalls;
+    // per operation, indexed by ordinal: a rate of 0 means no limit
+    private final double[] rateLimitRates;
+    private final int[] rateLimitBursts;
+    private final int rateLimitMaxWait;
+    private final URI urlOverride;
+
+    private PaySafeHttpClientConfiguration(EnvironmentConfiguration sandbox, EnvironmentConfiguration production,
+                                           int retryMaxAttempts, int retryBaseDelay, int retryMaxDelay, int retryDeadline,
+                                           int circuitBreakerFailureRate, int circuitBreakerSlowCallRate, int circuitBreakerSlowCallDuration,
+                                           int circuitBreakerWindowSize, int circuitBreakerMinimumCalls, int circuitBreakerOpenDuration, int circuitBreakerHalfOpenCalls,
+                                           double[] rateLimitRates, int[] rateLimitBursts, int rateLimitMaxWait, URI urlOverride) {
+        this.sandbox = sandbox;
+        this.production = production;
+        this.retryMaxAttempts = retryMaxAttempts;
+        this.retryBaseDelay = retryBaseDelay;
+        this.retryMaxDelay = retryMaxDelay;
+        this.retryDeadline = retryDeadline;
+        this.circuitBreakerFailureRate = circuitBreakerFailureRate;
+        this.circuitBreakerSlowCallRate = circuitBreakerSlowCallRate;
+        this.circuitBreakerSlowCallDuration = circuitBreakerSlowCallDuration;
+        this.circuitBreakerWindowSize = circuitBreakerWindowSize;
+        this.circuitBreakerMinimumCalls = circuitBreakerMinimumCalls;
+        this.circuitBreakerOpenDuration = circuitBreakerOpenDuration;
+        this.circuitBreakerHalfOpenCalls = circuitBreakerHalfOpenCalls;
+        this.rateLimitRates = rateLimitRates;
+        this.rateLimitBursts = rateLimitBursts;
+        this.rateLimitMaxWait = rateLimitMaxWait;
+        this.urlOverride = urlOverride;
+    }
+
+    /**
+     * Read the HTTP client settings from the partner configuration, missing values are replaced by default ones
+     *
+     * @param partnerConfiguration the partner configuration
+     * @return the effective settings
+     */
+    public static PaySafeHttpClientConfiguration from(PartnerConfiguration partnerConfiguration) {
+        final PaySafeOperation[] operations = PaySafeOperation.values();
+        final double[] rateLimitRates = new double[operations.length];
+        final int[] rateLimitBursts = new int[operations.length];
+        for (PaySafeOperation operation : operations) {
+            final double rate = getDouble(partnerConfiguration, PaySafeHttpClient.getRateLimitRateKey(operation), 0);
+            rateLimitRates[operation.ordinal()] = rate;
+            // one second of calls by default
+            rateLimitBursts[operation.ordinal()] = getInt(partnerConfiguration, PaySafeHttpClient.getRateLimitBurstKey(operation), (int) Math.max(1, Math.ceil(rate)));
+        }
+        final int retryDeadline = getInt(partnerConfiguration, PaySafeHttpClient.RETRY_DEADLINE, DEFAULT_RETRY_DEADLINE);
+        return new PaySafeHttpClientConfiguration(
+                EnvironmentConfiguration.from(partnerConfiguration, PaySafeHttpClient.SANDBOX_PREFIX, retryDeadline),
+                EnvironmentConfiguration.from(partnerConfiguration, PaySafeHttpClient.PRODUCTION_PREFIX, retryDeadline),
+                getInt(partnerConfiguration, PaySafeHttpClient.RETRY_MAX_ATTEMPTS, DEFAULT_RETRY_MAX_ATTEMPTS),
+                getInt(partnerConfiguration, PaySafeHttpClient.RETRY_BASE_DELAY, DEFAULT_RETRY_BASE_DELAY),
+                getInt(partnerConfiguration, PaySafeHttpClient.RETRY_MAX_DELAY, DEFAULT_RETRY_MAX_DELAY),
+                retryDeadline,
+                getInt(partnerConfiguration, PaySafeHttpClient.CIRCUIT_BREAKER_FAILURE_RATE, DEFAULT_CIRCUIT_BREAKER_FAILURE_RATE),
+                getInt(partnerConfiguration, PaySafeHttpClient.CIRCUIT_BREAKER_SLOW_CALL_RATE, DEFAULT_CIRCUIT_BREAKER_SLOW_CALL_RATE),
+                getInt(partnerConfiguration, PaySafeHttpClient.CIRCUIT_BREAKER_SLOW_CALL_DURATION, DEFAULT_CIRCUIT_BREAKER_SLOW_CALL_DURATION),
+                getInt(partnerConfiguration, PaySafeHttpClient.CIRCUIT_BREAKER_WINDOW_SIZE, DEFAULT_CIRCUIT_BREAKER_WINDOW_SIZE),
+                getInt(partnerConfiguration, PaySafeHttpClient.CIRCUIT_BREAKER_MINIMUM_CALLS, DEFAULT_CIRCUIT_BREAKER_MINIMUM_CALLS),
+                getInt(partnerConfiguration, PaySafeHttpClient.CIRCUIT_BREAKER_OPEN_DURATION, DEFAULT_CIRCUIT_BREAKER_OPEN_DURATION),
+                getInt(partnerConfiguration, PaySafeHttpClient.CIRCUIT_BREAKER_HALF_OPEN_CALLS, DEFAULT_CIRCUIT_BREAKER_HALF_OPEN_CALLS),
+                rateLimitRates,
+                rateLimitBursts,
+                getInt(partnerConfiguration, PaySafeHttpClient.RATE_LIMIT_MAX_WAIT, DEFAULT_RATE_LIMIT_MAX_WAIT),
+                getUri(partnerConfiguration, PaySafeHttpClient.URL_OVERRIDE));
+    }
+
+    static URI getUri(PartnerConfiguration partnerConfiguration, String key) {
+        String value = partnerConfiguration == null ? null : partnerConfiguration.getProperty(key);
+        if (DataChecker.isEmpty(value)) {
+            return null;
+        }
+        URI uri = URI.create(value.trim());
+        if (uri.getScheme() == null || uri.getHost() == null) {
+            throw new IllegalArgumentException(key + " must be an absolute URL with a scheme and a host: " + value);
+        }
+        return uri;
+    }
+
+    static int getInt(PartnerConfiguration partnerConfiguration, String key, int defaultValue) {
+        String value = partnerConfiguration == null ? null : partnerConfiguration.getProperty(key);
+        if (DataChecker.isEmpty(value)) {
+            return defaultValue;
+        }
+        return Integer.parseInt(value.trim());
+    }
+
+    /**
+     * @return the value of the key prefixed by the environment, or of the unprefixed key if missing
+     */
+    static int getInt(PartnerConfiguration partnerConfiguration, String prefix, String key, int defaultValue) {
+        return getInt(partnerConfiguration, prefix + key, getInt(partnerConfiguration, key, defaultValue));
+    }
+
+    static double getDouble(PartnerConfiguration partnerConfiguration, String key, double defaultValue) {
+        String value = partnerConfiguration == null ? null : partnerConfiguration.getProperty(key);
+        if (DataChecker.isEmpty(value)) {
+            return defaultValue;
+        }
+        return Double.parseDouble(value.trim());
+    }
+
+    /**
+     * @return the settings of the sandbox or production environment
+     */
+    public EnvironmentConfiguration getEnvironment(boolean isSandbox) {
+        return isSandbox ? sandbox : production;
+    }
+
+    /**
+     * @return the time, in milliseconds, a call waits for a token of its rate limiter before failing, 0 to fail fast
+     */
+    public int getRateLimitMaxWait() {
+        return rateLimitMaxWait;
+    }
+
+    /**
+     * @return the URL replacing the Paysafecard API (sandbox and production), or null to call Paysafecard
+     */
+    public URI getUrlOverride() {
+        return urlOverride;
+    }
+
+    /**
+     * @return the retry policy matching the retry settings
+     */
+    public RetryPolicy createRetryPolicy() {
+        return RetryPolicy.RetryPolicyBuilder.aRetryPolicy()
+                .withMaxAttempts(retryMaxAttempts)
+                .withBaseDelay(retryBaseDelay)
+                .withMaxDelay(retryMaxDelay)
+                .withDeadline(retryDeadline)
+                .build();
+    }
+
+    /**
+     * @param name the circuit breaker name, used in logs
+     * @return a circuit breaker matching the circuit breaker settings
+     */
+    public CircuitBreaker createCircuitBreaker(String name) {
+        return CircuitBreaker.CircuitBreakerBuilder.aCircuitBreaker()
+                .withName(name)
+                .withFailureRateThreshold(circuitBreakerFailureRate)
+                .withSlowCallRateThreshold(circuitBreakerSlowCallRate)
+                .withSlowCallDuration(circuitBreakerSlowCallDuration)
+                .withWindowSize(circuitBreakerWindowSize)
+                .withMinimumNumberOfCalls(circuitBreakerMinimumCalls)
+                .withOpenDuration(circuitBreakerOpenDuration)
+                .withPermittedCallsInHalfOpenState(circuitBreakerHalfOpenCalls)
+                .build();
+    }
+
+    /**
+     * @param operation the operation
+     * @return a token bucket matching the rate limit of the operation, or null if the operation is not limited
+     */
+    public TokenBucket createRateLimiter(PaySafeOperation operation) {
+        final double rate = rateLimitRates[operation.ordinal()];
+        return rate > 0 ? new TokenBucket(rate, rateLimitBursts[operation.ordinal()]) : null;
+    }
+
+    /**
+     * @param operation the operation
+     * @return the burst size of the rate limit of the operation, 0 if the operation is not limited
+     */
+    public int getRateLimitBurst(PaySafeOperation operation) {
+        return rateLimitRates[operation.ordinal()] > 0 ? rateLimitBursts[operation.ordinal()] : 0;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (o == null || getClass() != o.getClass()) {
+            return false;
+        }
+        PaySafeHttpClientConfiguration that = (PaySafeHttpClientConfiguration) o;
+        return sandbox.equals(that.sandbox)
+                && production.equals(that.production)
+                && retryMaxAttempts == that.retryMaxAttempts
+                && retryBaseDelay == that.retryBaseDelay
+                && retryMaxDelay == that.retryMaxDelay
+                && retryDeadline == that.retryDeadline
+                && circuitBreakerFailureRate == that.circuitBreakerFailureRate
+                && circuitBreakerSlowCallRate == that.circuitBreakerSlowCallRate
+                && circuitBreakerSlowCallDuration == that.circuitBreakerSlowCallDuration
+                && circuitBreakerWindowSize == that.circuitBreakerWindowSize
+                && circuitBreakerMinimumCalls == that.circuitBreakerMinimumCalls
+                && circuitBreakerOpenDuration == that.circuitBreakerOpenDuration
+                && circuitBreakerHalfOpenCalls == that.circuitBreakerHalfOpenCalls
+                && Arrays.equals(rateLimitRates, that.rateLimitRates)
+                && Arrays.equals(rateLimitBursts, that.rateLimitBursts)
+                && rateLimitMaxWait == that.rateLimitMaxWait
+                && Objects.equals(urlOverride, that.urlOverride);
+    }
+
+    @Override
+    public int hashCode() {
+        int result = Objects.hash(sandbox, production,
+                retryMaxAttempts, retryBaseDelay, retryMaxDelay, retryDeadline,
+                circuitBreakerFailureRate, circuitBreakerSlowCallRate, circuitBreakerSlowCallDuration, circuitBreakerWindowSize,
+                circuitBreakerMinimumCalls, circuitBreakerOpenDuration, circuitBreakerHalfOpenCalls, rateLimitMaxWait, urlOverride);
+        result = 31 * result + Arrays.hashCode(rateLimitRates);
+        return 31 * result + Arrays.hashCode(rateLimitBursts);
+    }
+
+    @Override
+    public String toString() {
+        return "[sandbox: " + sandbox + ", production: " + production
+                + ", retry: " + retryMaxAttempts + " attempts, " + retryBaseDelay + "-" + retryMaxDelay + "ms, deadline: " + retryDeadline
+                + "ms, circuit breaker: " + circuitBreakerFailureRate + "% failed, " + circuitBreakerSlowCallRate + "% slow over " + circuitBreakerSlowCallDuration
+                + "ms, window: " + circuitBreakerMinimumCalls + "/" + circuitBreakerWindowSize + ", open: " + circuitBreakerOpenDuration + "ms, half open: " + circuitBreakerHalfOpenCalls + "]";
+    }
+
+    /**
+     * Settings of one environment: each environment has its own connection pools, so that a flood of test calls
+     * or a sandbox outage does not take the connections of the production calls.
+     */
+    public static final class EnvironmentConfiguration {
+        private final int connectTimeout;
+        private final int connectionRequestTimeout;
+        private final int socketTimeout;
+        private final int maxConnectionsTotal;
+        private final int maxConnectionsPerRoute;
+        private final int maxConcurrentCalls;
+        // indexed by operation ordinal
+        private final TimeoutProfile[] timeoutProfiles;
+
+        private EnvironmentConfiguration(int connectTimeout, int connectionRequestTimeout, int socketTimeout,
+                                         int maxConnectionsTotal, int maxConnectionsPerRoute, int maxConcurrentCalls, TimeoutProfile[] timeoutProfiles) {
+            this.connectTimeout = connectTimeout;
+            this.connectionRequestTimeout = connectionRequestTimeout;
+            this.socketTimeout = socketTimeout;
+            this.maxConnectionsTotal = maxConnectionsTotal;
+            this.maxConnectionsPerRoute = maxConnectionsPerRoute;
+            this.maxConcurrentCalls = maxConcurrentCalls;
+            this.timeoutProfiles = timeoutProfiles;
+        }
+
+        static EnvironmentConfiguration from(PartnerConfiguration partnerConfiguration, String prefix, int deadline) {
+            final int connectTimeout = getInt(partnerConfiguration, prefix, PaySafeHttpClient.KEY_CONNECT_TIMEOUT, DEFAULT_CONNECT_TIMEOUT);
+            final int connectionRequestTimeout = getInt(partnerConfiguration, prefix, PaySafeHttpClient.CONNECTION_REQUEST_TIMEOUT, DEFAULT_CONNECTION_REQUEST_TIMEOUT);
+            final int socketTimeout = getInt(partnerConfiguration, prefix, PaySafeHttpClient.READ_SOCKET_TIMEOUT, DEFAULT_READ_SOCKET_TIMEOUT);
+            final int maxConnectionsTotal = getInt(partnerConfiguration, prefix, PaySafeHttpClient.MAX_CONNECTIONS_TOTAL, DEFAULT_MAX_CONNECTIONS_TOTAL);
+            final PaySafeOperation[] operations = PaySafeOperation.values();
+            final TimeoutProfile[] timeoutProfiles = new TimeoutProfile[operations.length];
+            for (PaySafeOperation operation : operations) {
+                timeoutProfiles[operation.ordinal()] = new TimeoutProfile(
+                        getInt(partnerConfiguration, prefix, PaySafeHttpClient.getOperationKey(operation, PaySafeHttpClient.KEY_CONNECT_TIMEOUT), connectTimeout),
+                        getInt(partnerConfiguration, prefix, PaySafeHttpClient.getOperationKey(operation, PaySafeHttpClient.CONNECTION_REQUEST_TIMEOUT), connectionRequestTimeout),
+                        getInt(partnerConfiguration, prefix, PaySafeHttpClient.getOperationKey(operation, PaySafeHttpClient.READ_SOCKET_TIMEOUT), socketTimeout),
+                        getInt(partnerConfiguration, prefix, PaySafeHttpClient.getOperationKey(operation, PaySafeHttpClient.DEADLINE), deadline));
+            }
+            return new EnvironmentConfiguration(
+                    connectTimeout,
+                    connectionRequestTimeout,
+                    socketTimeout,
+                    maxConnectionsTotal,
+                    getInt(partnerConfiguration, prefix, PaySafeHttpClient.MAX_CONNECTIONS_PER_ROUTE, DEFAULT_MAX_CONNECTIONS_PER_ROUTE),
+                    // by default, as many calls as connections
+                    getInt(partnerConfiguration, prefix, PaySafeHttpClient.MAX_CONCURRENT_CALLS, maxConnectionsTotal),
+                    timeoutProfiles);
+        }
+
+        public int getConnectTimeout() {
+            return connectTimeout;
+        }
+
+        public int getConnectionRequestTimeout() {
+            return connectionRequestTimeout;
+        }
+
+        public int getSocketTimeout() {
+            return socketTimeout;
+        }
+
+        public int getMaxConnectionsTotal() {
+            return maxConnectionsTotal;
+        }
+
+        public int getMaxConnectionsPerRoute() {
+            return maxConnectionsPerRoute;
+        }
+
+        /**
+         * @return the number of calls sent at the same time on the environment, by the blocking and the non blocking clients
+         */
+        public int getMaxConcurrentCalls() {
+            return maxConcurrentCalls;
+        }
+
+        /**
+         * @return the timeouts of the operation on the environment
+         */
+        public TimeoutProfile getTimeoutProfile(PaySafeOperation operation) {
+            return timeoutProfiles[operation.ordinal()];
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (o == null || getClass() != o.getClass()) {
+                return false;
+            }
+            EnvironmentConfiguration that = (EnvironmentConfiguration) o;
+            return connectTimeout == that.connectTimeout
+                    && connectionRequestTimeout == that.connectionRequestTimeout
+                    && socketTimeout == that.socketTimeout
+                    && maxConnectionsTotal == that.maxConnectionsTotal
+                    && maxConnectionsPerRoute == that.maxConnectionsPerRoute
+                    && maxConcurrentCalls == that.maxConcurrentCalls
+                    && Arrays.equals(timeoutProfiles, that.timeoutProfiles);
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * Objects.hash(connectTimeout, connectionRequestTimeout, socketTimeout, maxConnectionsTotal, maxConnectionsPerRoute, maxConcurrentCalls)
+                    + Arrays.hashCode(timeoutProfiles);
+        }
+
+        @Override
+        public String toString() {
+            return "[connect: " + connectTimeout + "ms, request: " + connectionRequestTimeout + "ms, read: " + socketTimeout
+                    + "ms, pool: " + maxConnectionsTotal + "/" + maxConnectionsPerRoute + ", concurrent calls: " + maxConcurrentCalls
+                    + ", operations: " + Arrays.toString(timeoutProfiles) + "]";
+        }
+    }
+
+    /**
+     * Timeouts of one operation: a status check should fail fast, while a capture or a refund may take longer.
+     */
+    public static final class TimeoutProfile {
+        private final int connectTimeout;
+        private final int connectionRequestTimeout;
+        private final int socketTimeout;
+        private final int deadline;
+
+        private TimeoutProfile(int connectTimeout, int connectionRequestTimeout, int socketTimeout, int deadline) {
+            this.connectTimeout = connectTimeout;
+            this.connectionRequestTimeout = connectionRequestTimeout;
+            this.socketTimeout = socketTimeout;
+            this.deadline = deadline;
+        }
+
+        public int getConnectTimeout() {
+            return connectTimeout;
+        }
+
+        public int getConnectionRequestTimeout() {
+            return connectionRequestTimeout;
+        }
+
+        public int getSocketTimeout() {
+            return socketTimeout;
+        }
+
+        /**
+         * @return the time, in milliseconds, given to the whole call: rate limit, retries and their delays included
+         */
+        public int getDeadline() {
+            return deadline;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (o == null || getClass() != o.getClass()) {
+                return false;
+            }
+            TimeoutProfile that = (TimeoutProfile) o;
+            return connectTimeout == that.connectTimeout
+                    && connectionRequestTimeout == that.connectionRequestTimeout
+                    && socketTimeout == that.socketTimeout
+                    && deadline == that.deadline;
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(connectTimeout, connectionRequestTimeout, socketTimeout, deadline);
+        }
+
+        @Override
+        public String toString() {
+            return "[connect: " + connectTimeout + "ms, request: " + connectionRequestTimeout + "ms, read: " + socketTimeout + "ms, deadline: " + deadline + "ms]";
+        }
+    }
+}
@@ -0,0 +1,24 @@
+package com.payline.payment.paysafecard.utils;
+
+/**
+ * Calls made to the PaySafeCard API
+ */
+public enum PaySafeOperation {
+    INITIATE("initiate"),
+    RETRIEVE("retrieve"),
+    CAPTURE("capture"),
+    REFUND("refund");
+
+    private final String name;
+
+    PaySafeOperation(String name) {
+        this.name = name;
+    }
+
+    /**
+     * @return the name used in logs and configuration keys
+     */
+    public String getName() {
+        return name;
+    }
+}
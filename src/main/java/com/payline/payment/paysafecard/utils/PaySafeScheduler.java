@@ -0,0 +1,39 @@
+package com.payline.payment.paysafecard.utils;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Shared timer used to delay asynchronous work (retries, polling) without blocking a thread.
+ * Scheduled tasks must stay short: they only trigger the next non blocking call.
+ */
+public class PaySafeScheduler {
+    private static final int POOL_SIZE = 2;
+    private static final AtomicInteger threadCount = new AtomicInteger();
+
+    private static final ScheduledExecutorService scheduler = Executors.newScheduledThreadPool(POOL_SIZE, runnable -> {
+        Thread thread = new Thread(runnable, "paysafecard-scheduler-" + threadCount.incrementAndGet());
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private PaySafeScheduler() {
+        // ras.
+    }
+
+    /**
+     * @param delay the delay in milliseconds
+     * @return a future completed once the delay is elapsed
+     */
+    public static CompletableFuture<Void> delay(long delay) {
+        if (delay <= 0) {
+            return CompletableFuture.completedFuture(null);
+        }
+        final CompletableFuture<Void> future = new CompletableFuture<>();
+        scheduler.schedule(() -> future.complete(null), delay, TimeUnit.MILLISECONDS);
+        return future;
+    }
+}
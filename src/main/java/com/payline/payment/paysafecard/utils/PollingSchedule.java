@@ -0,0 +1,135 @@
+package com.payline.payment.paysafecard.utils;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Decides when a payment still pending at the partner is polled again, depending on its last seen status.
+ * <ul>
+ * <li>each pending status has its own base delay: a customer on the paysafecard page (REDIRECTED) is likely to
+ * finish sooner than one who has not been redirected yet (INITIATED)</li>
+ * <li>delays double at each poll of the payment, up to the max delay</li>
+ * <li>communication errors are polled again with the error delay</li>
+ * <li>no poll is scheduled after the max number of polls or after the deadline, counted from the first poll</li>
+ * </ul>
+ */
+public class PollingSchedule {
+    private final Map<String, Long> pendingDelays;
+    private final long errorDelay;
+    private final long maxDelay;
+    private final int maxPolls;
+    private final long deadline;
+
+    private PollingSchedule(PollingScheduleBuilder builder) {
+        this.pendingDelays = Collections.unmodifiableMap(new HashMap<>(builder.pendingDelays));
+        this.errorDelay = builder.errorDelay;
+        this.maxDelay = builder.maxDelay;
+        this.maxPolls = builder.maxPolls;
+        this.deadline = builder.deadline;
+    }
+
+    public int getMaxPolls() {
+        return maxPolls;
+    }
+
+    public long getDeadline() {
+        return deadline;
+    }
+
+    /**
+     * @param status the last seen status of the payment
+     * @return true if the payment can still change without any action of the merchant
+     */
+    public boolean isPending(String status) {
+        return status != null && pendingDelays.containsKey(status);
+    }
+
+    /**
+     * @param status the last seen status of the payment, null after a communication error
+     * @param poll   the number of polls already done
+     * @return the delay to wait before the next poll, in milliseconds, or -1 if the status is final
+     */
+    public long getDelay(String status, int poll) {
+        final Long baseDelay = status == null ? Long.valueOf(errorDelay) : pendingDelays.get(status);
+        if (baseDelay == null) {
+            return -1;
+        }
+        long delay = baseDelay;
+        for (int i = 1; i < poll && delay < maxDelay; i++) {
+            delay *= 2;
+        }
+        return Math.min(delay, maxDelay);
+    }
+
+    /**
+     * @param poll    the number of polls already done
+     * @param elapsed the time spent since the first poll, in milliseconds
+     * @param delay   the delay before the next poll, in milliseconds
+     * @return true if there is a poll left and it can start before the deadline
+     */
+    public boolean hasNextPoll(int poll, long elapsed, long delay) {
+        return delay >= 0 && poll < maxPolls && elapsed + delay < deadline;
+    }
+
+    public static final class PollingScheduleBuilder {
+        private final Map<String, Long> pendingDelays = new HashMap<>();
+        private long errorDelay = 1000;
+        private long maxDelay = 30000;
+        private int maxPolls = 10;
+        private long deadline = 300000;
+
+        private PollingScheduleBuilder() {
+            pendingDelays.put(PaySafeCardConstants.STATUS_INITIATED, 5000L);
+            pendingDelays.put(PaySafeCardConstants.STATUS_REDIRECTED, 1000L);
+            // still authorized after the capture: it may be captured by a concurrent call
+            pendingDelays.put(PaySafeCardConstants.STATUS_AUTHORIZED, 500L);
+        }
+
+        public static PollingScheduleBuilder aPollingSchedule() {
+            return new PollingScheduleBuilder();
+        }
+
+        /**
+         * @param status a status from which the payment can still change
+         * @param delay  the delay, in milliseconds, before the first poll after this status
+         */
+        public PollingScheduleBuilder withPendingDelay(String status, long delay) {
+            this.pendingDelays.put(status, delay);
+            return this;
+        }
+
+        /**
+         * @param errorDelay the delay, in milliseconds, before the first poll after a communication error
+         */
+        public PollingScheduleBuilder withErrorDelay(long errorDelay) {
+            this.errorDelay = errorDelay;
+            return this;
+        }
+
+        public PollingScheduleBuilder withMaxDelay(long maxDelay) {
+            this.maxDelay = maxDelay;
+            return this;
+        }
+
+        public PollingScheduleBuilder withMaxPolls(int maxPolls) {
+            this.maxPolls = maxPolls;
+            return this;
+        }
+
+        public PollingScheduleBuilder withDeadline(long deadline) {
+            this.deadline = deadline;
+            return this;
+        }
+
+        public PollingSchedule build() {
+            if (maxPolls < 1) {
+                throw new IllegalArgumentException("maxPolls must be at least 1");
+            }
+            if (errorDelay < 0 || maxDelay < 0 || pendingDelays.values().stream().anyMatch(delay -> delay == null || delay < 0)) {
+                throw new IllegalArgumentException("delays must not be negative");
+            }
+            return new PollingSchedule(this);
+        }
+    }
+}
@@ -0,0 +1,12 @@
+package com.payline.payment.paysafecard.utils;
+
+import java.io.IOException;
+
+/**
+ * Thrown instead of calling the partner when the rate limit of the API key is reached
+ */
+public class RateLimitExceededException extends IOException {
+    public RateLimitExceededException(String s) {
+        super(s);
+    }
+}
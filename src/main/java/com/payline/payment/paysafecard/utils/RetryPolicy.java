@@ -0,0 +1,211 @@
+package com.payline.payment.paysafecard.utils;
+
+import org.apache.http.conn.ConnectTimeoutException;
+import org.apache.http.conn.ConnectionPoolTimeoutException;
+
+import javax.net.ssl.SSLException;
+import java.io.IOException;
+import java.net.ConnectException;
+import java.net.UnknownHostException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Decides if a failed partner call can be sent again, and when.
+ * <ul>
+ * <li>delays grow exponentially from the base delay up to the max delay, with a random part (jitter) so that
+ * concurrent calls do not retry at the same time</li>
+ * <li>no retry is scheduled after the deadline, counted from the first attempt</li>
+ * <li>idempotent operations are retried on any retryable exception or status code, the other ones only when the
+ * request has not reached the partner (connection refused, connection timeout...)</li>
+ * </ul>
+ */
+public class RetryPolicy {
+    private final int maxAttempts;
+    private final long baseDelay;
+    private final long maxDelay;
+    private final double jitter;
+    private final long deadline;
+    private final List<Class<? extends Exception>> retryableExceptions;
+    private final List<Class<? extends Exception>> nonRetryableExceptions;
+    private final List<Class<? extends Exception>> notSentExceptions;
+    private final Set<Integer> retryableStatusCodes;
+    private final Set<PaySafeOperation> idempotentOperations;
+
+    private RetryPolicy(RetryPolicyBuilder builder) {
+        this.maxAttempts = builder.maxAttempts;
+        this.baseDelay = builder.baseDelay;
+        this.maxDelay = builder.maxDelay;
+        this.jitter = builder.jitter;
+        this.deadline = builder.deadline;
+        this.retryableExceptions = Collections.unmodifiableList(builder.retryableExceptions);
+        this.nonRetryableExceptions = Collections.unmodifiableList(builder.nonRetryableExceptions);
+        this.notSentExceptions = Collections.unmodifiableList(builder.notSentExceptions);
+        this.retryableStatusCodes = Collections.unmodifiableSet(builder.retryableStatusCodes);
+        this.idempotentOperations = Collections.unmodifiableSet(builder.idempotentOperations);
+    }
+
+    public int getMaxAttempts() {
+        return maxAttempts;
+    }
+
+    public long getDeadline() {
+        return deadline;
+    }
+
+    public boolean isIdempotent(PaySafeOperation operation) {
+        return idempotentOperations.contains(operation);
+    }
+
+    /**
+     * @param operation the failed operation
+     * @param exception the exception raised by the call
+     * @return true if the call can be sent again
+     */
+    public boolean isRetryable(PaySafeOperation operation, Exception exception) {
+        if (isInstance(nonRetryableExceptions, exception)) {
+            return false;
+        }
+        if (isIdempotent(operation)) {
+            return isInstance(retryableExceptions, exception);
+        }
+        // the partner may have processed the request: only retry if it has not been sent
+        return isInstance(notSentExceptions, exception);
+    }
+
+    /**
+     * @param operation  the operation
+     * @param statusCode the HTTP status code returned by the partner
+     * @return true if the call can be sent again
+     */
+    public boolean isRetryable(PaySafeOperation operation, int statusCode) {
+        return isIdempotent(operation) && retryableStatusCodes.contains(statusCode);
+    }
+
+    /**
+     * @param attempt the number of attempts already done
+     * @return the delay to wait before the next attempt, in milliseconds
+     */
+    public long getDelay(int attempt) {
+        long delay = baseDelay;
+        for (int i = 1; i < attempt && delay < maxDelay; i++) {
+            delay *= 2;
+        }
+        delay = Math.min(delay, maxDelay);
+        long random = (long) (delay * jitter);
+        if (random <= 0) {
+            return delay;
+        }
+        return delay - random + ThreadLocalRandom.current().nextLong(random + 1);
+    }
+
+    /**
+     * @param attempt the number of attempts already done
+     * @param elapsed the time spent since the first attempt, in milliseconds
+     * @param delay   the delay before the next attempt, in milliseconds
+     * @return true if there is an attempt left and it can start before the deadline
+     */
+    public boolean hasNextAttempt(int attempt, long elapsed, long delay) {
+        return attempt < maxAttempts && elapsed + delay < deadline;
+    }
+
+    private static boolean isInstance(List<Class<? extends Exception>> classes, Exception exception) {
+        for (Class<? extends Exception> clazz : classes) {
+            if (clazz.isInstance(exception)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    public static final class RetryPolicyBuilder {
+        private int maxAttempts = 3;
+        private long baseDelay = 100;
+        private long maxDelay = 2000;
+        private double jitter = 0.5;
+        private long deadline = 15000;
+        private List<Class<? extends Exception>> retryableExceptions = Collections.singletonList(IOException.class);
+        private List<Class<? extends Exception>> nonRetryableExceptions = Collections.singletonList(SSLException.class);
+        private List<Class<? extends Exception>> notSentExceptions = Arrays.asList(ConnectException.class, ConnectTimeoutException.class,
+                ConnectionPoolTimeoutException.class, UnknownHostException.class);
+        private Set<Integer> retryableStatusCodes = new HashSet<>(Arrays.asList(502, 503, 504));
+        private Set<PaySafeOperation> idempotentOperations = EnumSet.of(PaySafeOperation.RETRIEVE);
+
+        private RetryPolicyBuilder() {
+        }
+
+        public static RetryPolicyBuilder aRetryPolicy() {
+            return new RetryPolicyBuilder();
+        }
+
+        public RetryPolicyBuilder withMaxAttempts(int maxAttempts) {
+            this.maxAttempts = maxAttempts;
+            return this;
+        }
+
+        public RetryPolicyBuilder withBaseDelay(long baseDelay) {
+            this.baseDelay = baseDelay;
+            return this;
+        }
+
+        public RetryPolicyBuilder withMaxDelay(long maxDelay) {
+            this.maxDelay = maxDelay;
+            return this;
+        }
+
+        /**
+         * @param jitter the random part of each delay, between 0 (fixed delays) and 1 (delays between 0 and the computed delay)
+         */
+        public RetryPolicyBuilder withJitter(double jitter) {
+            this.jitter = jitter;
+            return this;
+        }
+
+        public RetryPolicyBuilder withDeadline(long deadline) {
+            this.deadline = deadline;
+            return this;
+        }
+
+        public RetryPolicyBuilder withRetryableExceptions(Collection<Class<? extends Exception>> exceptions) {
+            this.retryableExceptions = new ArrayList<>(exceptions);
+            return this;
+        }
+
+        public RetryPolicyBuilder withNonRetryableExceptions(Collection<Class<? extends Exception>> exceptions) {
+            this.nonRetryableExceptions = new ArrayList<>(exceptions);
+            return this;
+        }
+
+        public RetryPolicyBuilder withNotSentExceptions(Collection<Class<? extends Exception>> exceptions) {
+            this.notSentExceptions = new ArrayList<>(exceptions);
+            return this;
+        }
+
+        public RetryPolicyBuilder withRetryableStatusCodes(Integer... statusCodes) {
+            this.retryableStatusCodes = new HashSet<>(Arrays.asList(statusCodes));
+            return this;
+        }
+
+        public RetryPolicyBuilder withIdempotentOperations(PaySafeOperation... operations) {
+            this.idempotentOperations = operations.length == 0 ? EnumSet.noneOf(PaySafeOperation.class) : EnumSet.copyOf(Arrays.asList(operations));
+            return this;
+        }
+
+        public RetryPolicy build() {
+            if (maxAttempts < 1) {
+                throw new IllegalArgumentException("maxAttempts must be at least 1");
+            }
+            if (jitter < 0 || jitter > 1) {
+                throw new IllegalArgumentException("jitter must be between 0 and 1");
+            }
+            return new RetryPolicy(this);
+        }
+    }
+}
@@ -0,0 +1,87 @@
+package com.payline.payment.paysafecard.utils;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.LongSupplier;
+
+/**
+ * Lock-free token bucket: tokens are added at a fixed rate, up to the burst size, and each call takes one.
+ * <p>
+ * The whole state is the time at which the bucket will be full again: taking a token moves it one interval later.
+ * A token can also be reserved in advance, the caller then waits for the returned delay before calling.
+ */
+public class TokenBucket {
+    private final long interval;
+    private final long burstDuration;
+    private final LongSupplier clock;
+    // time, in nanoseconds, at which the bucket is full again
+    private final AtomicLong fullAt;
+
+    /**
+     * @param rate  the number of tokens added per second
+     * @param burst the maximum number of tokens in the bucket
+     */
+    public TokenBucket(double rate, int burst) {
+        this(rate, burst, System::nanoTime);
+    }
+
+    /**
+     * @param rate  the number of tokens added per second
+     * @param burst the maximum number of tokens in the bucket
+     * @param clock the current time, in nanoseconds
+     */
+    public TokenBucket(double rate, int burst, LongSupplier clock) {
+        if (!(rate > 0) || burst < 1) {
+            throw new IllegalArgumentException("rate must be positive and burst at least 1");
+        }
+        this.interval = Math.max(1, (long) (TimeUnit.SECONDS.toNanos(1) / rate));
+        this.burstDuration = interval * burst;
+        this.clock = clock;
+        this.fullAt = new AtomicLong(clock.getAsLong());
+    }
+
+    /**
+     * @return true if a token was taken
+     */
+    public boolean tryAcquire() {
+        return reserve(0) == 0;
+    }
+
+    /**
+     * Take a token if one is available now or within the max wait
+     *
+     * @param maxWait the maximum time, in nanoseconds, the caller accepts to wait
+     * @return the time, in nanoseconds, to wait before using the token, or -1 if no token is available within the max wait
+     */
+    public long reserve(long maxWait) {
+        while (true) {
+            final long now = clock.getAsLong();
+            final long current = fullAt.get();
+            // an idle bucket is full: the tokens beyond the burst are lost
+            final long next = Math.max(current, now) + interval;
+            final long wait = next - now - burstDuration;
+            if (wait > maxWait) {
+                return -1;
+            }
+            if (fullAt.compareAndSet(current, next)) {
+                return Math.max(0, wait);
+            }
+        }
+    }
+
+    /**
+     * @return true if the bucket holds all its tokens: it is then the same as a new bucket
+     */
+    public boolean isFull() {
+        return fullAt.get() <= clock.getAsLong();
+    }
+
+    /**
+     * @return the number of tokens available now, negative when tokens are reserved in advance
+     */
+    public double getAvailableTokens() {
+        final long now = clock.getAsLong();
+        final long used = Math.max(0, fullAt.get() - now);
+        return (double) (burstDuration - used) / interval;
+    }
+}
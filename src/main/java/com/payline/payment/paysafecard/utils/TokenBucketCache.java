@@ -0,0 +1,65 @@
+package com.payline.payment.paysafecard.utils;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.function.Supplier;
+
+/**
+ * Bounded token buckets per key. When the bound is reached, the full buckets are removed first: a full bucket is the
+ * same as a new one, so its key gets no more calls. Then the least recently used buckets are removed.
+ */
+public class TokenBucketCache {
+    private final int maxSize;
+    // access ordered: the first entry is the least recently used, guarded by this
+    private final LinkedHashMap<String, TokenBucket> buckets = new LinkedHashMap<>(16, 0.75f, true);
+
+    /**
+     * @param maxSize the maximum number of buckets
+     */
+    public TokenBucketCache(int maxSize) {
+        if (maxSize < 1) {
+            throw new IllegalArgumentException("maxSize must be at least 1");
+        }
+        this.maxSize = maxSize;
+    }
+
+    /**
+     * @param factory creates the bucket of the key if there is none
+     * @return the bucket of the key
+     */
+    public synchronized TokenBucket get(String key, Supplier<TokenBucket> factory) {
+        TokenBucket bucket = buckets.get(key);
+        if (bucket == null) {
+            if (buckets.size() >= maxSize) {
+                evict();
+            }
+            bucket = factory.get();
+            buckets.put(key, bucket);
+        }
+        return bucket;
+    }
+
+    /**
+     * @return the bucket of the key, or null if there is none
+     */
+    public synchronized TokenBucket getIfPresent(String key) {
+        return buckets.get(key);
+    }
+
+    public synchronized int size() {
+        return buckets.size();
+    }
+
+    /**
+     * Remove the full buckets, then the least recently used ones until a new bucket fits
+     */
+    private void evict() {
+        buckets.values().removeIf(TokenBucket::isFull);
+        final Iterator<Map.Entry<String, TokenBucket>> iterator = buckets.entrySet().iterator();
+        while (buckets.size() >= maxSize && iterator.hasNext()) {
+            iterator.next();
+            iterator.remove();
+        }
+    }
+}
@@ -0,0 +1,104 @@
+package com.payline.payment.paysafecard.utils;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.function.LongSupplier;
+
+/**
+ * Small bounded cache: each entry expires after its own time to live, and the least recently used entry is removed
+ * when the cache is full.
+ *
+ * @param <K> the key type
+ * @param <V> the value type
+ */
+public class TtlCache<K, V> {
+    private final int maxSize;
+    private final LongSupplier clock;
+    // access ordered: the first entry is the least recently used, guarded by this
+    private final LinkedHashMap<K, Entry<V>> entries;
+
+    private static final class Entry<V> {
+        private final V value;
+        private final long expiresAt;
+
+        private Entry(V value, long expiresAt) {
+            this.value = value;
+            this.expiresAt = expiresAt;
+        }
+    }
+
+    /**
+     * @param maxSize the maximum number of entries
+     */
+    public TtlCache(int maxSize) {
+        this(maxSize, System::currentTimeMillis);
+    }
+
+    /**
+     * @param maxSize the maximum number of entries
+     * @param clock   the current time, in milliseconds
+     */
+    public TtlCache(int maxSize, LongSupplier clock) {
+        if (maxSize < 1) {
+            throw new IllegalArgumentException("maxSize must be at least 1");
+        }
+        this.maxSize = maxSize;
+        this.clock = clock;
+        this.entries = new LinkedHashMap<>(16, 0.75f, true);
+    }
+
+    /**
+     * @return the value, or null if there is none or if it has expired
+     */
+    public synchronized V get(K key) {
+        final Entry<V> entry = entries.get(key);
+        if (entry == null) {
+            return null;
+        }
+        if (entry.expiresAt - clock.getAsLong() <= 0) {
+            entries.remove(key);
+            return null;
+        }
+        return entry.value;
+    }
+
+    /**
+     * @param ttl the time to live of the value, in milliseconds. The value is not stored if it is not positive.
+     */
+    public synchronized void put(K key, V value, long ttl) {
+        if (ttl <= 0) {
+            entries.remove(key);
+            return;
+        }
+        final long now = clock.getAsLong();
+        entries.put(key, new Entry<>(value, now + ttl));
+        if (entries.size() > maxSize) {
+            evict(now);
+        }
+    }
+
+    public synchronized void invalidate(K key) {
+        entries.remove(key);
+    }
+
+    public synchronized void invalidateAll() {
+        entries.clear();
+    }
+
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    /**
+     * Remove the expired entries, then the least recently used ones while the cache is too big
+     */
+    private void evict(long now) {
+        entries.values().removeIf(entry -> entry.expiresAt - now <= 0);
+        final Iterator<Map.Entry<K, Entry<V>>> iterator = entries.entrySet().iterator();
+        while (entries.size() > maxSize && iterator.hasNext()) {
+            iterator.next();
+            iterator.remove();
+        }
+    }
+}
@@ -3,9 +3,18 @@ package com.payline.payment.paysafecard.utils.i18n;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
 import java.util.Locale;
-import java.util.MissingResourceException;
+import java.util.Map;
+import java.util.Properties;
 import java.util.ResourceBundle;
+import java.util.Set;
+import java.util.TreeSet;
 
 import static com.payline.payment.paysafecard.utils.PaySafeCardConstants.I18N_SERVICE_DEFAULT_LOCALE;
 import static com.payline.payment.paysafecard.utils.PaySafeCardConstants.RESOURCE_BUNDLE_BASE_NAME;
@@ -14,11 +23,36 @@ public class I18nService {
 
     private static final Logger LOGGER = LogManager.getLogger(I18nService.class);
 
+    /**
+     * Languages of the traduction_*.properties files
+     */
+    private static final String[] LANGUAGES = {"cz", "da", "de", "el", "en", "es", "et", "fi", "fr", "he", "hu", "it", "nl", "no", "pl",
+            "pt", "ru", "sk", "sl", "sv", "uk"};
+
+    /**
+     * All the messages of each language, fallbacks included, read once at startup.
+     * Keyed by {@link Locale#getLanguage()}: the files have no country variant.
+     */
+    private final Map<String, Map<String, String>> messages;
+    private final Map<String, String> defaultMessages;
+    private final List<Locale> locales;
+
     /**
      * Private constructor
      */
     private I18nService() {
         Locale.setDefault(new Locale(I18N_SERVICE_DEFAULT_LOCALE));
+        final Map<String, Map<String, String>> byLanguage = new HashMap<>();
+        final List<Locale> translated = new ArrayList<>();
+        for (String language : LANGUAGES) {
+            final Locale locale = new Locale(language);
+            translated.add(locale);
+            byLanguage.put(locale.getLanguage(), load(locale));
+        }
+        this.messages = Collections.unmodifiableMap(byLanguage);
+        this.locales = Collections.unmodifiableList(translated);
+        this.defaultMessages = load(Locale.getDefault());
+        reportMissingKeys();
     }
 
     /**
@@ -38,14 +72,60 @@ public class I18nService {
         return SingletonHolder.instance;
     }
 
+    /**
+     * @return the locales having a translation file
+     */
+    public List<Locale> getLocales() {
+        return locales;
+    }
+
     public String getMessage(final String key, final Locale locale) {
-        ResourceBundle messages = ResourceBundle.getBundle(RESOURCE_BUNDLE_BASE_NAME, locale);
-        try {
-            return messages.getString(key);
-        } catch (MissingResourceException e) {
-            LOGGER.error("Trying to get a message with a key that does not exist: {} (language: {})", key, locale.getLanguage(), e);
+        final Map<String, String> localeMessages = locale == null ? defaultMessages : messages.getOrDefault(locale.getLanguage(), defaultMessages);
+        final String message = localeMessages.get(key);
+        if (message == null) {
+            LOGGER.error("Trying to get a message with a key that does not exist: {} (language: {})", key, locale == null ? null : locale.getLanguage());
             return "???" + locale + "." + key + "???";
         }
+        return message;
+    }
+
+    /**
+     * @return the messages of the bundle resolved by {@link ResourceBundle} for this locale, parent bundles included
+     */
+    private static Map<String, String> load(Locale locale) {
+        final ResourceBundle bundle = ResourceBundle.getBundle(RESOURCE_BUNDLE_BASE_NAME, locale);
+        final Map<String, String> result = new HashMap<>();
+        for (String key : bundle.keySet()) {
+            result.put(key, bundle.getString(key));
+        }
+        return Collections.unmodifiableMap(result);
+    }
+
+    /**
+     * Log once the keys of the base file which are not translated in each language file
+     */
+    private static void reportMissingKeys() {
+        final Properties base = readFile(RESOURCE_BUNDLE_BASE_NAME + ".properties");
+        for (String language : LANGUAGES) {
+            final Properties translation = readFile(RESOURCE_BUNDLE_BASE_NAME + "_" + language + ".properties");
+            final Set<String> missing = new TreeSet<>(base.stringPropertyNames());
+            missing.removeAll(translation.stringPropertyNames());
+            if (!missing.isEmpty()) {
+                LOGGER.warn("Missing translations (language: {}): {}", language, missing);
+            }
+        }
+    }
+
+    private static Properties readFile(String fileName) {
+        final Properties properties = new Properties();
+        try (InputStream input = I18nService.class.getClassLoader().getResourceAsStream(fileName)) {
+            if (input != null) {
+                properties.load(input);
+            }
+        } catch (IOException e) {
+            LOGGER.error("Unable to read the file {}", fileName, e);
+        }
+        return properties;
     }
 
     // If ever needed, implement getMessage( String, Locale, String... ) to insert values into the translation messages
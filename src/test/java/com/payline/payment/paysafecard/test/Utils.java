@@ -14,6 +14,7 @@ import com.payline.pmapi.bean.paymentform.request.PaymentFormConfigurationReques
 
 import java.math.BigInteger;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
 
 public class Utils {
     private static Locale locale = Locale.FRENCH;
@@ -125,6 +126,12 @@ public class Utils {
         return parser.fromJson(json, PaySafePaymentResponse.class);
     }
 
+    public static <T> CompletableFuture<T> createFailedFuture(Throwable throwable) {
+        CompletableFuture<T> future = new CompletableFuture<>();
+        future.completeExceptionally(throwable);
+        return future;
+    }
+
     public static ContractParametersCheckRequest createContractParametersCheckRequest(String kycLevel, String minAge, String countryRestriction, String authorisation) {
         Map<String, String> accountInfo = new HashMap<>();
         accountInfo.put(PaySafeCardConstants.KYCLEVEL_KEY, kycLevel);
@@ -0,0 +1,69 @@
+package com.payline.payment.paysafecard.test.bean;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonSyntaxException;
+import com.payline.payment.paysafecard.bean.PaySafePaymentResponse;
+import com.payline.payment.paysafecard.test.Utils;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class PaySafePaymentResponseTest {
+
+    @Test
+    public void readPayment() {
+        String json = "{" +
+                "  'object': 'PAYMENT'," +
+                "  'id': 'pay_1090000152_TfCMEiojeVl8rsOOHjLCqFKtladkigk7_EUR'," +
+                "  'created': 1541512583385," +
+                "  'amount': 10.00," +
+                "  'currency': 'EUR'," +
+                "  'status': 'SUCCESS'," +
+                "  'unknown': { 'nested': [1, 2, 3] }," +
+                "  'redirect': { 'success_url': 'http://success', 'auth_url': 'http://auth' }," +
+                "  'customer': { 'id': 'customer1', 'email': null }," +
+                "  'card_details': [ { 'serial': '1234', 'amount': 5.00 }, { 'serial': '5678' } ]" +
+                "}";
+
+        PaySafePaymentResponse response = Utils.createPaySafeResponse(json);
+
+        Assert.assertEquals("PAYMENT", response.getObject());
+        Assert.assertEquals("1541512583385", response.getCreated());
+        Assert.assertEquals("10.00", response.getAmount());
+        Assert.assertEquals("SUCCESS", response.getStatus());
+        Assert.assertEquals("http://auth", response.getRedirectURL());
+        Assert.assertNull(response.getCustomer().getEmail());
+        Assert.assertEquals(2, response.getCardDetails().size());
+        Assert.assertEquals("1234", response.getFirstCardDetails().getSerial());
+        Assert.assertNull(response.getCode());
+    }
+
+    @Test
+    public void readError() {
+        String json = "{ code: invalid_request_parameter, message: 'must be greater than or equal to 1', number: 10028, param: amount, card_details: null }";
+
+        PaySafePaymentResponse response = Utils.createPaySafeResponse(json);
+
+        Assert.assertEquals("invalid_request_parameter", response.getCode());
+        Assert.assertEquals("10028", response.getNumber());
+        Assert.assertEquals("amount", response.getParam());
+        Assert.assertNull(response.getCardDetails());
+    }
+
+    @Test
+    public void writeAndReadBack() {
+        Gson gson = new Gson();
+        PaySafePaymentResponse response = Utils.createPaySafeResponse("{ id: pay_1, status: AUTHORIZED, redirect: { auth_url: 'http://auth' }, card_details: [ { serial: '1234' } ] }");
+
+        String json = gson.toJson(response);
+        Assert.assertEquals("{\"id\":\"pay_1\",\"status\":\"AUTHORIZED\",\"redirect\":{\"auth_url\":\"http://auth\"},\"card_details\":[{\"serial\":\"1234\"}]}", json);
+
+        PaySafePaymentResponse readBack = gson.fromJson(json, PaySafePaymentResponse.class);
+        Assert.assertEquals("AUTHORIZED", readBack.getStatus());
+        Assert.assertEquals("1234", readBack.getFirstCardDetails().getSerial());
+    }
+
+    @Test(expected = JsonSyntaxException.class)
+    public void readWrongType() {
+        Utils.createPaySafeResponse("{ status: { code: 1 } }");
+    }
+}
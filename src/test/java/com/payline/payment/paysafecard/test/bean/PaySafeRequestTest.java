@@ -1,20 +1,27 @@
 package com.payline.payment.paysafecard.test.bean;
 
+import com.google.gson.Gson;
 import com.payline.payment.paysafecard.bean.PaySafePaymentRequest;
+import com.payline.payment.paysafecard.bean.PaySafeRefundRequest;
 import com.payline.payment.paysafecard.test.Utils;
 import com.payline.payment.paysafecard.utils.BadFieldException;
 import com.payline.payment.paysafecard.utils.InvalidRequestException;
 import com.payline.payment.paysafecard.utils.PaySafeCardConstants;
 import com.payline.pmapi.bean.common.Amount;
+import com.payline.pmapi.bean.common.Buyer;
 import com.payline.pmapi.bean.configuration.request.ContractParametersCheckRequest;
 import com.payline.pmapi.bean.payment.ContractConfiguration;
 import com.payline.pmapi.bean.payment.Environment;
 import com.payline.pmapi.bean.payment.request.PaymentRequest;
+import com.payline.pmapi.bean.refund.request.RefundRequest;
 import org.junit.Assert;
 import org.junit.Test;
+import org.mockito.Mockito;
 
+import java.math.BigDecimal;
 import java.math.BigInteger;
 import java.util.Currency;
+import java.util.Random;
 
 public class PaySafeRequestTest {
 
@@ -110,6 +117,33 @@ public class PaySafeRequestTest {
         Assert.assertEquals("100.00", PaySafePaymentRequest.createAmount(10000, currency));
     }
 
+    @Test
+    public void createAmountFractionDigits() {
+        Assert.assertEquals("0", PaySafePaymentRequest.createAmount(BigInteger.ZERO, Currency.getInstance("JPY")));
+        Assert.assertEquals("1000", PaySafePaymentRequest.createAmount(BigInteger.valueOf(1000), Currency.getInstance("JPY")));
+        Assert.assertEquals("0.001", PaySafePaymentRequest.createAmount(BigInteger.ONE, Currency.getInstance("KWD")));
+        Assert.assertEquals("1.000", PaySafePaymentRequest.createAmount(BigInteger.valueOf(1000), Currency.getInstance("KWD")));
+        Assert.assertEquals("21474836.48", PaySafePaymentRequest.createAmount(BigInteger.valueOf(2147483648L), Currency.getInstance("EUR")));
+        Assert.assertEquals("-92233720368547758.08", PaySafePaymentRequest.createAmount(BigInteger.valueOf(Long.MIN_VALUE), Currency.getInstance("EUR")));
+        Assert.assertEquals("123456789012345678901234567890.12", PaySafePaymentRequest.createAmount(new BigInteger("12345678901234567890123456789012"), Currency.getInstance("EUR")));
+    }
+
+    @Test
+    public void createAmountSameAsBigDecimal() {
+        Random random = new Random(42);
+        Currency[] currencies = {Currency.getInstance("JPY"), Currency.getInstance("EUR"), Currency.getInstance("KWD"), Currency.getInstance("CLF")};
+        for (int i = 0; i < 10000; i++) {
+            // from a few bits to much more than a long, positive and negative
+            BigInteger amount = new BigInteger(1 + random.nextInt(100), random);
+            if (random.nextBoolean()) {
+                amount = amount.negate();
+            }
+            Currency currency = currencies[random.nextInt(currencies.length)];
+            String expected = new BigDecimal(amount).movePointLeft(currency.getDefaultFractionDigits()).toPlainString();
+            Assert.assertEquals(expected, PaySafePaymentRequest.createAmount(amount, currency));
+        }
+    }
+
     @Test
     public void encode() {
         String s = "hello world";
@@ -118,4 +152,63 @@ public class PaySafeRequestTest {
         Assert.assertEquals("", PaySafePaymentRequest.encodeToBase64(""));
         Assert.assertEquals("", PaySafePaymentRequest.encodeToBase64(null));
     }
+
+    @Test
+    public void paymentRequestToJson() throws InvalidRequestException {
+        PaymentRequest paymentRequest = Utils.createCompletePaymentBuilder().build();
+        PaySafePaymentRequest request = new PaySafePaymentRequest(paymentRequest);
+
+        String json = new Gson().toJson(request);
+
+        Assert.assertTrue(json.startsWith("{\"type\":\"PAYSAFECARD\",\"amount\":\"0.10\",\"currency\":\"EUR\","));
+        Assert.assertTrue(json.contains("\"redirect\":{\"success_url\":\"" + Utils.SUCCESS_URL + "\",\"failure_url\":\"" + Utils.FAILURE_URL + "\"}"));
+        Assert.assertTrue(json.contains("\"notification_url\":\"" + Utils.NOTIFICATION_URL + "\""));
+        Assert.assertFalse(json.contains("authenticationHeader"));
+    }
+
+    @Test
+    public void getHeadersCopied() throws InvalidRequestException {
+        PaySafePaymentRequest request = new PaySafePaymentRequest(Utils.createCompletePaymentBuilder().build());
+        request.getHeaders()[1] = null;
+        Assert.assertEquals(request.getAuthenticationHeader(), request.getHeaders()[1].getValue());
+    }
+
+    @Test
+    public void paymentRequestToJsonNormalizesCountryRestriction() throws InvalidRequestException {
+        ContractConfiguration configuration = Utils.createContractConfiguration(null, null, " fr , De,BE ", Utils.AUTHORISATION_VAL);
+        PaymentRequest paymentRequest = Utils.createCompletePaymentBuilder().withContractConfiguration(configuration).build();
+        PaySafePaymentRequest request = new PaySafePaymentRequest(paymentRequest);
+
+        String json = new Gson().toJson(request);
+
+        Assert.assertTrue(json, json.contains("\"country_restriction\":\"FR,DE,BE\""));
+    }
+
+    @Test
+    public void requestNotReadFromJson() {
+        Assert.assertNull(new Gson().fromJson("{\"type\":\"PAYSAFECARD\",\"amount\":\"0.10\"}", PaySafePaymentRequest.class));
+    }
+
+    @Test
+    public void refundRequestToJson() throws InvalidRequestException {
+        RefundRequest refundRequest = Mockito.mock(RefundRequest.class);
+        Buyer buyer = Mockito.mock(Buyer.class);
+        Mockito.when(buyer.getCustomerIdentifier()).thenReturn(Utils.CUSTOMER_ID);
+        Mockito.when(buyer.getEmail()).thenReturn(Utils.CUSTOMER_MAIL);
+        Mockito.when(refundRequest.getBuyer()).thenReturn(buyer);
+        Mockito.when(refundRequest.getAmount()).thenReturn(new Amount(BigInteger.TEN, Currency.getInstance("EUR")));
+        Mockito.when(refundRequest.getEnvironment()).thenReturn(new Environment(Utils.NOTIFICATION_URL, Utils.SUCCESS_URL, Utils.FAILURE_URL, true));
+        Mockito.when(refundRequest.getContractConfiguration()).thenReturn(Utils.createDefaultContractConfiguration());
+        Mockito.when(refundRequest.getPartnerTransactionId()).thenReturn("pay_1");
+        PaySafeRefundRequest request = new PaySafeRefundRequest(refundRequest);
+        request.setCapture(true);
+
+        String json = new Gson().toJson(request);
+
+        Assert.assertTrue(json.startsWith("{\"capture\":true,\"type\":\"PAYSAFECARD\",\"amount\":\"0.10\""));
+        Assert.assertTrue(json.contains("\"customer\":{\"id\":\"" + Utils.CUSTOMER_ID + "\",\"email\":\"" + Utils.CUSTOMER_MAIL + "\"}"));
+        // the payment id is only sent in the URL
+        Assert.assertFalse(json.contains("pay_1"));
+        Assert.assertEquals("pay_1", request.getPaymentId());
+    }
 }
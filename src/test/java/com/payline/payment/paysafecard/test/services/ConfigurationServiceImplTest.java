@@ -1,6 +1,7 @@
 package com.payline.payment.paysafecard.test.services;
 
 import com.payline.payment.paysafecard.bean.PaySafePaymentRequest;
+import com.payline.payment.paysafecard.bean.PaySafePaymentResponse;
 import com.payline.payment.paysafecard.services.ConfigurationServiceImpl;
 import com.payline.payment.paysafecard.test.Utils;
 import com.payline.payment.paysafecard.utils.PaySafeCardConstants;
@@ -9,6 +10,7 @@ import com.payline.pmapi.bean.configuration.ReleaseInformation;
 import com.payline.pmapi.bean.configuration.parameter.AbstractParameter;
 import com.payline.pmapi.bean.configuration.request.ContractParametersCheckRequest;
 import org.junit.Assert;
+import org.junit.Before;
 import org.junit.Test;
 import org.junit.runner.RunWith;
 import org.mockito.InjectMocks;
@@ -17,13 +19,22 @@ import org.mockito.runners.MockitoJUnitRunner;
 
 import java.io.IOException;
 import java.net.URISyntaxException;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Locale;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import static org.mockito.Matchers.any;
 import static org.mockito.Matchers.anyBoolean;
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.spy;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
 
@@ -36,15 +47,44 @@ public class ConfigurationServiceImplTest {
 
     private Locale locale = Locale.FRENCH;
     @InjectMocks
-    private ConfigurationServiceImpl service = new ConfigurationServiceImpl();
+    private ConfigurationServiceImpl service = spy(new ConfigurationServiceImpl());
     @Mock
     private PaySafeHttpClient httpClient;
 
+    @Before
+    public void init() {
+        doReturn(httpClient).when(service).getHttpClient(any(ContractParametersCheckRequest.class));
+        service.invalidateChecks();
+    }
+
 
     @Test
     public void getParameters() {
         List<AbstractParameter> parameters = service.getParameters(locale);
-        Assert.assertEquals(7, parameters.size());
+        Assert.assertEquals(8, parameters.size());
+    }
+
+    @Test
+    public void getParametersPerLanguage() {
+        List<AbstractParameter> parameters = service.getParameters(Locale.FRENCH);
+
+        Assert.assertEquals(parameters.get(0).getLabel(), service.getParameters(Locale.FRANCE).get(0).getLabel());
+        Assert.assertNotEquals(parameters.get(0).getLabel(), service.getParameters(Locale.GERMAN).get(0).getLabel());
+        Assert.assertEquals(8, service.getParameters(Locale.JAPANESE).size());
+        // the languages without translation get the default messages
+        Assert.assertEquals(service.getParameters(null).get(0).getLabel(), service.getParameters(Locale.JAPANESE).get(0).getLabel());
+    }
+
+    @Test
+    public void getParametersNotShared() {
+        List<AbstractParameter> parameters = service.getParameters(locale);
+        String label = parameters.get(0).getLabel();
+        parameters.get(0).setLabel("modified");
+        parameters.clear();
+
+        List<AbstractParameter> other = service.getParameters(locale);
+        Assert.assertEquals(8, other.size());
+        Assert.assertEquals(label, other.get(0).getLabel());
     }
 
     @Test
@@ -57,6 +97,125 @@ public class ConfigurationServiceImplTest {
         Assert.assertEquals(0, errors.size());
     }
 
+    @Test
+    public void checkCached() throws IOException, URISyntaxException {
+        when(httpClient.initiate(any(PaySafePaymentRequest.class), anyBoolean())).thenReturn(Utils.createInitiatedPaySafeResponse());
+
+        ContractParametersCheckRequest request = Utils.createContractParametersCheckRequest(goodKycLevel, goodMinAge, goodCountryRestriction, goodAuthorisation);
+        service.check(request);
+        Map<String, String> errors = service.check(Utils.createContractParametersCheckRequest(goodKycLevel, goodMinAge, goodCountryRestriction, goodAuthorisation));
+
+        Assert.assertEquals(0, errors.size());
+        verify(httpClient, times(1)).initiate(any(PaySafePaymentRequest.class), anyBoolean());
+
+        // other parameters
+        service.check(Utils.createContractParametersCheckRequest(goodKycLevel, "21", goodCountryRestriction, goodAuthorisation));
+        verify(httpClient, times(2)).initiate(any(PaySafePaymentRequest.class), anyBoolean());
+
+        // invalidated
+        service.invalidateCheck(request);
+        service.check(request);
+        verify(httpClient, times(3)).initiate(any(PaySafePaymentRequest.class), anyBoolean());
+    }
+
+    @Test
+    public void checkRejectionCached() throws IOException, URISyntaxException {
+        when(httpClient.initiate(any(PaySafePaymentRequest.class), anyBoolean())).thenReturn(Utils.createBadPaySafeResponse());
+
+        ContractParametersCheckRequest request = Utils.createContractParametersCheckRequest(goodKycLevel, goodMinAge, goodCountryRestriction, goodAuthorisation);
+        service.check(request).clear();
+        Map<String, String> errors = service.check(request);
+
+        Assert.assertEquals(1, errors.size());
+        verify(httpClient, times(1)).initiate(any(PaySafePaymentRequest.class), anyBoolean());
+    }
+
+    @Test
+    public void checkPartnerErrorNotCached() throws IOException, URISyntaxException {
+        when(httpClient.initiate(any(PaySafePaymentRequest.class), anyBoolean()))
+                .thenReturn(Utils.createPaySafeResponse("{'code': 'general_technical_error', 'message': 'General technical error.', 'number': 10007}"));
+
+        ContractParametersCheckRequest request = Utils.createContractParametersCheckRequest(goodKycLevel, goodMinAge, goodCountryRestriction, goodAuthorisation);
+        service.check(request);
+        Map<String, String> errors = service.check(request);
+
+        Assert.assertEquals(1, errors.size());
+        verify(httpClient, times(2)).initiate(any(PaySafePaymentRequest.class), anyBoolean());
+    }
+
+    @Test
+    public void checkCommunicationErrorNotCached() throws IOException, URISyntaxException {
+        when(httpClient.initiate(any(PaySafePaymentRequest.class), anyBoolean())).thenThrow(new IOException("timeout"));
+
+        ContractParametersCheckRequest request = Utils.createContractParametersCheckRequest(goodKycLevel, goodMinAge, goodCountryRestriction, goodAuthorisation);
+        service.check(request);
+        Map<String, String> errors = service.check(request);
+
+        Assert.assertEquals(1, errors.size());
+        verify(httpClient, times(2)).initiate(any(PaySafePaymentRequest.class), anyBoolean());
+    }
+
+    @Test
+    public void checkBatch() throws IOException, URISyntaxException {
+        when(httpClient.initiateAsync(any(PaySafePaymentRequest.class), anyBoolean())).thenReturn(CompletableFuture.completedFuture(Utils.createInitiatedPaySafeResponse()));
+
+        List<Map<String, String>> errors = service.check(Arrays.asList(
+                Utils.createContractParametersCheckRequest(goodKycLevel, goodMinAge, goodCountryRestriction, goodAuthorisation),
+                Utils.createContractParametersCheckRequest(goodKycLevel, "a", goodCountryRestriction, goodAuthorisation),
+                Utils.createContractParametersCheckRequest(goodKycLevel, goodMinAge, goodCountryRestriction, goodAuthorisation)), 4);
+
+        Assert.assertEquals(3, errors.size());
+        Assert.assertTrue(errors.get(0).isEmpty());
+        Assert.assertTrue(errors.get(1).containsKey(PaySafeCardConstants.MINAGE_KEY));
+        Assert.assertTrue(errors.get(2).isEmpty());
+        // identical parameters are checked once
+        verify(httpClient, times(1)).initiateAsync(any(PaySafePaymentRequest.class), anyBoolean());
+        verify(httpClient, never()).initiate(any(PaySafePaymentRequest.class), anyBoolean());
+    }
+
+    @Test
+    public void checkBatchFailure() {
+        CompletableFuture<PaySafePaymentResponse> failure = new CompletableFuture<>();
+        failure.completeExceptionally(new IOException("connection reset"));
+        when(httpClient.initiateAsync(any(PaySafePaymentRequest.class), anyBoolean())).thenReturn(failure);
+
+        List<Map<String, String>> errors = service.check(Arrays.asList(
+                Utils.createContractParametersCheckRequest(goodKycLevel, "97", goodCountryRestriction, goodAuthorisation)), 1);
+
+        Assert.assertEquals("connection reset", errors.get(0).get(ContractParametersCheckRequest.GENERIC_ERROR));
+    }
+
+    @Test
+    public void checkBatchConcurrency() throws IOException, URISyntaxException {
+        AtomicInteger running = new AtomicInteger();
+        AtomicInteger maxRunning = new AtomicInteger();
+        when(httpClient.initiateAsync(any(PaySafePaymentRequest.class), anyBoolean())).thenAnswer(invocation -> {
+            maxRunning.accumulateAndGet(running.incrementAndGet(), Math::max);
+            return CompletableFuture.supplyAsync(() -> {
+                try {
+                    Thread.sleep(20);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                running.decrementAndGet();
+                return Utils.createBadPaySafeResponse();
+            });
+        });
+        List<ContractParametersCheckRequest> requests = new ArrayList<>();
+        for (int i = 0; i < 8; i++) {
+            requests.add(Utils.createContractParametersCheckRequest(goodKycLevel, String.valueOf(18 + i), goodCountryRestriction, goodAuthorisation));
+        }
+
+        List<Map<String, String>> errors = service.check(requests, 2);
+
+        Assert.assertEquals(8, errors.size());
+        for (Map<String, String> error : errors) {
+            Assert.assertEquals(1, error.size());
+        }
+        Assert.assertTrue(maxRunning.get() <= 2);
+        verify(httpClient, times(8)).initiateAsync(any(PaySafePaymentRequest.class), anyBoolean());
+    }
+
     @Test
     public void checkBad() throws IOException, URISyntaxException {
         when(httpClient.initiate(any(PaySafePaymentRequest.class), anyBoolean())).thenReturn(Utils.createBadPaySafeResponse());
@@ -19,6 +19,7 @@ import org.mockito.runners.MockitoJUnitRunner;
 
 import javax.imageio.ImageIO;
 import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.util.HashMap;
@@ -55,6 +56,41 @@ public class PaymentFormConfigurationServiceImplTest {
         Assert.assertNotNull(paymentFormLogo.getContentType());
     }
 
+    @Test
+    public void testGetLogoReadOnce() throws IOException {
+        // given: the logo file read from resources
+        InputStream input = PaymentFormConfigurationServiceImpl.class.getClassLoader().getResourceAsStream("paysafecard.png");
+        ByteArrayOutputStream expected = new ByteArrayOutputStream();
+        byte[] buffer = new byte[4096];
+        int read;
+        while ((read = input.read(buffer)) != -1) {
+            expected.write(buffer, 0, read);
+        }
+
+        // when: getLogo is called twice
+        PaymentFormLogo first = service.getLogo("PaySafeCard", Locale.getDefault());
+        PaymentFormLogo second = service.getLogo("PaySafeCard", Locale.FRANCE);
+
+        // then: the file bytes are returned as is
+        Assert.assertArrayEquals(expected.toByteArray(), first.getFile());
+        Assert.assertArrayEquals(expected.toByteArray(), second.getFile());
+    }
+
+    @Test
+    public void testGetLogoNotShared() {
+        // given: a logo modified by its caller
+        PaymentFormLogo first = service.getLogo("PaySafeCard", Locale.getDefault());
+        byte[] expected = first.getFile().clone();
+        first.getFile()[0] ^= 1;
+
+        // when: getLogo is called again
+        PaymentFormLogo second = service.getLogo("PaySafeCard", Locale.getDefault());
+
+        // then: the new logo is not modified
+        Assert.assertNotSame(first.getFile(), second.getFile());
+        Assert.assertArrayEquals(expected, second.getFile());
+    }
+
     @Test
     public void testGetPaymentFormLogo() throws IOException {
         // given: the logo image read from resources
@@ -10,6 +10,7 @@ import com.payline.pmapi.bean.payment.response.PaymentResponse;
 import com.payline.pmapi.bean.payment.response.impl.PaymentResponseFailure;
 import com.payline.pmapi.bean.payment.response.impl.PaymentResponseRedirect;
 import org.junit.Assert;
+import org.junit.Before;
 import org.junit.Test;
 import org.junit.runner.RunWith;
 import org.mockito.InjectMocks;
@@ -18,22 +19,30 @@ import org.mockito.runners.MockitoJUnitRunner;
 
 import java.io.IOException;
 import java.net.URISyntaxException;
+import java.util.concurrent.CompletableFuture;
 
 import static org.mockito.Matchers.any;
 import static org.mockito.Matchers.anyBoolean;
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.spy;
 import static org.mockito.Mockito.when;
 
 @RunWith(MockitoJUnitRunner.class)
 public class PaymentServiceImplTest {
 
     @InjectMocks
-    private PaymentServiceImpl service = new PaymentServiceImpl();
+    private PaymentServiceImpl service = spy(new PaymentServiceImpl());
     @Mock
     private PaySafeHttpClient httpClient;
 
+    @Before
+    public void init() {
+        doReturn(httpClient).when(service).getHttpClient(any(PaymentRequest.class));
+    }
+
     @Test
     public void paymentRequest() throws IOException, URISyntaxException {
-        when(httpClient.initiate(any(PaySafePaymentRequest.class), anyBoolean())).thenReturn(Utils.createInitiatedPaySafeResponse());
+        when(httpClient.initiateAsync(any(PaySafePaymentRequest.class), anyBoolean())).thenReturn(CompletableFuture.completedFuture(Utils.createInitiatedPaySafeResponse()));
 
         PaymentRequest request = Utils.createCompletePaymentBuilder().build();
         PaymentResponse response = service.paymentRequest(request);
@@ -51,7 +60,7 @@ public class PaymentServiceImplTest {
                 "    \"number\": 10007" +
                 "}";
 
-        when(httpClient.initiate(any(PaySafePaymentRequest.class), anyBoolean())).thenReturn(Utils.createPaySafeResponse(json));
+        when(httpClient.initiateAsync(any(PaySafePaymentRequest.class), anyBoolean())).thenReturn(CompletableFuture.completedFuture(Utils.createPaySafeResponse(json)));
 
         PaymentRequest request = Utils.createCompletePaymentBuilder().build();
         PaymentResponse response = service.paymentRequest(request);
@@ -68,7 +77,7 @@ public class PaymentServiceImplTest {
                 "    \"number\": 10008" +
                 "}";
 
-        when(httpClient.initiate(any(PaySafePaymentRequest.class), anyBoolean())).thenReturn(Utils.createPaySafeResponse(json));
+        when(httpClient.initiateAsync(any(PaySafePaymentRequest.class), anyBoolean())).thenReturn(CompletableFuture.completedFuture(Utils.createPaySafeResponse(json)));
 
         PaymentRequest request = Utils.createCompletePaymentBuilder().build();
         PaymentResponse response = service.paymentRequest(request);
@@ -85,7 +94,7 @@ public class PaymentServiceImplTest {
                 "    \"number\": 10028" +
                 "}";
 
-        when(httpClient.initiate(any(PaySafePaymentRequest.class), anyBoolean())).thenReturn(Utils.createPaySafeResponse(json));
+        when(httpClient.initiateAsync(any(PaySafePaymentRequest.class), anyBoolean())).thenReturn(CompletableFuture.completedFuture(Utils.createPaySafeResponse(json)));
 
         PaymentRequest request = Utils.createCompletePaymentBuilder().build();
         PaymentResponse response = service.paymentRequest(request);
@@ -102,7 +111,7 @@ public class PaymentServiceImplTest {
                 "    number: 2001" +
                 "}";
 
-        when(httpClient.initiate(any(PaySafePaymentRequest.class), anyBoolean())).thenReturn(Utils.createPaySafeResponse(json));
+        when(httpClient.initiateAsync(any(PaySafePaymentRequest.class), anyBoolean())).thenReturn(CompletableFuture.completedFuture(Utils.createPaySafeResponse(json)));
 
         PaymentRequest request = Utils.createCompletePaymentBuilder().build();
         PaymentResponse response = service.paymentRequest(request);
@@ -119,7 +128,7 @@ public class PaymentServiceImplTest {
                 "    number: 2017" +
                 "}";
 
-        when(httpClient.initiate(any(PaySafePaymentRequest.class), anyBoolean())).thenReturn(Utils.createPaySafeResponse(json));
+        when(httpClient.initiateAsync(any(PaySafePaymentRequest.class), anyBoolean())).thenReturn(CompletableFuture.completedFuture(Utils.createPaySafeResponse(json)));
 
         PaymentRequest request = Utils.createCompletePaymentBuilder().build();
         PaymentResponse response = service.paymentRequest(request);
@@ -136,7 +145,7 @@ public class PaymentServiceImplTest {
                 "    \"number\": 3001" +
                 "}";
 
-        when(httpClient.initiate(any(PaySafePaymentRequest.class), anyBoolean())).thenReturn(Utils.createPaySafeResponse(json));
+        when(httpClient.initiateAsync(any(PaySafePaymentRequest.class), anyBoolean())).thenReturn(CompletableFuture.completedFuture(Utils.createPaySafeResponse(json)));
 
         PaymentRequest request = Utils.createCompletePaymentBuilder().build();
         PaymentResponse response = service.paymentRequest(request);
@@ -153,7 +162,7 @@ public class PaymentServiceImplTest {
                 "    \"number\": 3007" +
                 "}";
 
-        when(httpClient.initiate(any(PaySafePaymentRequest.class), anyBoolean())).thenReturn(Utils.createPaySafeResponse(json));
+        when(httpClient.initiateAsync(any(PaySafePaymentRequest.class), anyBoolean())).thenReturn(CompletableFuture.completedFuture(Utils.createPaySafeResponse(json)));
 
         PaymentRequest request = Utils.createCompletePaymentBuilder().build();
         PaymentResponse response = service.paymentRequest(request);
@@ -170,7 +179,7 @@ public class PaymentServiceImplTest {
                 "    \"number\": 3014" +
                 "}";
 
-        when(httpClient.initiate(any(PaySafePaymentRequest.class), anyBoolean())).thenReturn(Utils.createPaySafeResponse(json));
+        when(httpClient.initiateAsync(any(PaySafePaymentRequest.class), anyBoolean())).thenReturn(CompletableFuture.completedFuture(Utils.createPaySafeResponse(json)));
 
         PaymentRequest request = Utils.createCompletePaymentBuilder().build();
         PaymentResponse response = service.paymentRequest(request);
@@ -187,7 +196,7 @@ public class PaymentServiceImplTest {
                 "    \"number\": foo" +
                 "}";
 
-        when(httpClient.initiate(any(PaySafePaymentRequest.class), anyBoolean())).thenReturn(Utils.createPaySafeResponse(json));
+        when(httpClient.initiateAsync(any(PaySafePaymentRequest.class), anyBoolean())).thenReturn(CompletableFuture.completedFuture(Utils.createPaySafeResponse(json)));
 
         PaymentRequest request = Utils.createCompletePaymentBuilder().build();
         PaymentResponse response = service.paymentRequest(request);
@@ -201,7 +210,7 @@ public class PaymentServiceImplTest {
     public void paymentRequestWithErrorNull() throws IOException, URISyntaxException  {
         String json = "{\"code\": \"this is a code\"}";
 
-        when(httpClient.initiate(any(PaySafePaymentRequest.class), anyBoolean())).thenReturn(Utils.createPaySafeResponse(json));
+        when(httpClient.initiateAsync(any(PaySafePaymentRequest.class), anyBoolean())).thenReturn(CompletableFuture.completedFuture(Utils.createPaySafeResponse(json)));
 
         PaymentRequest request = Utils.createCompletePaymentBuilder().build();
         PaymentResponse response = service.paymentRequest(request);
@@ -213,7 +222,7 @@ public class PaymentServiceImplTest {
 
     @Test
     public void paymentRequestWithException() throws IOException, URISyntaxException  {
-        when(httpClient.initiate(any(PaySafePaymentRequest.class), anyBoolean())).thenThrow(IOException.class);
+        when(httpClient.initiateAsync(any(PaySafePaymentRequest.class), anyBoolean())).thenReturn(Utils.createFailedFuture(new IOException()));
 
         PaymentRequest request = Utils.createCompletePaymentBuilder().build();
         PaymentResponse response = service.paymentRequest(request);
@@ -1,10 +1,15 @@
 package com.payline.payment.paysafecard.test.services;
 
 import com.payline.payment.paysafecard.bean.PaySafeCaptureRequest;
+import com.payline.payment.paysafecard.bean.PaySafePaymentResponse;
 import com.payline.payment.paysafecard.services.PaymentWithRedirectionServiceImpl;
 import com.payline.payment.paysafecard.test.Utils;
+import com.payline.payment.paysafecard.utils.CircuitBreakerOpenException;
 import com.payline.payment.paysafecard.utils.InvalidRequestException;
+import com.payline.payment.paysafecard.utils.PaySafeCardConstants;
 import com.payline.payment.paysafecard.utils.PaySafeHttpClient;
+import com.payline.payment.paysafecard.utils.PollingSchedule;
+import com.payline.payment.paysafecard.utils.RetryPolicy;
 import com.payline.pmapi.bean.common.FailureCause;
 import com.payline.pmapi.bean.payment.request.RedirectionPaymentRequest;
 import com.payline.pmapi.bean.payment.request.TransactionStatusRequest;
@@ -20,8 +25,20 @@ import org.mockito.Mock;
 import org.mockito.Mockito;
 import org.mockito.runners.MockitoJUnitRunner;
 
+import javax.net.ssl.SSLHandshakeException;
 import java.io.IOException;
 import java.net.URISyntaxException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import static org.mockito.Mockito.*;
 
@@ -38,13 +55,20 @@ public class PaymentWithRedirectionServiceImplTest {
         PaySafeCaptureRequest captureRequest = new PaySafeCaptureRequest("dumbId", Utils.createContractConfiguration(null, null, null, Utils.AUTHORISATION_VAL), null);
         doReturn(captureRequest).when(service).createRequest(any(RedirectionPaymentRequest.class));
         doReturn(captureRequest).when(service).createRequest(any(TransactionStatusRequest.class));
+        doReturn(httpClient).when(service).getHttpClient(any(PaySafeCaptureRequest.class));
+        when(httpClient.getRetryPolicy()).thenReturn(RetryPolicy.RetryPolicyBuilder.aRetryPolicy().build());
+        service.setFinalizeSchedule(PollingSchedule.PollingScheduleBuilder.aPollingSchedule()
+                .withPendingDelay(PaySafeCardConstants.STATUS_INITIATED, 1)
+                .withErrorDelay(1)
+                .withMaxPolls(2)
+                .build());
     }
 
     @Test
     public void finalizeRedirectionPayment() throws IOException, URISyntaxException {
         RedirectionPaymentRequest redirectionPaymentRequest = Mockito.mock(RedirectionPaymentRequest.class, Mockito.RETURNS_DEEP_STUBS);
-        when(httpClient.retrievePaymentData(any(PaySafeCaptureRequest.class), anyBoolean())).thenReturn(Utils.createAuthorizedPaySafeResponse());
-        when(httpClient.capture(any(PaySafeCaptureRequest.class), anyBoolean())).thenReturn(Utils.createSuccessPaySafeResponse());
+        when(httpClient.retrievePaymentDataAsync(any(PaySafeCaptureRequest.class), anyBoolean())).thenReturn(CompletableFuture.completedFuture(Utils.createAuthorizedPaySafeResponse()));
+        when(httpClient.captureAsync(any(PaySafeCaptureRequest.class), anyBoolean())).thenReturn(CompletableFuture.completedFuture(Utils.createSuccessPaySafeResponse()));
 
         PaymentResponse response = service.finalizeRedirectionPayment(redirectionPaymentRequest);
 
@@ -55,7 +79,7 @@ public class PaymentWithRedirectionServiceImplTest {
     @Test
     public void finalizeWithRetrievePaymentDataError() throws IOException, URISyntaxException {
         RedirectionPaymentRequest redirectionPaymentRequest = Mockito.mock(RedirectionPaymentRequest.class, Mockito.RETURNS_DEEP_STUBS);
-        when(httpClient.retrievePaymentData(any(PaySafeCaptureRequest.class), anyBoolean())).thenReturn(Utils.createBadPaySafeResponse());
+        when(httpClient.retrievePaymentDataAsync(any(PaySafeCaptureRequest.class), anyBoolean())).thenReturn(CompletableFuture.completedFuture(Utils.createBadPaySafeResponse()));
 
         PaymentResponse response = service.finalizeRedirectionPayment(redirectionPaymentRequest);
         PaymentResponseFailure responseFailure = (PaymentResponseFailure) response;
@@ -79,7 +103,7 @@ public class PaymentWithRedirectionServiceImplTest {
                 "    'submerchant_id': '1'" +
                 "}";
         RedirectionPaymentRequest redirectionPaymentRequest = Mockito.mock(RedirectionPaymentRequest.class, Mockito.RETURNS_DEEP_STUBS);
-        when(httpClient.retrievePaymentData(any(PaySafeCaptureRequest.class), anyBoolean())).thenReturn(Utils.createPaySafeResponse(json));
+        when(httpClient.retrievePaymentDataAsync(any(PaySafeCaptureRequest.class), anyBoolean())).thenReturn(CompletableFuture.completedFuture(Utils.createPaySafeResponse(json)));
 
         PaymentResponse response = service.finalizeRedirectionPayment(redirectionPaymentRequest);
         PaymentResponseFailure responseFailure = (PaymentResponseFailure) response;
@@ -89,8 +113,8 @@ public class PaymentWithRedirectionServiceImplTest {
     @Test
     public void finalizeWithCaptureError() throws IOException, URISyntaxException {
         RedirectionPaymentRequest redirectionPaymentRequest = Mockito.mock(RedirectionPaymentRequest.class, Mockito.RETURNS_DEEP_STUBS);
-        when(httpClient.retrievePaymentData(any(PaySafeCaptureRequest.class), anyBoolean())).thenReturn(Utils.createAuthorizedPaySafeResponse());
-        when(httpClient.capture(any(PaySafeCaptureRequest.class), anyBoolean())).thenReturn(Utils.createBadPaySafeResponse());
+        when(httpClient.retrievePaymentDataAsync(any(PaySafeCaptureRequest.class), anyBoolean())).thenReturn(CompletableFuture.completedFuture(Utils.createAuthorizedPaySafeResponse()));
+        when(httpClient.captureAsync(any(PaySafeCaptureRequest.class), anyBoolean())).thenReturn(CompletableFuture.completedFuture(Utils.createBadPaySafeResponse()));
 
         PaymentResponse response = service.finalizeRedirectionPayment(redirectionPaymentRequest);
         PaymentResponseFailure responseFailure = (PaymentResponseFailure) response;
@@ -114,8 +138,8 @@ public class PaymentWithRedirectionServiceImplTest {
                 "    'submerchant_id': '1'" +
                 "}";
         RedirectionPaymentRequest redirectionPaymentRequest = Mockito.mock(RedirectionPaymentRequest.class, Mockito.RETURNS_DEEP_STUBS);
-        when(httpClient.retrievePaymentData(any(PaySafeCaptureRequest.class), anyBoolean())).thenReturn(Utils.createAuthorizedPaySafeResponse());
-        when(httpClient.capture(any(PaySafeCaptureRequest.class), anyBoolean())).thenReturn(Utils.createPaySafeResponse(json));
+        when(httpClient.retrievePaymentDataAsync(any(PaySafeCaptureRequest.class), anyBoolean())).thenReturn(CompletableFuture.completedFuture(Utils.createAuthorizedPaySafeResponse()));
+        when(httpClient.captureAsync(any(PaySafeCaptureRequest.class), anyBoolean())).thenReturn(CompletableFuture.completedFuture(Utils.createPaySafeResponse(json)));
 
         PaymentResponse response = service.finalizeRedirectionPayment(redirectionPaymentRequest);
         PaymentResponseFailure responseFailure = (PaymentResponseFailure) response;
@@ -125,23 +149,181 @@ public class PaymentWithRedirectionServiceImplTest {
     @Test
     public void finalizeWithHttpException() throws IOException, URISyntaxException {
         RedirectionPaymentRequest redirectionPaymentRequest = Mockito.mock(RedirectionPaymentRequest.class, Mockito.RETURNS_DEEP_STUBS);
-        when(httpClient.retrievePaymentData(any(PaySafeCaptureRequest.class), anyBoolean())).thenThrow(IOException.class);
+        when(httpClient.retrievePaymentDataAsync(any(PaySafeCaptureRequest.class), anyBoolean())).thenReturn(Utils.createFailedFuture(new IOException()));
 
         PaymentResponse response = service.finalizeRedirectionPayment(redirectionPaymentRequest);
         PaymentResponseFailure responseFailure = (PaymentResponseFailure) response;
         Assert.assertEquals(FailureCause.COMMUNICATION_ERROR, responseFailure.getFailureCause());
+        // communication errors are transient
+        verify(httpClient, times(2)).retrievePaymentDataAsync(any(PaySafeCaptureRequest.class), anyBoolean());
 
     }
 
+    @Test
+    public void finalizeRejectedCallNotPolledAgain() {
+        RedirectionPaymentRequest redirectionPaymentRequest = Mockito.mock(RedirectionPaymentRequest.class, Mockito.RETURNS_DEEP_STUBS);
+        when(httpClient.retrievePaymentDataAsync(any(PaySafeCaptureRequest.class), anyBoolean()))
+                .thenReturn(Utils.createFailedFuture(new CircuitBreakerOpenException("Circuit breaker is OPEN")));
+
+        PaymentResponse response = service.finalizeRedirectionPayment(redirectionPaymentRequest);
+
+        Assert.assertEquals(FailureCause.COMMUNICATION_ERROR, ((PaymentResponseFailure) response).getFailureCause());
+        // the partner is already failing: polling again would only add load
+        verify(httpClient, times(1)).retrievePaymentDataAsync(any(PaySafeCaptureRequest.class), anyBoolean());
+    }
+
+    @Test
+    public void finalizeNonRetryableErrorNotPolledAgain() {
+        RedirectionPaymentRequest redirectionPaymentRequest = Mockito.mock(RedirectionPaymentRequest.class, Mockito.RETURNS_DEEP_STUBS);
+        when(httpClient.retrievePaymentDataAsync(any(PaySafeCaptureRequest.class), anyBoolean()))
+                .thenReturn(Utils.createFailedFuture(new SSLHandshakeException("bad certificate")));
+
+        service.finalizeRedirectionPayment(redirectionPaymentRequest);
+
+        verify(httpClient, times(1)).retrievePaymentDataAsync(any(PaySafeCaptureRequest.class), anyBoolean());
+    }
+
+    @Test
+    public void finalizeFinalStatusNotPolledAgain() {
+        RedirectionPaymentRequest redirectionPaymentRequest = Mockito.mock(RedirectionPaymentRequest.class, Mockito.RETURNS_DEEP_STUBS);
+        when(httpClient.retrievePaymentDataAsync(any(PaySafeCaptureRequest.class), anyBoolean())).thenReturn(CompletableFuture.completedFuture(createPaySafeResponse(PaySafeCardConstants.STATUS_CANCELED_CUSTOMER)));
+        long savedCalls = PaymentWithRedirectionServiceImpl.getFinalizeSavedCalls();
+
+        PaymentResponse response = service.finalizeRedirectionPayment(redirectionPaymentRequest);
+
+        Assert.assertEquals(FailureCause.CANCEL, ((PaymentResponseFailure) response).getFailureCause());
+        verify(httpClient, times(1)).retrievePaymentDataAsync(any(PaySafeCaptureRequest.class), anyBoolean());
+        Assert.assertEquals(savedCalls + 1, PaymentWithRedirectionServiceImpl.getFinalizeSavedCalls());
+    }
+
+    @Test
+    public void finalizePendingStatusPolledAgain() {
+        RedirectionPaymentRequest redirectionPaymentRequest = Mockito.mock(RedirectionPaymentRequest.class, Mockito.RETURNS_DEEP_STUBS);
+        when(httpClient.retrievePaymentDataAsync(any(PaySafeCaptureRequest.class), anyBoolean()))
+                .thenReturn(CompletableFuture.completedFuture(Utils.createInitiatedPaySafeResponse()))
+                .thenReturn(CompletableFuture.completedFuture(Utils.createAuthorizedPaySafeResponse()));
+        when(httpClient.captureAsync(any(PaySafeCaptureRequest.class), anyBoolean())).thenReturn(CompletableFuture.completedFuture(Utils.createSuccessPaySafeResponse()));
+        long repolls = PaymentWithRedirectionServiceImpl.getFinalizeRepolls();
+
+        PaymentResponse response = service.finalizeRedirectionPayment(redirectionPaymentRequest);
+
+        Assert.assertEquals(PaymentResponseSuccess.class, response.getClass());
+        verify(httpClient, times(2)).retrievePaymentDataAsync(any(PaySafeCaptureRequest.class), anyBoolean());
+        Assert.assertEquals(repolls + 1, PaymentWithRedirectionServiceImpl.getFinalizeRepolls());
+    }
+
+    @Test
+    public void finalizeSuccessNotPolledAgain() {
+        RedirectionPaymentRequest redirectionPaymentRequest = Mockito.mock(RedirectionPaymentRequest.class, Mockito.RETURNS_DEEP_STUBS);
+        when(httpClient.retrievePaymentDataAsync(any(PaySafeCaptureRequest.class), anyBoolean())).thenReturn(CompletableFuture.completedFuture(Utils.createSuccessPaySafeResponse()));
+
+        PaymentResponse response = service.finalizeRedirectionPayment(redirectionPaymentRequest);
+
+        Assert.assertEquals(PaymentResponseSuccess.class, response.getClass());
+        verify(httpClient, times(1)).retrievePaymentDataAsync(any(PaySafeCaptureRequest.class), anyBoolean());
+        verify(httpClient, never()).captureAsync(any(PaySafeCaptureRequest.class), anyBoolean());
+    }
+
     @Test
     public void handleSessionExpired() throws IOException, URISyntaxException {
         TransactionStatusRequest request = Mockito.mock(TransactionStatusRequest.class, Mockito.RETURNS_DEEP_STUBS);
-        when(httpClient.retrievePaymentData(any(PaySafeCaptureRequest.class), anyBoolean())).thenReturn(Utils.createAuthorizedPaySafeResponse());
-        when(httpClient.capture(any(PaySafeCaptureRequest.class), anyBoolean())).thenReturn(Utils.createSuccessPaySafeResponse());
+        when(httpClient.retrievePaymentDataAsync(any(PaySafeCaptureRequest.class), anyBoolean())).thenReturn(CompletableFuture.completedFuture(Utils.createAuthorizedPaySafeResponse()));
+        when(httpClient.captureAsync(any(PaySafeCaptureRequest.class), anyBoolean())).thenReturn(CompletableFuture.completedFuture(Utils.createSuccessPaySafeResponse()));
 
         PaymentResponse response = service.handleSessionExpired(request);
 
         Assert.assertEquals(PaymentResponseSuccess.class, response.getClass());
     }
 
-}
\ No newline at end of file
+    @Test
+    public void reconcile() throws InvalidRequestException {
+        service.setPollingSchedule(createPollingSchedule());
+        Map<String, Queue<CompletableFuture<PaySafePaymentResponse>>> retrieves = new HashMap<>();
+        // authorized after one poll, then captured
+        retrieves.put("initiated", new ConcurrentLinkedQueue<>(Arrays.asList(
+                CompletableFuture.completedFuture(Utils.createInitiatedPaySafeResponse()),
+                CompletableFuture.completedFuture(Utils.createAuthorizedPaySafeResponse()))));
+        // reachable after a communication error
+        retrieves.put("error", new ConcurrentLinkedQueue<>(Arrays.asList(
+                Utils.createFailedFuture(new IOException("timeout")),
+                CompletableFuture.completedFuture(Utils.createSuccessPaySafeResponse()))));
+        // final status, not polled again
+        retrieves.put("canceled", new ConcurrentLinkedQueue<>(Collections.singletonList(
+                CompletableFuture.completedFuture(createPaySafeResponse(PaySafeCardConstants.STATUS_CANCELED_CUSTOMER)))));
+        // never reachable
+        retrieves.put("unreachable", new ConcurrentLinkedQueue<>(Arrays.asList(
+                Utils.createFailedFuture(new IOException("timeout")),
+                Utils.createFailedFuture(new IOException("timeout")),
+                Utils.createFailedFuture(new IOException("timeout")))));
+        doAnswer(invocation -> retrieves.get(((PaySafeCaptureRequest) invocation.getArguments()[0]).getPaymentId()).poll())
+                .when(httpClient).retrievePaymentDataAsync(any(PaySafeCaptureRequest.class), anyBoolean());
+        when(httpClient.captureAsync(any(PaySafeCaptureRequest.class), anyBoolean())).thenReturn(CompletableFuture.completedFuture(Utils.createSuccessPaySafeResponse()));
+
+        Map<String, PaymentResponse> responses = new ConcurrentHashMap<>();
+        service.reconcile(createCaptureRequests("initiated", "error", "canceled", "unreachable"), true, 2, responses::put).join();
+
+        Assert.assertEquals(4, responses.size());
+        Assert.assertEquals(PaymentResponseSuccess.class, responses.get("initiated").getClass());
+        Assert.assertEquals(PaymentResponseSuccess.class, responses.get("error").getClass());
+        Assert.assertEquals(FailureCause.CANCEL, ((PaymentResponseFailure) responses.get("canceled")).getFailureCause());
+        Assert.assertEquals(FailureCause.COMMUNICATION_ERROR, ((PaymentResponseFailure) responses.get("unreachable")).getFailureCause());
+        for (Queue<CompletableFuture<PaySafePaymentResponse>> queue : retrieves.values()) {
+            Assert.assertTrue(queue.isEmpty());
+        }
+        verify(httpClient, times(1)).captureAsync(any(PaySafeCaptureRequest.class), anyBoolean());
+    }
+
+    @Test
+    public void reconcileConcurrency() throws InvalidRequestException {
+        service.setPollingSchedule(createPollingSchedule());
+        AtomicInteger running = new AtomicInteger();
+        AtomicInteger maxRunning = new AtomicInteger();
+        doAnswer(invocation -> {
+            maxRunning.accumulateAndGet(running.incrementAndGet(), Math::max);
+            return CompletableFuture.supplyAsync(() -> {
+                try {
+                    Thread.sleep(5);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                running.decrementAndGet();
+                return Utils.createSuccessPaySafeResponse();
+            });
+        }).when(httpClient).retrievePaymentDataAsync(any(PaySafeCaptureRequest.class), anyBoolean());
+
+        String[] paymentIds = new String[20];
+        for (int i = 0; i < paymentIds.length; i++) {
+            paymentIds[i] = "pay_" + i;
+        }
+        Map<String, PaymentResponse> responses = new ConcurrentHashMap<>();
+        service.reconcile(createCaptureRequests(paymentIds), true, 3, responses::put).join();
+
+        Assert.assertEquals(20, responses.size());
+        Assert.assertTrue(maxRunning.get() <= 3);
+    }
+
+    @Test
+    public void reconcileNothing() {
+        service.reconcile(Collections.emptyList(), true, 1, (id, response) -> Assert.fail()).join();
+    }
+
+    private static PollingSchedule createPollingSchedule() {
+        return PollingSchedule.PollingScheduleBuilder.aPollingSchedule()
+                .withPendingDelay(PaySafeCardConstants.STATUS_INITIATED, 1)
+                .withErrorDelay(1)
+                .withMaxPolls(3)
+                .build();
+    }
+
+    private static List<PaySafeCaptureRequest> createCaptureRequests(String... paymentIds) throws InvalidRequestException {
+        List<PaySafeCaptureRequest> requests = new ArrayList<>();
+        for (String paymentId : paymentIds) {
+            requests.add(new PaySafeCaptureRequest(paymentId, Utils.createContractConfiguration(null, null, null, Utils.AUTHORISATION_VAL), null));
+        }
+        return requests;
+    }
+
+    private static PaySafePaymentResponse createPaySafeResponse(String status) {
+        return Utils.createPaySafeResponse("{'object': 'PAYMENT', 'id': 'pay_1', 'status': '" + status + "', 'customer': {'id': 'foo'}}");
+    }
+}
@@ -1,11 +1,17 @@
 package com.payline.payment.paysafecard.test.services;
 
 import com.payline.payment.paysafecard.bean.PaySafePaymentRequest;
+import com.payline.payment.paysafecard.bean.PaySafePaymentResponse;
 import com.payline.payment.paysafecard.bean.PaySafeRefundRequest;
 import com.payline.payment.paysafecard.services.RefundServiceImpl;
 import com.payline.payment.paysafecard.test.Utils;
+import com.payline.payment.paysafecard.utils.CircuitBreakerOpenException;
+import com.payline.payment.paysafecard.utils.RateLimitExceededException;
 import com.payline.payment.paysafecard.utils.InvalidRequestException;
+import com.payline.payment.paysafecard.utils.PaySafeCardConstants;
+import com.payline.payment.paysafecard.utils.PaySafeErrorHandler;
 import com.payline.payment.paysafecard.utils.PaySafeHttpClient;
+import com.payline.pmapi.bean.common.Amount;
 import com.payline.pmapi.bean.common.FailureCause;
 import com.payline.pmapi.bean.configuration.PartnerConfiguration;
 import com.payline.pmapi.bean.refund.request.RefundRequest;
@@ -22,6 +28,17 @@ import org.mockito.Mockito;
 import org.mockito.runners.MockitoJUnitRunner;
 
 import java.io.IOException;
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Currency;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Stream;
 import java.net.URISyntaxException;
 
 import static org.mockito.Mockito.*;
@@ -42,7 +59,9 @@ public class RefundServiceImplTest {
         doReturn(paymentRequest).when(service).createRequest(any(RefundRequest.class));
         doNothing().when(service).updateRequest(any(PaySafeRefundRequest.class));
         request = Mockito.mock(RefundRequest.class, Mockito.RETURNS_DEEP_STUBS);
+        when(request.getAmount()).thenReturn(new Amount(BigInteger.ONE, Currency.getInstance("EUR")));
         doReturn(httpClient).when(service).getHttpClient(Mockito.any());
+        RefundServiceImpl.invalidateValidations();
     }
 
     @Test
@@ -189,6 +208,29 @@ public class RefundServiceImplTest {
     }
 
 
+    @Test
+    public void refundWithCircuitBreakerOpen() throws IOException, URISyntaxException {
+        when(httpClient.refund(any(PaySafePaymentRequest.class), anyBoolean())).thenThrow(new CircuitBreakerOpenException("Circuit breaker is OPEN"));
+
+        RefundResponse response = service.refundRequest(request);
+
+        Assert.assertNotNull(response);
+        RefundResponseFailure responseFailure = (RefundResponseFailure) response;
+        Assert.assertEquals(FailureCause.COMMUNICATION_ERROR, responseFailure.getFailureCause());
+    }
+
+    @Test
+    public void refundWithRateLimitExceeded() throws IOException, URISyntaxException {
+        when(httpClient.refund(any(PaySafePaymentRequest.class), anyBoolean())).thenThrow(new RateLimitExceededException("Rate limit of refund reached"));
+
+        RefundResponse response = service.refundRequest(request);
+
+        Assert.assertNotNull(response);
+        RefundResponseFailure responseFailure = (RefundResponseFailure) response;
+        Assert.assertEquals(FailureCause.COMMUNICATION_ERROR, responseFailure.getFailureCause());
+        Assert.assertEquals(PaySafeErrorHandler.RATE_LIMITED, responseFailure.getErrorCode());
+    }
+
     @Test
     public void refundWithException() throws IOException, URISyntaxException {
         when(httpClient.refund(any(PaySafePaymentRequest.class), anyBoolean())).thenThrow(IOException.class);
@@ -210,4 +252,171 @@ public class RefundServiceImplTest {
     public void canPartial() {
         Assert.assertFalse(service.canPartial());
     }
+
+    @Test
+    public void directRefund() throws IOException {
+        when(request.getContractConfiguration().getProperty(PaySafeCardConstants.DIRECT_REFUND_KEY).getValue()).thenReturn(PaySafeCardConstants.DIRECT_REFUND_YES_KEY);
+        when(httpClient.refund(any(PaySafePaymentRequest.class), anyBoolean())).thenReturn(createRefundResponse(PaySafeCardConstants.STATUS_SUCCESS));
+        long oneCallRefunds = RefundServiceImpl.getOneCallRefunds();
+
+        RefundResponse response = service.refundRequest(request);
+
+        Assert.assertEquals(RefundResponseSuccess.class, response.getClass());
+        verify(httpClient, times(1)).refund(any(PaySafePaymentRequest.class), anyBoolean());
+        Assert.assertEquals(oneCallRefunds + 1, RefundServiceImpl.getOneCallRefunds());
+    }
+
+    @Test
+    public void refundValidationCached() throws IOException {
+        when(request.getPartnerTransactionId()).thenReturn("pay_1");
+        when(httpClient.refund(any(PaySafePaymentRequest.class), anyBoolean()))
+                .thenReturn(createRefundResponse(PaySafeCardConstants.STATUS_REFUND_SUCCESS))
+                .thenThrow(new IOException("timeout"))
+                .thenReturn(createRefundResponse(PaySafeCardConstants.STATUS_SUCCESS));
+        long oneCallRefunds = RefundServiceImpl.getOneCallRefunds();
+        long twoCallRefunds = RefundServiceImpl.getTwoCallRefunds();
+
+        // validated, then the capture fails
+        Assert.assertEquals(RefundResponseFailure.class, service.refundRequest(request).getClass());
+        // the retry only captures
+        Assert.assertEquals(RefundResponseSuccess.class, service.refundRequest(request).getClass());
+
+        verify(httpClient, times(3)).refund(any(PaySafePaymentRequest.class), anyBoolean());
+        Assert.assertEquals(oneCallRefunds + 1, RefundServiceImpl.getOneCallRefunds());
+        Assert.assertEquals(twoCallRefunds + 1, RefundServiceImpl.getTwoCallRefunds());
+    }
+
+    @Test
+    public void refundValidationNotCachedForOtherAmount() throws IOException {
+        when(request.getPartnerTransactionId()).thenReturn("pay_1");
+        when(request.getAmount()).thenReturn(new Amount(BigInteger.ONE, Currency.getInstance("EUR")), new Amount(BigInteger.TEN, Currency.getInstance("EUR")));
+        when(httpClient.refund(any(PaySafePaymentRequest.class), anyBoolean()))
+                .thenReturn(createRefundResponse(PaySafeCardConstants.STATUS_REFUND_SUCCESS))
+                .thenThrow(new IOException("timeout"))
+                .thenReturn(createRefundResponse(PaySafeCardConstants.STATUS_REFUND_SUCCESS))
+                .thenReturn(createRefundResponse(PaySafeCardConstants.STATUS_SUCCESS));
+
+        service.refundRequest(request);
+        Assert.assertEquals(RefundResponseSuccess.class, service.refundRequest(request).getClass());
+
+        verify(httpClient, times(4)).refund(any(PaySafePaymentRequest.class), anyBoolean());
+    }
+
+    @Test
+    public void refundValidationNotCachedForOtherContract() throws IOException {
+        when(request.getPartnerTransactionId()).thenReturn("pay_1");
+        when(request.getContractConfiguration().getProperty(PaySafeCardConstants.AUTHORISATIONKEY_KEY).getValue()).thenReturn("key1", "key2");
+        when(httpClient.refund(any(PaySafePaymentRequest.class), anyBoolean()))
+                .thenReturn(createRefundResponse(PaySafeCardConstants.STATUS_REFUND_SUCCESS))
+                .thenThrow(new IOException("timeout"))
+                .thenReturn(createRefundResponse(PaySafeCardConstants.STATUS_REFUND_SUCCESS))
+                .thenReturn(createRefundResponse(PaySafeCardConstants.STATUS_SUCCESS));
+
+        service.refundRequest(request);
+        Assert.assertEquals(RefundResponseSuccess.class, service.refundRequest(request).getClass());
+
+        // the other contract validates the refund itself
+        verify(httpClient, times(4)).refund(any(PaySafePaymentRequest.class), anyBoolean());
+    }
+
+    @Test
+    public void refundAll() {
+        AtomicInteger running = new AtomicInteger();
+        AtomicInteger maxRunning = new AtomicInteger();
+        doAnswer(invocation -> {
+            maxRunning.accumulateAndGet(running.incrementAndGet(), Math::max);
+            return CompletableFuture.supplyAsync(() -> {
+                try {
+                    Thread.sleep(2);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                running.decrementAndGet();
+                return createRefundResponse(PaySafeCardConstants.STATUS_SUCCESS);
+            });
+        }).when(httpClient).refundAsync(any(PaySafePaymentRequest.class), anyBoolean());
+
+        List<RefundRequest> refundRequests = new ArrayList<>();
+        for (int i = 0; i < 30; i++) {
+            refundRequests.add(createDirectRefundRequest("pay_" + i, "key_" + (i % 3)));
+        }
+        Map<RefundRequest, RefundResponse> responses = new ConcurrentHashMap<>();
+        service.refundAll(refundRequests.stream(), 4, 10000, 100, responses::put).join();
+
+        Assert.assertEquals(30, responses.size());
+        for (RefundResponse response : responses.values()) {
+            Assert.assertEquals(RefundResponseSuccess.class, response.getClass());
+        }
+        Assert.assertTrue(maxRunning.get() <= 4);
+    }
+
+    @Test
+    public void refundAllRateLimitedPerKey() {
+        when(httpClient.refundAsync(any(PaySafePaymentRequest.class), anyBoolean()))
+                .thenReturn(CompletableFuture.completedFuture(createRefundResponse(PaySafeCardConstants.STATUS_SUCCESS)));
+        List<RefundRequest> refundRequests = new ArrayList<>();
+        for (int i = 0; i < 6; i++) {
+            refundRequests.add(createDirectRefundRequest("pay_" + i, "key"));
+        }
+        List<RefundResponse> responses = Collections.synchronizedList(new ArrayList<>());
+
+        long start = System.nanoTime();
+        // 50 calls per second, 1 at once: the 6 refunds of the merchant take at least 100ms
+        service.refundAll(refundRequests.stream(), 6, 50, 1, (request, response) -> responses.add(response)).join();
+
+        Assert.assertEquals(6, responses.size());
+        Assert.assertTrue(System.nanoTime() - start >= TimeUnit.MILLISECONDS.toNanos(90));
+    }
+
+    @Test
+    public void refundAllReadsTheStreamWhenTokensAreAvailable() {
+        when(httpClient.refundAsync(any(PaySafePaymentRequest.class), anyBoolean()))
+                .thenReturn(CompletableFuture.completedFuture(createRefundResponse(PaySafeCardConstants.STATUS_SUCCESS)));
+        List<RefundRequest> refundRequests = new ArrayList<>();
+        for (int i = 0; i < 10; i++) {
+            refundRequests.add(createDirectRefundRequest("pay_" + i, "key"));
+        }
+        AtomicInteger read = new AtomicInteger();
+        List<RefundResponse> responses = Collections.synchronizedList(new ArrayList<>());
+
+        // 50 calls per second, 1 at once: the refunds waiting for a token stay in the stream
+        CompletableFuture<Void> done = service.refundAll(refundRequests.stream().peek(request -> read.incrementAndGet()), 100, 50, 1,
+                (request, response) -> responses.add(response));
+        Assert.assertTrue(String.valueOf(read.get()), read.get() <= 2);
+
+        done.join();
+        Assert.assertEquals(10, read.get());
+        Assert.assertEquals(10, responses.size());
+    }
+
+    @Test
+    public void refundAllValidateThenCapture() {
+        when(httpClient.refundAsync(any(PaySafePaymentRequest.class), anyBoolean()))
+                .thenReturn(CompletableFuture.completedFuture(createRefundResponse(PaySafeCardConstants.STATUS_REFUND_SUCCESS)))
+                .thenReturn(CompletableFuture.completedFuture(createRefundResponse(PaySafeCardConstants.STATUS_SUCCESS)))
+                .thenReturn(Utils.createFailedFuture(new IOException("timeout")));
+        Map<RefundRequest, RefundResponse> responses = new ConcurrentHashMap<>();
+        RefundRequest other = Mockito.mock(RefundRequest.class, Mockito.RETURNS_DEEP_STUBS);
+        when(other.getPartnerTransactionId()).thenReturn("pay_2");
+        when(other.getAmount()).thenReturn(new Amount(BigInteger.ONE, Currency.getInstance("EUR")));
+
+        // one at a time: the second refund fails on its validation call
+        service.refundAll(Stream.of(request, other), 1, 1000, 10, responses::put).join();
+
+        Assert.assertEquals(RefundResponseSuccess.class, responses.get(request).getClass());
+        Assert.assertEquals(FailureCause.CANCEL, ((RefundResponseFailure) responses.get(other)).getFailureCause());
+        verify(httpClient, times(3)).refundAsync(any(PaySafePaymentRequest.class), anyBoolean());
+    }
+
+    private static RefundRequest createDirectRefundRequest(String paymentId, String authorisationKey) {
+        RefundRequest refundRequest = Mockito.mock(RefundRequest.class, Mockito.RETURNS_DEEP_STUBS);
+        when(refundRequest.getPartnerTransactionId()).thenReturn(paymentId);
+        when(refundRequest.getContractConfiguration().getProperty(PaySafeCardConstants.DIRECT_REFUND_KEY).getValue()).thenReturn(PaySafeCardConstants.DIRECT_REFUND_YES_KEY);
+        when(refundRequest.getContractConfiguration().getProperty(PaySafeCardConstants.AUTHORISATIONKEY_KEY).getValue()).thenReturn(authorisationKey);
+        return refundRequest;
+    }
+
+    private static PaySafePaymentResponse createRefundResponse(String status) {
+        return Utils.createPaySafeResponse("{object: REFUND, id: ref_1, currency: EUR, amount: 0.01, status: " + status + "}");
+    }
 }
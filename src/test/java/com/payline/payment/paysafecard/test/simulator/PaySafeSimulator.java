@@ -0,0 +1,487 @@
+package com.payline.payment.paysafecard.test.simulator;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import com.payline.payment.paysafecard.utils.PaySafeCardConstants;
+import com.payline.payment.paysafecard.utils.PaySafeHttpClient;
+import com.payline.payment.paysafecard.utils.PaySafeOperation;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * In-process Paysafecard API, to test the plugin and load test it without the sandbox.
+ * Point the plugin to it with the {@link PaySafeHttpClient#URL_OVERRIDE} partner configuration key set to {@link #getUrl()}.
+ * <ul>
+ * <li>POST /v1/payments creates an INITIATED payment</li>
+ * <li>GET /v1/payments/{id} returns the payment. The payment becomes AUTHORIZED when {@link #authorize(String)} is called,
+ * or by itself after the authorization delay</li>
+ * <li>POST /v1/payments/{id}/capture moves an AUTHORIZED payment to SUCCESS</li>
+ * <li>POST /v1/payments/{id}/refunds validates (capture false) or executes (capture true) a refund of a SUCCESS payment</li>
+ * </ul>
+ * Latencies and errors can be configured per operation.
+ */
+public class PaySafeSimulator implements AutoCloseable {
+
+    /**
+     * Time spent by the simulator before answering
+     */
+    public interface Latency {
+        long nextDelay();
+
+        static Latency none() {
+            return () -> 0;
+        }
+
+        static Latency fixed(long delay) {
+            return () -> delay;
+        }
+
+        static Latency uniform(long min, long max) {
+            return () -> ThreadLocalRandom.current().nextLong(min, max + 1);
+        }
+
+        /**
+         * Long tail latency, as observed on real APIs
+         *
+         * @param median the median delay, in milliseconds
+         * @param sigma  the standard deviation of the delay logarithm, 0.5 gives a 99th percentile around 3 times the median
+         */
+        static Latency logNormal(long median, double sigma) {
+            return () -> Math.round(median * Math.exp(sigma * ThreadLocalRandom.current().nextGaussian()));
+        }
+    }
+
+    /**
+     * Error returned instead of the normal response
+     */
+    public static final class Error {
+        public static final Error GENERAL_TECHNICAL_ERROR = new Error(500, "general_technical_error", "10007", "General technical error.");
+        public static final Error INVALID_API_KEY = new Error(401, "invalid_api_key", "10008", "Authentication failed due to missing or invalid API key.");
+        public static final Error INVALID_REQUEST_PARAMETER = new Error(400, "invalid_request_parameter", "10028", "must be greater than or equal to 1");
+        public static final Error PAYMENT_INVALID_STATE = new Error(400, "payment_invalid_state", "2017", "This payment is not capturable at the moment.");
+        public static final Error MAX_AMOUNT_EXCEEDED = new Error(400, "max_amount_exceeded", "4003", "The amount for this transaction exceeds the maximum amount.");
+        public static final Error SERVICE_UNAVAILABLE = new Error(503, null, null, "Service Unavailable");
+        /**
+         * Error page of a proxy in front of the API, not JSON
+         */
+        public static final Error SERVICE_UNAVAILABLE_HTML = new Error(503, "<html><body><h1>503 Service Unavailable</h1></body></html>");
+
+        private final int httpStatus;
+        private final String code;
+        private final String number;
+        private final String message;
+        private final String html;
+
+        public Error(int httpStatus, String code, String number, String message) {
+            this.httpStatus = httpStatus;
+            this.code = code;
+            this.number = number;
+            this.message = message;
+            this.html = null;
+        }
+
+        public Error(int httpStatus, String html) {
+            this.httpStatus = httpStatus;
+            this.code = null;
+            this.number = null;
+            this.message = null;
+            this.html = html;
+        }
+    }
+
+    private static final class Injection {
+        private final Error error;
+        private final double probability;
+        private final AtomicInteger remaining;
+
+        private Injection(Error error, double probability, int times) {
+            this.error = error;
+            this.probability = probability;
+            this.remaining = new AtomicInteger(times);
+        }
+
+        private boolean fire() {
+            if (ThreadLocalRandom.current().nextDouble() >= probability) {
+                return false;
+            }
+            // negative count: no limit
+            return remaining.get() < 0 || remaining.getAndDecrement() > 0;
+        }
+    }
+
+    private static final class Payment {
+        private final String id;
+        private final String amount;
+        private final String currency;
+        private final JsonObject redirect;
+        private final JsonElement customer;
+        private final JsonElement notificationUrl;
+        private final long created;
+        private volatile long updated;
+        private volatile String status = "INITIATED";
+
+        private Payment(String id, JsonObject request) {
+            this.id = id;
+            this.amount = request.has("amount") ? request.get("amount").getAsString() : null;
+            this.currency = request.has("currency") ? request.get("currency").getAsString() : null;
+            this.redirect = request.has("redirect") ? request.getAsJsonObject("redirect").deepCopy() : new JsonObject();
+            this.redirect.addProperty("auth_url", "https://customer.test.at.paysafecard.com/psccustomer/GetCustomerPanelServlet?mid=1000005843&mtid=" + id);
+            this.customer = request.get("customer");
+            this.notificationUrl = request.get("notification_url");
+            this.created = System.currentTimeMillis();
+            this.updated = created;
+        }
+
+        private synchronized void setStatus(String status) {
+            this.status = status;
+            this.updated = System.currentTimeMillis();
+        }
+    }
+
+    private final HttpServer server;
+    private final ExecutorService executor;
+    private final Map<String, Payment> payments = new ConcurrentHashMap<>();
+    private final Map<PaySafeOperation, Latency> latencies = new ConcurrentHashMap<>();
+    private final Map<PaySafeOperation, Injection> errors = new ConcurrentHashMap<>();
+    private final Map<PaySafeOperation, AtomicLong> requestCounts = new EnumMap<>(PaySafeOperation.class);
+    private final AtomicLong sequence = new AtomicLong(1000000000L);
+    private volatile long authorizationDelay = -1;
+
+    private PaySafeSimulator(int port) throws IOException {
+        for (PaySafeOperation operation : PaySafeOperation.values()) {
+            requestCounts.put(operation, new AtomicLong());
+        }
+        this.executor = Executors.newCachedThreadPool(r -> {
+            Thread thread = new Thread(r, "paysafecard-simulator");
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.server = HttpServer.create(new InetSocketAddress("localhost", port), 200);
+        this.server.createContext("/" + PaySafeCardConstants.PATH_VERSION + "/" + PaySafeCardConstants.PATH, this::handle);
+        this.server.setExecutor(executor);
+        this.server.start();
+    }
+
+    /**
+     * @return a simulator listening on a free port
+     */
+    public static PaySafeSimulator start() throws IOException {
+        return start(0);
+    }
+
+    public static PaySafeSimulator start(int port) throws IOException {
+        return new PaySafeSimulator(port);
+    }
+
+    /**
+     * @return the value of the {@link PaySafeHttpClient#URL_OVERRIDE} partner configuration key
+     */
+    public String getUrl() {
+        return "http://localhost:" + server.getAddress().getPort();
+    }
+
+    public PaySafeSimulator withLatency(Latency latency) {
+        for (PaySafeOperation operation : PaySafeOperation.values()) {
+            latencies.put(operation, latency);
+        }
+        return this;
+    }
+
+    public PaySafeSimulator withLatency(PaySafeOperation operation, Latency latency) {
+        latencies.put(operation, latency);
+        return this;
+    }
+
+    /**
+     * @param probability the probability, between 0 and 1, to return the error instead of the normal response
+     */
+    public PaySafeSimulator withError(PaySafeOperation operation, Error error, double probability) {
+        errors.put(operation, new Injection(error, probability, -1));
+        return this;
+    }
+
+    /**
+     * Return the error for the next calls of the operation only
+     */
+    public PaySafeSimulator failNext(PaySafeOperation operation, Error error, int times) {
+        errors.put(operation, new Injection(error, 1, times));
+        return this;
+    }
+
+    /**
+     * @param authorizationDelay time after which an initiated payment is authorized by the customer, in milliseconds.
+     *                           Negative to authorize the payments with {@link #authorize(String)} only.
+     */
+    public PaySafeSimulator withAuthorizationDelay(long authorizationDelay) {
+        this.authorizationDelay = authorizationDelay;
+        return this;
+    }
+
+    /**
+     * Simulate the customer paying with his paysafecard
+     */
+    public void authorize(String paymentId) {
+        setStatus(paymentId, PaySafeCardConstants.STATUS_AUTHORIZED);
+    }
+
+    public void setStatus(String paymentId, String status) {
+        final Payment payment = payments.get(paymentId);
+        if (payment == null) {
+            throw new IllegalArgumentException("Unknown payment " + paymentId);
+        }
+        payment.setStatus(status);
+    }
+
+    public String getStatus(String paymentId) {
+        final Payment payment = payments.get(paymentId);
+        return payment == null ? null : payment.status;
+    }
+
+    public long getRequestCount(PaySafeOperation operation) {
+        return requestCounts.get(operation).get();
+    }
+
+    /**
+     * Remove the payments, latencies and errors
+     */
+    public void reset() {
+        payments.clear();
+        latencies.clear();
+        errors.clear();
+        authorizationDelay = -1;
+        requestCounts.values().forEach(count -> count.set(0));
+    }
+
+    @Override
+    public void close() {
+        server.stop(0);
+        executor.shutdownNow();
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        try {
+            // /v1/payments[/{id}[/capture|/refunds]], with or without trailing slash
+            final String[] path = exchange.getRequestURI().getPath().replaceAll("^/+|/+$", "").split("/+");
+            final String method = exchange.getRequestMethod();
+            final PaySafeOperation operation = getOperation(method, path);
+            if (operation == null) {
+                send(exchange, 404, error("resource_not_found", "10001", "Resource not found."));
+                return;
+            }
+            requestCounts.get(operation).incrementAndGet();
+            sleep(latencies.getOrDefault(operation, Latency.none()).nextDelay());
+
+            final String authorization = exchange.getRequestHeaders().getFirst("Authorization");
+            if (authorization == null || !authorization.startsWith("Basic ")) {
+                sendError(exchange, Error.INVALID_API_KEY);
+                return;
+            }
+            final Injection injection = errors.get(operation);
+            if (injection != null && injection.fire()) {
+                sendError(exchange, injection.error);
+                return;
+            }
+
+            switch (operation) {
+                case INITIATE:
+                    initiate(exchange);
+                    break;
+                case RETRIEVE:
+                    retrieve(exchange, path[2]);
+                    break;
+                case CAPTURE:
+                    capture(exchange, path[2]);
+                    break;
+                default:
+                    refund(exchange, path[2]);
+                    break;
+            }
+        } catch (RuntimeException e) {
+            send(exchange, 500, error(Error.GENERAL_TECHNICAL_ERROR.code, Error.GENERAL_TECHNICAL_ERROR.number, e.toString()));
+        } finally {
+            exchange.close();
+        }
+    }
+
+    private static PaySafeOperation getOperation(String method, String[] path) {
+        if (path.length == 2 && "POST".equals(method)) {
+            return PaySafeOperation.INITIATE;
+        }
+        if (path.length == 3 && "GET".equals(method)) {
+            return PaySafeOperation.RETRIEVE;
+        }
+        if (path.length == 4 && "POST".equals(method) && PaySafeCardConstants.PATH_CAPTURE.equals(path[3])) {
+            return PaySafeOperation.CAPTURE;
+        }
+        if (path.length == 4 && "POST".equals(method) && PaySafeCardConstants.PATH_REFUND.equals(path[3])) {
+            return PaySafeOperation.REFUND;
+        }
+        return null;
+    }
+
+    private void initiate(HttpExchange exchange) throws IOException {
+        final JsonObject request = readBody(exchange);
+        if (!request.has("amount") || request.get("amount").getAsDouble() <= 0) {
+            sendError(exchange, Error.INVALID_REQUEST_PARAMETER);
+            return;
+        }
+        final String currency = request.has("currency") ? request.get("currency").getAsString() : "EUR";
+        final Payment payment = new Payment("pay_" + sequence.incrementAndGet() + "_" + Long.toHexString(System.nanoTime()) + "_" + currency, request);
+        payments.put(payment.id, payment);
+        send(exchange, 201, toJson(payment));
+    }
+
+    private void retrieve(HttpExchange exchange, String id) throws IOException {
+        final Payment payment = payments.get(id);
+        if (payment == null) {
+            sendNotFound(exchange, id);
+            return;
+        }
+        synchronized (payment) {
+            if ("INITIATED".equals(payment.status) && authorizationDelay >= 0 && System.currentTimeMillis() - payment.created >= authorizationDelay) {
+                payment.setStatus(PaySafeCardConstants.STATUS_AUTHORIZED);
+            }
+        }
+        send(exchange, 200, toJson(payment));
+    }
+
+    private void capture(HttpExchange exchange, String id) throws IOException {
+        final Payment payment = payments.get(id);
+        if (payment == null) {
+            sendNotFound(exchange, id);
+            return;
+        }
+        synchronized (payment) {
+            if (!PaySafeCardConstants.STATUS_AUTHORIZED.equals(payment.status)) {
+                sendError(exchange, Error.PAYMENT_INVALID_STATE);
+                return;
+            }
+            payment.setStatus(PaySafeCardConstants.STATUS_SUCCESS);
+        }
+        final JsonObject response = toJson(payment);
+        final JsonObject cardDetail = new JsonObject();
+        cardDetail.addProperty("serial", "1000007704");
+        cardDetail.addProperty("currency", payment.currency);
+        cardDetail.addProperty("amount", payment.amount);
+        cardDetail.addProperty("type", "00022");
+        cardDetail.addProperty("country", "FR");
+        final JsonArray cardDetails = new JsonArray();
+        cardDetails.add(cardDetail);
+        response.add("card_details", cardDetails);
+        send(exchange, 200, response);
+    }
+
+    private void refund(HttpExchange exchange, String id) throws IOException {
+        final JsonObject request = readBody(exchange);
+        final Payment payment = payments.get(id);
+        if (payment == null || !PaySafeCardConstants.STATUS_SUCCESS.equals(payment.status)) {
+            send(exchange, 400, error("merchant_refund_missing_transaction", "3184", "No original Transaction found"));
+            return;
+        }
+        final boolean capture = request.has("capture") && request.get("capture").getAsBoolean();
+        final JsonObject response = new JsonObject();
+        response.addProperty("object", "REFUND");
+        response.addProperty("id", "ref_" + sequence.incrementAndGet() + "_" + payment.currency);
+        response.addProperty("created", System.currentTimeMillis());
+        response.addProperty("updated", System.currentTimeMillis());
+        response.add("amount", request.get("amount"));
+        response.add("currency", request.get("currency"));
+        response.add("customer", request.get("customer"));
+        response.addProperty("status", capture ? PaySafeCardConstants.STATUS_SUCCESS : PaySafeCardConstants.STATUS_REFUND_SUCCESS);
+        send(exchange, 201, response);
+    }
+
+    private static JsonObject toJson(Payment payment) {
+        final JsonObject response = new JsonObject();
+        response.addProperty("object", "PAYMENT");
+        response.addProperty("id", payment.id);
+        response.addProperty("created", payment.created);
+        response.addProperty("updated", payment.updated);
+        response.addProperty("amount", payment.amount);
+        response.addProperty("currency", payment.currency);
+        response.addProperty("status", payment.status);
+        response.addProperty("type", "PAYSAFECARD");
+        response.add("redirect", payment.redirect);
+        response.add("customer", payment.customer);
+        response.add("notification_url", payment.notificationUrl);
+        return response;
+    }
+
+    private static JsonObject error(String code, String number, String message) {
+        final JsonObject response = new JsonObject();
+        response.addProperty("code", code);
+        response.addProperty("message", message);
+        response.addProperty("number", number);
+        return response;
+    }
+
+    private static void sendError(HttpExchange exchange, Error error) throws IOException {
+        if (error.html != null) {
+            send(exchange, error.httpStatus, "text/html; charset=UTF-8", error.html);
+            return;
+        }
+        send(exchange, error.httpStatus, error(error.code, error.number, error.message));
+    }
+
+    private static void sendNotFound(HttpExchange exchange, String id) throws IOException {
+        send(exchange, 404, error("invalid_payment_id", "10028", "Payment " + id + " not found"));
+    }
+
+    private static JsonObject readBody(HttpExchange exchange) {
+        final JsonElement body = new JsonParser().parse(new InputStreamReader(exchange.getRequestBody(), StandardCharsets.UTF_8));
+        return body.isJsonObject() ? body.getAsJsonObject() : new JsonObject();
+    }
+
+    private static void send(HttpExchange exchange, int status, JsonObject body) throws IOException {
+        send(exchange, status, "application/json; charset=UTF-8", body.toString());
+    }
+
+    private static void send(HttpExchange exchange, int status, String contentType, String body) throws IOException {
+        final byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", contentType);
+        exchange.sendResponseHeaders(status, bytes.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(bytes);
+        }
+    }
+
+    private static void sleep(long delay) {
+        if (delay <= 0) {
+            return;
+        }
+        try {
+            Thread.sleep(delay);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Run the simulator alone, for load tests: {@code PaySafeSimulator [port] [median latency ms]}
+     */
+    public static void main(String[] args) throws IOException {
+        final int port = args.length > 0 ? Integer.parseInt(args[0]) : 8080;
+        final long median = args.length > 1 ? Long.parseLong(args[1]) : 0;
+        final PaySafeSimulator simulator = start(port).withAuthorizationDelay(0);
+        if (median > 0) {
+            simulator.withLatency(Latency.logNormal(median, 0.5));
+        }
+        System.out.println("Paysafecard simulator listening on " + simulator.getUrl() + ", use it with " + PaySafeHttpClient.URL_OVERRIDE + "=" + simulator.getUrl());
+    }
+}
@@ -0,0 +1,473 @@
+package com.payline.payment.paysafecard.test.simulator;
+
+import com.google.gson.JsonSyntaxException;
+import com.payline.payment.paysafecard.bean.PaySafeCaptureRequest;
+import com.payline.payment.paysafecard.bean.PaySafePaymentRequest;
+import com.payline.payment.paysafecard.bean.PaySafePaymentResponse;
+import com.payline.payment.paysafecard.bean.PaySafeRefundRequest;
+import com.payline.payment.paysafecard.test.Utils;
+import com.payline.payment.paysafecard.utils.BulkheadFullException;
+import com.payline.payment.paysafecard.utils.CircuitBreaker;
+import com.payline.payment.paysafecard.utils.HistogramMetricsRecorder;
+import com.payline.payment.paysafecard.utils.MetricsRecorder;
+import com.payline.payment.paysafecard.utils.MetricsSnapshot;
+import com.payline.payment.paysafecard.utils.PaySafeBulkhead;
+import com.payline.payment.paysafecard.utils.PaySafeCardConstants;
+import com.payline.payment.paysafecard.utils.PaySafeHttpClient;
+import com.payline.payment.paysafecard.utils.PaySafeOperation;
+import com.payline.payment.paysafecard.utils.RateLimitExceededException;
+import com.payline.pmapi.bean.common.Amount;
+import com.payline.pmapi.bean.common.Buyer;
+import com.payline.pmapi.bean.configuration.PartnerConfiguration;
+import com.payline.pmapi.bean.payment.Environment;
+import com.payline.pmapi.bean.refund.request.RefundRequest;
+import org.apache.http.conn.ConnectionPoolTimeoutException;
+import org.junit.AfterClass;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.mockito.Mockito;
+
+import java.math.BigInteger;
+import java.net.SocketTimeoutException;
+import java.util.Currency;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+public class PaySafeSimulatorTest {
+
+    private static PaySafeSimulator simulator;
+    private static PaySafeHttpClient client;
+
+    @BeforeClass
+    public static void beforeClass() throws Exception {
+        simulator = PaySafeSimulator.start();
+        Map<String, String> partnerConfigurationMap = new HashMap<>();
+        partnerConfigurationMap.put(PaySafeHttpClient.URL_OVERRIDE, simulator.getUrl());
+        partnerConfigurationMap.put(PaySafeHttpClient.READ_SOCKET_TIMEOUT, "2000");
+        partnerConfigurationMap.put(PaySafeHttpClient.RETRY_BASE_DELAY, "10");
+        client = PaySafeHttpClient.getInstance(new PartnerConfiguration(partnerConfigurationMap, new HashMap<>()));
+    }
+
+    @AfterClass
+    public static void afterClass() {
+        simulator.close();
+    }
+
+    @Before
+    public void setup() {
+        simulator.reset();
+    }
+
+    @Test
+    public void paymentAndRefund() throws Exception {
+        PaySafePaymentResponse initiated = client.initiate(new PaySafePaymentRequest(Utils.createCompletePaymentBuilder().build()), true);
+        Assert.assertEquals("INITIATED", initiated.getStatus());
+        Assert.assertEquals("0.10", initiated.getAmount());
+        Assert.assertNotNull(initiated.getRedirectURL());
+
+        PaySafeCaptureRequest captureRequest = new PaySafeCaptureRequest(initiated.getId(), Utils.createDefaultContractConfiguration(), null);
+        Assert.assertEquals("INITIATED", client.retrievePaymentData(captureRequest, true).getStatus());
+
+        simulator.authorize(initiated.getId());
+        Assert.assertEquals(PaySafeCardConstants.STATUS_AUTHORIZED, client.retrievePaymentData(captureRequest, true).getStatus());
+
+        PaySafePaymentResponse captured = client.capture(captureRequest, true);
+        Assert.assertEquals(PaySafeCardConstants.STATUS_SUCCESS, captured.getStatus());
+        Assert.assertEquals("1000007704", captured.getFirstCardDetails().getSerial());
+
+        PaySafeRefundRequest refundRequest = new PaySafeRefundRequest(createRefundRequest(initiated.getId()));
+        Assert.assertEquals(PaySafeCardConstants.STATUS_REFUND_SUCCESS, client.refund(refundRequest, true).getStatus());
+        refundRequest.setCapture(true);
+        Assert.assertEquals(PaySafeCardConstants.STATUS_SUCCESS, client.refund(refundRequest, true).getStatus());
+    }
+
+    @Test
+    public void captureNotAuthorizedPayment() throws Exception {
+        PaySafePaymentResponse initiated = client.initiate(new PaySafePaymentRequest(Utils.createCompletePaymentBuilder().build()), true);
+
+        PaySafePaymentResponse response = client.capture(new PaySafeCaptureRequest(initiated.getId(), Utils.createDefaultContractConfiguration(), null), true);
+
+        Assert.assertEquals("payment_invalid_state", response.getCode());
+        Assert.assertEquals("2017", response.getNumber());
+    }
+
+    @Test
+    public void authorizationDelay() throws Exception {
+        simulator.withAuthorizationDelay(0);
+        PaySafePaymentResponse initiated = client.initiate(new PaySafePaymentRequest(Utils.createCompletePaymentBuilder().build()), true);
+
+        PaySafePaymentResponse response = client.retrievePaymentData(new PaySafeCaptureRequest(initiated.getId(), Utils.createDefaultContractConfiguration(), null), true);
+
+        Assert.assertEquals(PaySafeCardConstants.STATUS_AUTHORIZED, response.getStatus());
+    }
+
+    @Test
+    public void injectedError() throws Exception {
+        simulator.withError(PaySafeOperation.INITIATE, PaySafeSimulator.Error.MAX_AMOUNT_EXCEEDED, 1);
+
+        PaySafePaymentResponse response = client.initiate(new PaySafePaymentRequest(Utils.createCompletePaymentBuilder().build()), true);
+
+        Assert.assertEquals("max_amount_exceeded", response.getCode());
+        Assert.assertEquals("4003", response.getNumber());
+    }
+
+    @Test
+    public void retrieveRetriedOnServiceUnavailable() throws Exception {
+        PaySafePaymentResponse initiated = client.initiate(new PaySafePaymentRequest(Utils.createCompletePaymentBuilder().build()), true);
+        simulator.failNext(PaySafeOperation.RETRIEVE, PaySafeSimulator.Error.SERVICE_UNAVAILABLE, 1);
+
+        PaySafePaymentResponse response = client.retrievePaymentData(new PaySafeCaptureRequest(initiated.getId(), Utils.createDefaultContractConfiguration(), null), true);
+
+        Assert.assertEquals("INITIATED", response.getStatus());
+        Assert.assertEquals(2, simulator.getRequestCount(PaySafeOperation.RETRIEVE));
+    }
+
+    @Test
+    public void latency() throws Exception {
+        simulator.withLatency(PaySafeOperation.INITIATE, PaySafeSimulator.Latency.fixed(200));
+
+        long start = System.currentTimeMillis();
+        client.initiate(new PaySafePaymentRequest(Utils.createCompletePaymentBuilder().build()), true);
+
+        Assert.assertTrue(System.currentTimeMillis() - start >= 200);
+    }
+
+    @Test
+    public void metricsRecorded() throws Exception {
+        MetricsRecorder previous = PaySafeHttpClient.getMetricsRecorder();
+        HistogramMetricsRecorder recorder = new HistogramMetricsRecorder();
+        PaySafeHttpClient.setMetricsRecorder(recorder);
+        try {
+            PaySafePaymentResponse initiated = client.initiate(new PaySafePaymentRequest(Utils.createCompletePaymentBuilder().build()), true);
+            simulator.failNext(PaySafeOperation.RETRIEVE, PaySafeSimulator.Error.SERVICE_UNAVAILABLE, 1);
+            client.retrievePaymentDataAsync(new PaySafeCaptureRequest(initiated.getId(), Utils.createDefaultContractConfiguration(), null), true).get();
+        } finally {
+            PaySafeHttpClient.setMetricsRecorder(previous);
+        }
+
+        MetricsSnapshot initiate = recorder.snapshot(PaySafeOperation.INITIATE, true);
+        Assert.assertEquals(1, initiate.getCount());
+        Assert.assertEquals(Long.valueOf(1), initiate.getStatusCodes().get(201));
+        MetricsSnapshot retrieve = recorder.snapshot(PaySafeOperation.RETRIEVE, true);
+        Assert.assertEquals(1, retrieve.getCount());
+        Assert.assertEquals(1, retrieve.getRetries());
+        Assert.assertEquals(Long.valueOf(1), retrieve.getStatusCodes().get(200));
+    }
+
+    private static PaySafeHttpClient createRateLimitedClient(String rate, String burst, String maxWait) {
+        Map<String, String> partnerConfigurationMap = new HashMap<>();
+        partnerConfigurationMap.put(PaySafeHttpClient.URL_OVERRIDE, simulator.getUrl());
+        partnerConfigurationMap.put(PaySafeHttpClient.getRateLimitRateKey(PaySafeOperation.RETRIEVE), rate);
+        partnerConfigurationMap.put(PaySafeHttpClient.getRateLimitBurstKey(PaySafeOperation.RETRIEVE), burst);
+        partnerConfigurationMap.put(PaySafeHttpClient.RATE_LIMIT_MAX_WAIT, maxWait);
+        return PaySafeHttpClient.getInstance(new PartnerConfiguration(partnerConfigurationMap, new HashMap<>()));
+    }
+
+    @Test
+    public void rateLimitFailFast() throws Exception {
+        PaySafeHttpClient limitedClient = createRateLimitedClient("0.1", "2", "0");
+        PaySafePaymentResponse initiated = client.initiate(new PaySafePaymentRequest(Utils.createCompletePaymentBuilder().build()), true);
+        PaySafeCaptureRequest captureRequest = new PaySafeCaptureRequest(initiated.getId(), Utils.createDefaultContractConfiguration(), null);
+        Assert.assertEquals(2, limitedClient.getRateLimiterFill(PaySafeOperation.RETRIEVE, Utils.AUTHORISATION_VAL), 0.01);
+
+        limitedClient.retrievePaymentData(captureRequest, true);
+        limitedClient.retrievePaymentData(captureRequest, true);
+        try {
+            limitedClient.retrievePaymentData(captureRequest, true);
+            Assert.fail("the rate limit must be reached");
+        } catch (RateLimitExceededException e) {
+            Assert.assertEquals(2, simulator.getRequestCount(PaySafeOperation.RETRIEVE));
+        }
+        Assert.assertEquals(1, limitedClient.getRateLimitedCalls());
+        Assert.assertEquals(0, limitedClient.getRateLimiterFill(PaySafeOperation.RETRIEVE, Utils.AUTHORISATION_VAL), 0.01);
+
+        // the other API keys and operations are not limited
+        PaySafeCaptureRequest otherKeyRequest = new PaySafeCaptureRequest(initiated.getId(), Utils.createContractConfiguration("", "", "", "other_key"), null);
+        Assert.assertEquals("INITIATED", limitedClient.retrievePaymentData(otherKeyRequest, true).getStatus());
+        Assert.assertEquals(Double.POSITIVE_INFINITY, limitedClient.getRateLimiterFill(PaySafeOperation.CAPTURE, Utils.AUTHORISATION_VAL), 0);
+        Assert.assertEquals(2, limitedClient.getRateLimiterFill(PaySafeOperation.RETRIEVE, "unused_key"), 0);
+    }
+
+    @Test
+    public void rateLimitFailFastAsync() throws Exception {
+        PaySafeHttpClient limitedClient = createRateLimitedClient("0.1", "1", "0");
+        PaySafePaymentResponse initiated = client.initiate(new PaySafePaymentRequest(Utils.createCompletePaymentBuilder().build()), true);
+        PaySafeCaptureRequest captureRequest = new PaySafeCaptureRequest(initiated.getId(), Utils.createDefaultContractConfiguration(), null);
+
+        limitedClient.retrievePaymentDataAsync(captureRequest, true).get();
+        try {
+            limitedClient.retrievePaymentDataAsync(captureRequest, true).get();
+            Assert.fail("the rate limit must be reached");
+        } catch (ExecutionException e) {
+            Assert.assertTrue(e.getCause() instanceof RateLimitExceededException);
+        }
+        Assert.assertEquals(1, simulator.getRequestCount(PaySafeOperation.RETRIEVE));
+    }
+
+    @Test
+    public void rateLimitWaitsForToken() throws Exception {
+        PaySafeHttpClient limitedClient = createRateLimitedClient("20", "1", "1000");
+        PaySafePaymentResponse initiated = client.initiate(new PaySafePaymentRequest(Utils.createCompletePaymentBuilder().build()), true);
+        PaySafeCaptureRequest captureRequest = new PaySafeCaptureRequest(initiated.getId(), Utils.createDefaultContractConfiguration(), null);
+
+        long start = System.currentTimeMillis();
+        CompletableFuture<PaySafePaymentResponse> first = limitedClient.retrievePaymentDataAsync(captureRequest, true);
+        CompletableFuture<PaySafePaymentResponse> second = limitedClient.retrievePaymentDataAsync(captureRequest, true);
+        limitedClient.retrievePaymentData(captureRequest, true);
+        Assert.assertEquals("INITIATED", first.get().getStatus());
+        Assert.assertEquals("INITIATED", second.get().getStatus());
+
+        // one token every 50ms
+        Assert.assertTrue(System.currentTimeMillis() - start >= 100);
+        Assert.assertEquals(3, simulator.getRequestCount(PaySafeOperation.RETRIEVE));
+        Assert.assertEquals(0, limitedClient.getRateLimitedCalls());
+    }
+
+    @Test
+    public void sandboxCallsDoNotTakeProductionSlots() throws Exception {
+        Map<String, String> partnerConfigurationMap = new HashMap<>();
+        partnerConfigurationMap.put(PaySafeHttpClient.URL_OVERRIDE, simulator.getUrl());
+        partnerConfigurationMap.put(PaySafeHttpClient.SANDBOX_PREFIX + PaySafeHttpClient.MAX_CONCURRENT_CALLS, "1");
+        partnerConfigurationMap.put(PaySafeHttpClient.PRODUCTION_PREFIX + PaySafeHttpClient.MAX_CONCURRENT_CALLS, "5");
+        PaySafeHttpClient isolatedClient = PaySafeHttpClient.getInstance(new PartnerConfiguration(partnerConfigurationMap, new HashMap<>()));
+        PaySafePaymentResponse initiated = client.initiate(new PaySafePaymentRequest(Utils.createCompletePaymentBuilder().build()), true);
+        PaySafeCaptureRequest captureRequest = new PaySafeCaptureRequest(initiated.getId(), Utils.createDefaultContractConfiguration(), null);
+        simulator.withLatency(PaySafeOperation.RETRIEVE, PaySafeSimulator.Latency.fixed(200));
+
+        CompletableFuture<PaySafePaymentResponse> inFlight = isolatedClient.retrievePaymentDataAsync(captureRequest, true);
+        try {
+            isolatedClient.retrievePaymentDataAsync(captureRequest, true).get();
+            Assert.fail("the sandbox concurrent calls limit must be reached");
+        } catch (ExecutionException e) {
+            Assert.assertTrue(e.getCause() instanceof BulkheadFullException);
+        }
+        // the production slots are untouched
+        Assert.assertEquals(5, isolatedClient.getBulkhead(false).getAvailableCalls());
+        Assert.assertEquals("INITIATED", inFlight.get().getStatus());
+
+        Assert.assertEquals(1, isolatedClient.getBulkhead(true).getRejectedCalls());
+        Assert.assertEquals(1, isolatedClient.getBulkhead(true).getAvailableCalls());
+        Assert.assertEquals(0, isolatedClient.getBulkhead(false).getRejectedCalls());
+    }
+
+    private static PaySafeHttpClient createClient(int retryMaxDelay) {
+        Map<String, String> partnerConfigurationMap = new HashMap<>();
+        partnerConfigurationMap.put(PaySafeHttpClient.URL_OVERRIDE, simulator.getUrl());
+        partnerConfigurationMap.put(PaySafeHttpClient.RETRY_MAX_DELAY, String.valueOf(retryMaxDelay));
+        return PaySafeHttpClient.getInstance(new PartnerConfiguration(partnerConfigurationMap, new HashMap<>()));
+    }
+
+    // more clients than the instances bound, the older ones are removed
+    private static void createClients() {
+        for (int i = 0; i < 101; i++) {
+            createClient(100000 + i);
+        }
+    }
+
+    private static boolean awaitClosed(PaySafeHttpClient closedClient) throws InterruptedException {
+        long end = System.currentTimeMillis() + 2000;
+        while (!closedClient.isClosed() && System.currentTimeMillis() < end) {
+            Thread.sleep(10);
+        }
+        return closedClient.isClosed();
+    }
+
+    @Test
+    public void removedClientClosed() throws Exception {
+        PaySafeHttpClient removedClient = createClient(99999);
+        Assert.assertEquals("INITIATED", removedClient.initiate(new PaySafePaymentRequest(Utils.createCompletePaymentBuilder().build()), true).getStatus());
+
+        createClients();
+
+        Assert.assertTrue(awaitClosed(removedClient));
+        Assert.assertNotSame(removedClient, createClient(99999));
+        // a client kept by its caller still works, its pools are opened again then closed after the call
+        Assert.assertEquals("INITIATED", removedClient.initiate(new PaySafePaymentRequest(Utils.createCompletePaymentBuilder().build()), true).getStatus());
+        Assert.assertTrue(awaitClosed(removedClient));
+    }
+
+    @Test
+    public void removedClientClosedAfterItsCalls() throws Exception {
+        PaySafeHttpClient removedClient = createClient(99998);
+        PaySafePaymentResponse initiated = client.initiate(new PaySafePaymentRequest(Utils.createCompletePaymentBuilder().build()), true);
+        PaySafeCaptureRequest captureRequest = new PaySafeCaptureRequest(initiated.getId(), Utils.createDefaultContractConfiguration(), null);
+        simulator.withLatency(PaySafeOperation.RETRIEVE, PaySafeSimulator.Latency.fixed(300));
+
+        CompletableFuture<PaySafePaymentResponse> inFlight = removedClient.retrievePaymentDataAsync(captureRequest, true);
+        createClients();
+        Thread.sleep(50);
+
+        Assert.assertFalse(removedClient.isClosed());
+        Assert.assertEquals("INITIATED", inFlight.get().getStatus());
+        Assert.assertTrue(awaitClosed(removedClient));
+    }
+
+    @Test
+    public void retrieveDeadline() throws Exception {
+        Map<String, String> partnerConfigurationMap = new HashMap<>();
+        partnerConfigurationMap.put(PaySafeHttpClient.URL_OVERRIDE, simulator.getUrl());
+        partnerConfigurationMap.put(PaySafeHttpClient.getOperationKey(PaySafeOperation.RETRIEVE, PaySafeHttpClient.DEADLINE), "300");
+        PaySafeHttpClient deadlineClient = PaySafeHttpClient.getInstance(new PartnerConfiguration(partnerConfigurationMap, new HashMap<>()));
+        PaySafePaymentResponse initiated = deadlineClient.initiate(new PaySafePaymentRequest(Utils.createCompletePaymentBuilder().build()), true);
+        PaySafeCaptureRequest captureRequest = new PaySafeCaptureRequest(initiated.getId(), Utils.createDefaultContractConfiguration(), null);
+        simulator.withLatency(PaySafeOperation.RETRIEVE, PaySafeSimulator.Latency.fixed(2000));
+
+        // the read timeout is shortened to the deadline, and there is no time left to retry
+        long start = System.currentTimeMillis();
+        try {
+            deadlineClient.retrievePaymentData(captureRequest, true);
+            Assert.fail("the deadline must be reached");
+        } catch (SocketTimeoutException e) {
+            Assert.assertTrue(System.currentTimeMillis() - start < 1000);
+        }
+        start = System.currentTimeMillis();
+        try {
+            deadlineClient.retrievePaymentDataAsync(captureRequest, true).get();
+            Assert.fail("the deadline must be reached");
+        } catch (ExecutionException e) {
+            Assert.assertTrue(e.getCause() instanceof SocketTimeoutException);
+            Assert.assertTrue(System.currentTimeMillis() - start < 1000);
+        }
+        Assert.assertEquals(2, simulator.getRequestCount(PaySafeOperation.RETRIEVE));
+    }
+
+    @Test
+    public void delayedAttemptFailureCompletesTheCall() throws Exception {
+        PaySafePaymentResponse initiated = client.initiate(new PaySafePaymentRequest(Utils.createCompletePaymentBuilder().build()), true);
+        PaySafeCaptureRequest captureRequest = new PaySafeCaptureRequest(initiated.getId(), Utils.createDefaultContractConfiguration(), null);
+        // the retry of the 503 fails on an unexpected exception
+        PaySafeHttpClient failingClient = Mockito.spy(client);
+        PaySafeBulkhead bulkhead = Mockito.spy(client.getBulkhead(true));
+        Mockito.doReturn(bulkhead).when(failingClient).getBulkhead(true);
+        Mockito.doCallRealMethod().doThrow(new IllegalStateException("stopped")).when(bulkhead).getRequestConfig(Mockito.any(PaySafeOperation.class), Mockito.anyLong());
+        simulator.failNext(PaySafeOperation.RETRIEVE, PaySafeSimulator.Error.SERVICE_UNAVAILABLE, 1);
+
+        try {
+            failingClient.retrievePaymentDataAsync(captureRequest, true).get(5, TimeUnit.SECONDS);
+            Assert.fail("the retry must fail");
+        } catch (ExecutionException e) {
+            Assert.assertTrue(String.valueOf(e.getCause()), e.getCause() instanceof IllegalStateException);
+        }
+        Assert.assertEquals(1, simulator.getRequestCount(PaySafeOperation.RETRIEVE));
+    }
+
+    private static PaySafeHttpClient createSingleConnectionClient(String maxAttempts) {
+        Map<String, String> partnerConfigurationMap = new HashMap<>();
+        partnerConfigurationMap.put(PaySafeHttpClient.URL_OVERRIDE, simulator.getUrl());
+        partnerConfigurationMap.put(PaySafeHttpClient.MAX_CONNECTIONS_PER_ROUTE, "1");
+        partnerConfigurationMap.put(PaySafeHttpClient.MAX_CONCURRENT_CALLS, "10");
+        partnerConfigurationMap.put(PaySafeHttpClient.CONNECTION_REQUEST_TIMEOUT, "100");
+        partnerConfigurationMap.put(PaySafeHttpClient.RETRY_MAX_ATTEMPTS, maxAttempts);
+        partnerConfigurationMap.put(PaySafeHttpClient.RETRY_BASE_DELAY, "50");
+        return PaySafeHttpClient.getInstance(new PartnerConfiguration(partnerConfigurationMap, new HashMap<>()));
+    }
+
+    @Test
+    public void poolExhaustedAsync() throws Exception {
+        PaySafeHttpClient singleConnectionClient = createSingleConnectionClient("1");
+        PaySafePaymentResponse initiated = client.initiate(new PaySafePaymentRequest(Utils.createCompletePaymentBuilder().build()), true);
+        PaySafeCaptureRequest captureRequest = new PaySafeCaptureRequest(initiated.getId(), Utils.createDefaultContractConfiguration(), null);
+        simulator.withLatency(PaySafeOperation.RETRIEVE, PaySafeSimulator.Latency.fixed(500));
+
+        CompletableFuture<PaySafePaymentResponse> inFlight = singleConnectionClient.retrievePaymentDataAsync(captureRequest, true);
+        try {
+            singleConnectionClient.retrievePaymentDataAsync(captureRequest, true).get();
+            Assert.fail("no connection must be leased");
+        } catch (ExecutionException e) {
+            Assert.assertTrue(String.valueOf(e.getCause()), e.getCause() instanceof ConnectionPoolTimeoutException);
+        }
+        Assert.assertEquals("INITIATED", inFlight.get().getStatus());
+    }
+
+    @Test
+    public void poolExhaustedAsyncRetried() throws Exception {
+        PaySafeHttpClient singleConnectionClient = createSingleConnectionClient("10");
+        PaySafePaymentResponse initiated = client.initiate(new PaySafePaymentRequest(Utils.createCompletePaymentBuilder().build()), true);
+        PaySafeCaptureRequest captureRequest = new PaySafeCaptureRequest(initiated.getId(), Utils.createDefaultContractConfiguration(), null);
+        simulator.withLatency(PaySafeOperation.RETRIEVE, PaySafeSimulator.Latency.fixed(200));
+
+        CompletableFuture<PaySafePaymentResponse> inFlight = singleConnectionClient.retrievePaymentDataAsync(captureRequest, true);
+        CompletableFuture<PaySafePaymentResponse> waiting = singleConnectionClient.retrievePaymentDataAsync(captureRequest, true);
+
+        Assert.assertEquals("INITIATED", inFlight.get().getStatus());
+        Assert.assertEquals("INITIATED", waiting.get().getStatus());
+        Assert.assertEquals(2, simulator.getRequestCount(PaySafeOperation.RETRIEVE));
+    }
+
+    private static PaySafeHttpClient createCircuitBreakerClient(String openDuration) {
+        Map<String, String> partnerConfigurationMap = new HashMap<>();
+        partnerConfigurationMap.put(PaySafeHttpClient.URL_OVERRIDE, simulator.getUrl());
+        partnerConfigurationMap.put(PaySafeHttpClient.CIRCUIT_BREAKER_WINDOW_SIZE, "1");
+        partnerConfigurationMap.put(PaySafeHttpClient.CIRCUIT_BREAKER_MINIMUM_CALLS, "1");
+        partnerConfigurationMap.put(PaySafeHttpClient.CIRCUIT_BREAKER_HALF_OPEN_CALLS, "1");
+        partnerConfigurationMap.put(PaySafeHttpClient.CIRCUIT_BREAKER_OPEN_DURATION, openDuration);
+        return PaySafeHttpClient.getInstance(new PartnerConfiguration(partnerConfigurationMap, new HashMap<>()));
+    }
+
+    @Test
+    public void halfOpenCircuitBreakerReceivesHtmlErrorPage() throws Exception {
+        PaySafeHttpClient breakerClient = createCircuitBreakerClient("50");
+        PaySafePaymentRequest request = new PaySafePaymentRequest(Utils.createCompletePaymentBuilder().build());
+        simulator.failNext(PaySafeOperation.INITIATE, PaySafeSimulator.Error.SERVICE_UNAVAILABLE, 1);
+        breakerClient.initiate(request, true);
+        CircuitBreaker circuitBreaker = breakerClient.getCircuitBreakers().iterator().next();
+        Assert.assertEquals(CircuitBreaker.State.OPEN, circuitBreaker.getState());
+
+        // the probe gets an unreadable body: it is a failure, the breaker opens again
+        Thread.sleep(100);
+        simulator.failNext(PaySafeOperation.INITIATE, PaySafeSimulator.Error.SERVICE_UNAVAILABLE_HTML, 1);
+        try {
+            breakerClient.initiate(request, true);
+            Assert.fail("the body is not JSON");
+        } catch (JsonSyntaxException e) {
+            Assert.assertEquals(CircuitBreaker.State.OPEN, circuitBreaker.getState());
+        }
+
+        // and probes again once the open duration is elapsed
+        Thread.sleep(100);
+        Assert.assertEquals("INITIATED", breakerClient.initiate(request, true).getStatus());
+        Assert.assertEquals(CircuitBreaker.State.CLOSED, circuitBreaker.getState());
+    }
+
+    @Test
+    public void halfOpenCircuitBreakerReceivesHtmlErrorPageAsync() throws Exception {
+        PaySafeHttpClient breakerClient = createCircuitBreakerClient("60");
+        PaySafePaymentRequest request = new PaySafePaymentRequest(Utils.createCompletePaymentBuilder().build());
+        simulator.failNext(PaySafeOperation.INITIATE, PaySafeSimulator.Error.SERVICE_UNAVAILABLE, 1);
+        breakerClient.initiateAsync(request, true).get();
+        CircuitBreaker circuitBreaker = breakerClient.getCircuitBreakers().iterator().next();
+        Assert.assertEquals(CircuitBreaker.State.OPEN, circuitBreaker.getState());
+
+        Thread.sleep(100);
+        simulator.failNext(PaySafeOperation.INITIATE, PaySafeSimulator.Error.SERVICE_UNAVAILABLE_HTML, 1);
+        try {
+            breakerClient.initiateAsync(request, true).get();
+            Assert.fail("the body is not JSON");
+        } catch (ExecutionException e) {
+            Assert.assertTrue(e.getCause() instanceof JsonSyntaxException);
+            Assert.assertEquals(CircuitBreaker.State.OPEN, circuitBreaker.getState());
+        }
+
+        Thread.sleep(100);
+        Assert.assertEquals("INITIATED", breakerClient.initiateAsync(request, true).get().getStatus());
+        Assert.assertEquals(CircuitBreaker.State.CLOSED, circuitBreaker.getState());
+    }
+
+    private static RefundRequest createRefundRequest(String paymentId) {
+        RefundRequest refundRequest = Mockito.mock(RefundRequest.class);
+        Buyer buyer = Mockito.mock(Buyer.class);
+        Mockito.when(buyer.getCustomerIdentifier()).thenReturn(Utils.CUSTOMER_ID);
+        Mockito.when(buyer.getEmail()).thenReturn(Utils.CUSTOMER_MAIL);
+        Mockito.when(refundRequest.getBuyer()).thenReturn(buyer);
+        Mockito.when(refundRequest.getAmount()).thenReturn(new Amount(BigInteger.TEN, Currency.getInstance("EUR")));
+        Mockito.when(refundRequest.getEnvironment()).thenReturn(new Environment(Utils.NOTIFICATION_URL, Utils.SUCCESS_URL, Utils.FAILURE_URL, true));
+        Mockito.when(refundRequest.getContractConfiguration()).thenReturn(Utils.createDefaultContractConfiguration());
+        Mockito.when(refundRequest.getPartnerTransactionId()).thenReturn(paymentId);
+        return refundRequest;
+    }
+}
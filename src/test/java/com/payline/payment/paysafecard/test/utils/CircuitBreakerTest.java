@@ -0,0 +1,105 @@
+package com.payline.payment.paysafecard.test.utils;
+
+import com.payline.payment.paysafecard.utils.CircuitBreaker;
+import com.payline.payment.paysafecard.utils.CircuitBreakerOpenException;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class CircuitBreakerTest {
+
+    private CircuitBreaker circuitBreaker = CircuitBreaker.CircuitBreakerBuilder.aCircuitBreaker()
+            .withName("test")
+            .withFailureRateThreshold(50)
+            .withSlowCallRateThreshold(100)
+            .withSlowCallDuration(1000)
+            .withWindowSize(4)
+            .withMinimumNumberOfCalls(4)
+            .withOpenDuration(50)
+            .withPermittedCallsInHalfOpenState(2)
+            .build();
+
+    private void call(boolean failed) throws CircuitBreakerOpenException {
+        circuitBreaker.acquirePermission();
+        circuitBreaker.onResult(10, failed);
+    }
+
+    @Test
+    public void staysClosedBelowThreshold() throws CircuitBreakerOpenException {
+        call(true);
+        call(false);
+        call(false);
+        call(false);
+        call(false);
+        Assert.assertEquals(CircuitBreaker.State.CLOSED, circuitBreaker.getState());
+        Assert.assertEquals(1, circuitBreaker.getFailedCalls());
+        Assert.assertEquals(4, circuitBreaker.getSuccessfulCalls());
+    }
+
+    @Test
+    public void opensOnFailureRate() throws CircuitBreakerOpenException {
+        call(false);
+        call(true);
+        call(false);
+        call(true);
+        Assert.assertEquals(CircuitBreaker.State.OPEN, circuitBreaker.getState());
+        try {
+            call(false);
+            Assert.fail("the call should not be permitted");
+        } catch (CircuitBreakerOpenException e) {
+            Assert.assertEquals(1, circuitBreaker.getNotPermittedCalls());
+        }
+    }
+
+    @Test
+    public void opensOnSlowCallRate() throws CircuitBreakerOpenException {
+        for (int i = 0; i < 4; i++) {
+            circuitBreaker.acquirePermission();
+            circuitBreaker.onResult(1000, false);
+        }
+        Assert.assertEquals(CircuitBreaker.State.OPEN, circuitBreaker.getState());
+        Assert.assertEquals(4, circuitBreaker.getSlowCalls());
+    }
+
+    @Test
+    public void closesAfterSuccessfulProbes() throws Exception {
+        for (int i = 0; i < 4; i++) {
+            call(true);
+        }
+        Thread.sleep(60);
+        call(false);
+        Assert.assertEquals(CircuitBreaker.State.HALF_OPEN, circuitBreaker.getState());
+        call(false);
+        Assert.assertEquals(CircuitBreaker.State.CLOSED, circuitBreaker.getState());
+        Assert.assertEquals(3, circuitBreaker.getStateTransitions());
+    }
+
+    @Test
+    public void opensAgainAfterFailedProbe() throws Exception {
+        for (int i = 0; i < 4; i++) {
+            call(true);
+        }
+        Thread.sleep(60);
+        call(true);
+        Assert.assertEquals(CircuitBreaker.State.OPEN, circuitBreaker.getState());
+    }
+
+    @Test
+    public void releasedProbeCanBeRetried() throws Exception {
+        for (int i = 0; i < 4; i++) {
+            call(true);
+        }
+        Thread.sleep(60);
+        circuitBreaker.acquirePermission();
+        circuitBreaker.acquirePermission();
+        circuitBreaker.releasePermission();
+        circuitBreaker.releasePermission();
+        call(false);
+        call(false);
+        Assert.assertEquals(CircuitBreaker.State.CLOSED, circuitBreaker.getState());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void buildWithWrongThreshold() {
+        CircuitBreaker.CircuitBreakerBuilder.aCircuitBreaker().withFailureRateThreshold(0).build();
+    }
+}
@@ -0,0 +1,67 @@
+package com.payline.payment.paysafecard.test.utils;
+
+import com.payline.payment.paysafecard.utils.BadFieldException;
+import com.payline.payment.paysafecard.utils.DataChecker;
+import com.payline.payment.paysafecard.utils.PaySafeCardConstants;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.Locale;
+
+public class DataCheckerTest {
+
+    @Test
+    public void isISO3166() {
+        for (String country : Locale.getISOCountries()) {
+            Assert.assertTrue(country, DataChecker.isISO3166(country));
+        }
+        Assert.assertFalse(DataChecker.isISO3166("ZZ"));
+        Assert.assertFalse(DataChecker.isISO3166("fr"));
+        Assert.assertFalse(DataChecker.isISO3166("FRA"));
+        Assert.assertFalse(DataChecker.isISO3166("F"));
+        Assert.assertFalse(DataChecker.isISO3166("F1"));
+        Assert.assertFalse(DataChecker.isISO3166(null));
+    }
+
+    @Test
+    public void verifyCountryRestriction() throws BadFieldException {
+        DataChecker.verifyCountryRestriction(null);
+        DataChecker.verifyCountryRestriction("");
+        DataChecker.verifyCountryRestriction("FR");
+        DataChecker.verifyCountryRestriction("fr");
+        DataChecker.verifyCountryRestriction("FR,DE");
+        DataChecker.verifyCountryRestriction(" fr , De,BE ");
+    }
+
+    @Test
+    public void normalizeCountryRestriction() {
+        Assert.assertNull(DataChecker.normalizeCountryRestriction(null));
+        Assert.assertEquals("", DataChecker.normalizeCountryRestriction(""));
+        Assert.assertEquals("FR", DataChecker.normalizeCountryRestriction("fr"));
+        Assert.assertEquals("FR,DE,BE", DataChecker.normalizeCountryRestriction(" fr , De,BE "));
+    }
+
+    @Test
+    public void verifyCountryRestrictionInvalid() {
+        for (String countryRestriction : new String[]{"ZZ", "FRA", "F", " ", "FR,", ",FR", "FR,,DE", "FR;DE", "FR,ZZ", "F R", "\u00c9T"}) {
+            try {
+                DataChecker.verifyCountryRestriction(countryRestriction);
+                Assert.fail(countryRestriction);
+            } catch (BadFieldException e) {
+                Assert.assertEquals(PaySafeCardConstants.COUNTRYRESTRICTION_KEY, e.getField());
+                Assert.assertEquals("contract.errors.countryNotISO", e.getMessage());
+            }
+        }
+    }
+
+    @Test
+    public void verifyMinAge() throws BadFieldException {
+        DataChecker.verifyMinAge(null);
+        DataChecker.verifyMinAge("18");
+    }
+
+    @Test(expected = BadFieldException.class)
+    public void verifyMinAgeWrongRange() throws BadFieldException {
+        DataChecker.verifyMinAge("100");
+    }
+}
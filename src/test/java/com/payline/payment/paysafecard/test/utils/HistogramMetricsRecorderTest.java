@@ -0,0 +1,68 @@
+package com.payline.payment.paysafecard.test.utils;
+
+import com.payline.payment.paysafecard.utils.HistogramMetricsRecorder;
+import com.payline.payment.paysafecard.utils.MetricsSnapshot;
+import com.payline.payment.paysafecard.utils.PaySafeOperation;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.net.SocketTimeoutException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+public class HistogramMetricsRecorderTest {
+
+    private HistogramMetricsRecorder recorder = new HistogramMetricsRecorder();
+
+    @Test
+    public void recordLatencies() {
+        for (int i = 1; i <= 100; i++) {
+            recorder.record(PaySafeOperation.INITIATE, true, TimeUnit.MILLISECONDS.toNanos(i), 201, 0, null);
+        }
+
+        MetricsSnapshot snapshot = recorder.snapshot(PaySafeOperation.INITIATE, true);
+
+        Assert.assertEquals(100, snapshot.getCount());
+        Assert.assertEquals("sandbox", snapshot.getEnvironment());
+        Assert.assertEquals(50000, snapshot.getLatencyAtPercentile(50), 50);
+        Assert.assertEquals(99000, snapshot.getLatencyAtPercentile(99), 99);
+        Assert.assertEquals(100000, snapshot.getMaxLatency(), 100);
+        Assert.assertEquals(Long.valueOf(100), snapshot.getStatusCodes().get(201));
+        Assert.assertEquals(0, recorder.snapshot(PaySafeOperation.INITIATE, false).getCount());
+    }
+
+    @Test
+    public void recordRetriesAndExceptions() {
+        recorder.record(PaySafeOperation.RETRIEVE, false, 1000, 503, 2, null);
+        recorder.record(PaySafeOperation.RETRIEVE, false, 1000, 0, 1, SocketTimeoutException.class);
+
+        MetricsSnapshot snapshot = recorder.snapshot(PaySafeOperation.RETRIEVE, false);
+
+        Assert.assertEquals(3, snapshot.getRetries());
+        Assert.assertEquals(Long.valueOf(1), snapshot.getStatusCodes().get(503));
+        Assert.assertEquals(Long.valueOf(1), snapshot.getStatusCodes().get(0));
+        Assert.assertEquals(Long.valueOf(1), snapshot.getExceptions().get(SocketTimeoutException.class.getName()));
+    }
+
+    @Test
+    public void snapshotsAreCumulative() {
+        recorder.record(PaySafeOperation.CAPTURE, false, 1000, 200, 0, null);
+        MetricsSnapshot first = recorder.snapshot(PaySafeOperation.CAPTURE, false);
+        recorder.record(PaySafeOperation.CAPTURE, false, 1000, 200, 0, null);
+        MetricsSnapshot second = recorder.snapshot(PaySafeOperation.CAPTURE, false);
+
+        Assert.assertEquals(1, first.getCount());
+        Assert.assertEquals(2, second.getCount());
+    }
+
+    @Test
+    public void snapshotOnlyUsedOperations() {
+        recorder.record(PaySafeOperation.REFUND, false, 1000, 201, 0, null);
+
+        List<MetricsSnapshot> snapshots = recorder.snapshot();
+
+        Assert.assertEquals(1, snapshots.size());
+        Assert.assertEquals(PaySafeOperation.REFUND, snapshots.get(0).getOperation());
+        Assert.assertFalse(snapshots.get(0).isSandbox());
+    }
+}
@@ -0,0 +1,37 @@
+package com.payline.payment.paysafecard.test.utils;
+
+import com.payline.payment.paysafecard.utils.JsonBodyWriter;
+import org.apache.http.util.EntityUtils;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+
+public class JsonBodyWriterTest {
+
+    @Test
+    public void encodeUtf8() throws IOException {
+        // ascii, 2 bytes, 3 bytes and surrogate pair characters
+        String value = "{\"id\":\"a\u00e9\u20ac\uD83D\uDE00\"}";
+        JsonBodyWriter writer = new JsonBodyWriter(4);
+        writer.write(value, 0, 8);
+        writer.write(value.toCharArray(), 8, value.length() - 9);
+        writer.write('}');
+        writer.close();
+
+        byte[] expected = value.getBytes(StandardCharsets.UTF_8);
+        Assert.assertEquals(expected.length, writer.size());
+        Assert.assertArrayEquals(expected, EntityUtils.toByteArray(writer.toEntity()));
+    }
+
+    @Test
+    public void replaceUnpairedSurrogate() throws IOException {
+        JsonBodyWriter writer = new JsonBodyWriter();
+        writer.write("a\uD83Db\uDE00");
+        writer.write("\uD83D");
+        writer.close();
+
+        Assert.assertEquals("a?b??", EntityUtils.toString(writer.toEntity(), StandardCharsets.UTF_8));
+    }
+}
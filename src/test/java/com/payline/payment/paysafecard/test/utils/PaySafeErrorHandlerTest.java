@@ -1,9 +1,16 @@
 package com.payline.payment.paysafecard.test.utils;
 
+import com.payline.payment.paysafecard.utils.BulkheadFullException;
+import com.payline.payment.paysafecard.utils.CircuitBreakerOpenException;
+import com.payline.payment.paysafecard.utils.DeadlineExceededException;
 import com.payline.payment.paysafecard.utils.PaySafeErrorHandler;
+import com.payline.payment.paysafecard.utils.RateLimitExceededException;
+import com.payline.pmapi.bean.common.FailureCause;
 import org.junit.Test;
 import org.junit.jupiter.api.Assertions;
 
+import java.io.IOException;
+
 public class PaySafeErrorHandlerTest {
 
     @Test
@@ -19,4 +26,19 @@ public class PaySafeErrorHandlerTest {
         Assertions.assertTrue(s3.length() <= length);
         Assertions.assertTrue(s4.length() <= length);
     }
+
+    @Test
+    public void getFailureCause(){
+        Assertions.assertEquals(FailureCause.COMMUNICATION_ERROR, PaySafeErrorHandler.getFailureCause(new RateLimitExceededException("rate"), FailureCause.CANCEL));
+        Assertions.assertEquals(FailureCause.COMMUNICATION_ERROR, PaySafeErrorHandler.getFailureCause(new CircuitBreakerOpenException("open"), FailureCause.CANCEL));
+        Assertions.assertEquals(FailureCause.COMMUNICATION_ERROR, PaySafeErrorHandler.getFailureCause(new BulkheadFullException("full"), FailureCause.CANCEL));
+        Assertions.assertEquals(FailureCause.COMMUNICATION_ERROR, PaySafeErrorHandler.getFailureCause(new DeadlineExceededException("deadline"), FailureCause.CANCEL));
+        Assertions.assertEquals(FailureCause.CANCEL, PaySafeErrorHandler.getFailureCause(new IOException(), FailureCause.CANCEL));
+    }
+
+    @Test
+    public void getErrorCode(){
+        Assertions.assertEquals(PaySafeErrorHandler.RATE_LIMITED, PaySafeErrorHandler.getErrorCode(new RateLimitExceededException("rate"), "default"));
+        Assertions.assertEquals("default", PaySafeErrorHandler.getErrorCode(new BulkheadFullException("full"), "default"));
+    }
 }
@@ -0,0 +1,39 @@
+package com.payline.payment.paysafecard.test.utils;
+
+import com.payline.payment.paysafecard.utils.PaySafeHeaders;
+import org.apache.http.Header;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class PaySafeHeadersTest {
+
+    @Test
+    public void getHeaders() {
+        Header[] headers = PaySafeHeaders.get("hello world");
+        Assert.assertEquals(2, headers.length);
+        Assert.assertEquals("Content-Type", headers[0].getName());
+        Assert.assertEquals("application/json", headers[0].getValue());
+        Assert.assertEquals("Authorization", headers[1].getName());
+        Assert.assertEquals("Basic aGVsbG8gd29ybGQ=", headers[1].getValue());
+    }
+
+    @Test
+    public void getHeadersShared() {
+        Assert.assertSame(PaySafeHeaders.get("key1")[1], PaySafeHeaders.get("key1")[1]);
+        Assert.assertNotSame(PaySafeHeaders.get("key1")[1], PaySafeHeaders.get("key2")[1]);
+        Assert.assertSame(PaySafeHeaders.get("key1")[0], PaySafeHeaders.get("key2")[0]);
+    }
+
+    @Test
+    public void getHeadersCopied() {
+        Header[] headers = PaySafeHeaders.get("key1");
+        headers[1] = null;
+        Assert.assertEquals("Authorization", PaySafeHeaders.get("key1")[1].getName());
+    }
+
+    @Test
+    public void encodeUtf8() {
+        Assert.assertEquals("w6k=", PaySafeHeaders.encodeToBase64("\u00e9"));
+        Assert.assertEquals("", PaySafeHeaders.encodeToBase64(null));
+    }
+}
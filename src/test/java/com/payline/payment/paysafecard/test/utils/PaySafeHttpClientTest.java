@@ -1,6 +1,8 @@
 package com.payline.payment.paysafecard.test.utils;
 
+import com.payline.payment.paysafecard.utils.PaySafeBulkhead;
 import com.payline.payment.paysafecard.utils.PaySafeHttpClient;
+import com.payline.payment.paysafecard.utils.PaySafeOperation;
 import com.payline.pmapi.bean.configuration.PartnerConfiguration;
 import org.apache.logging.log4j.Level;
 import org.apache.logging.log4j.LogManager;
@@ -53,12 +55,101 @@ public class PaySafeHttpClientTest {
     }
 
     @Test
-    public void createUrl(){
+    public void getEndpoints(){
         client = PaySafeHttpClient.getInstance(new PartnerConfiguration(partnerConfigurationMap, new HashMap<>()));
-        String path1 = "foo";
-        String path2 = "bar";
-        Assert.assertEquals("/foo/bar/", client.createPath( path1, path2));
-        Assert.assertEquals("/", client.createPath());
+        Assert.assertEquals("https://apitest.paysafecard.com/v1/payments/", client.getEndpoints(true).payments().toString());
+        Assert.assertEquals("https://api.paysafecard.com/v1/payments/pay_1/", client.getEndpoints(false).payment("pay_1").toString());
+        Assert.assertEquals("https://apitest.paysafecard.com/v1/payments/pay_1/capture/", client.getEndpoints(true).capture("pay_1").toString());
+        Assert.assertEquals("https://apitest.paysafecard.com/v1/payments/pay_1/refunds/", client.getEndpoints(true).refunds("pay_1").toString());
+        Assert.assertEquals("/v1/payments/a%20b%2Fc/", client.getEndpoints(true).payment("a b/c").getRawPath());
+    }
+
+    @Test
+    public void getEndpointsUrlOverride(){
+        Map<String, String> otherConfigurationMap = new HashMap<>(partnerConfigurationMap);
+        otherConfigurationMap.put(PaySafeHttpClient.URL_OVERRIDE, "http://localhost:8080");
+        client = PaySafeHttpClient.getInstance(new PartnerConfiguration(otherConfigurationMap, new HashMap<>()));
+        Assert.assertEquals("http://localhost:8080/v1/payments/pay_1/", client.getEndpoints(true).payment("pay_1").toString());
+        // the production calls ignore the override
+        Assert.assertEquals("https://api.paysafecard.com/v1/payments/", client.getEndpoints(false).payments().toString());
+    }
+
+    @Test
+    public void getInstanceSameConfiguration(){
+        PaySafeHttpClient client1 = PaySafeHttpClient.getInstance(new PartnerConfiguration(partnerConfigurationMap, new HashMap<>()));
+        PaySafeHttpClient client2 = PaySafeHttpClient.getInstance(new PartnerConfiguration(new HashMap<>(partnerConfigurationMap), new HashMap<>()));
+        Assert.assertSame(client1, client2);
+    }
+
+    @Test
+    public void getInstanceOtherConfiguration(){
+        Map<String, String> otherConfigurationMap = new HashMap<>(partnerConfigurationMap);
+        otherConfigurationMap.put(PaySafeHttpClient.MAX_CONNECTIONS_PER_ROUTE, "20");
+        PaySafeHttpClient client1 = PaySafeHttpClient.getInstance(new PartnerConfiguration(partnerConfigurationMap, new HashMap<>()));
+        PaySafeHttpClient client2 = PaySafeHttpClient.getInstance(new PartnerConfiguration(otherConfigurationMap, new HashMap<>()));
+        Assert.assertNotSame(client1, client2);
+    }
+
+    @Test
+    public void getInstanceOtherEnvironmentConfiguration(){
+        Map<String, String> otherConfigurationMap = new HashMap<>(partnerConfigurationMap);
+        otherConfigurationMap.put(PaySafeHttpClient.SANDBOX_PREFIX + PaySafeHttpClient.READ_SOCKET_TIMEOUT, "1000");
+        PaySafeHttpClient client1 = PaySafeHttpClient.getInstance(new PartnerConfiguration(partnerConfigurationMap, new HashMap<>()));
+        PaySafeHttpClient client2 = PaySafeHttpClient.getInstance(new PartnerConfiguration(otherConfigurationMap, new HashMap<>()));
+        Assert.assertNotSame(client1, client2);
+    }
+
+    @Test
+    public void getBulkheadPerEnvironment(){
+        Map<String, String> otherConfigurationMap = new HashMap<>(partnerConfigurationMap);
+        otherConfigurationMap.put(PaySafeHttpClient.SANDBOX_PREFIX + PaySafeHttpClient.READ_SOCKET_TIMEOUT, "1000");
+        otherConfigurationMap.put(PaySafeHttpClient.SANDBOX_PREFIX + PaySafeHttpClient.MAX_CONCURRENT_CALLS, "5");
+        otherConfigurationMap.put(PaySafeHttpClient.PRODUCTION_PREFIX + PaySafeHttpClient.MAX_CONNECTIONS_TOTAL, "50");
+        client = PaySafeHttpClient.getInstance(new PartnerConfiguration(otherConfigurationMap, new HashMap<>()));
+
+        PaySafeBulkhead sandbox = client.getBulkhead(true);
+        PaySafeBulkhead production = client.getBulkhead(false);
+        Assert.assertNotSame(sandbox, production);
+        Assert.assertEquals(1000, sandbox.getRequestConfig().getSocketTimeout());
+        Assert.assertEquals(4000, production.getRequestConfig().getSocketTimeout());
+        Assert.assertEquals(2000, production.getRequestConfig().getConnectTimeout());
+        Assert.assertEquals(5, sandbox.getAvailableCalls());
+        // as many calls as connections by default
+        Assert.assertEquals(50, production.getAvailableCalls());
+    }
+
+    @Test
+    public void getRequestConfigPerOperation(){
+        Map<String, String> otherConfigurationMap = new HashMap<>(partnerConfigurationMap);
+        otherConfigurationMap.put(PaySafeHttpClient.getOperationKey(PaySafeOperation.RETRIEVE, PaySafeHttpClient.READ_SOCKET_TIMEOUT), "500");
+        otherConfigurationMap.put(PaySafeHttpClient.SANDBOX_PREFIX + PaySafeHttpClient.getOperationKey(PaySafeOperation.RETRIEVE, PaySafeHttpClient.READ_SOCKET_TIMEOUT), "300");
+        otherConfigurationMap.put(PaySafeHttpClient.getOperationKey(PaySafeOperation.CAPTURE, PaySafeHttpClient.READ_SOCKET_TIMEOUT), "8000");
+        otherConfigurationMap.put(PaySafeHttpClient.getOperationKey(PaySafeOperation.CAPTURE, PaySafeHttpClient.DEADLINE), "20000");
+        client = PaySafeHttpClient.getInstance(new PartnerConfiguration(otherConfigurationMap, new HashMap<>()));
+
+        Assert.assertEquals(300, client.getBulkhead(true).getRequestConfig(PaySafeOperation.RETRIEVE, 10000).getSocketTimeout());
+        Assert.assertEquals(500, client.getBulkhead(false).getRequestConfig(PaySafeOperation.RETRIEVE, 10000).getSocketTimeout());
+        Assert.assertEquals(8000, client.getBulkhead(false).getRequestConfig(PaySafeOperation.CAPTURE, 10000).getSocketTimeout());
+        Assert.assertEquals(4000, client.getBulkhead(false).getRequestConfig(PaySafeOperation.REFUND, 10000).getSocketTimeout());
+        Assert.assertEquals(2000, client.getBulkhead(false).getRequestConfig(PaySafeOperation.RETRIEVE, 10000).getConnectTimeout());
+        Assert.assertEquals(20000, client.getBulkhead(false).getTimeoutProfile(PaySafeOperation.CAPTURE).getDeadline());
+        Assert.assertEquals(15000, client.getBulkhead(false).getTimeoutProfile(PaySafeOperation.RETRIEVE).getDeadline());
+    }
+
+    @Test
+    public void getRequestConfigShortenedByDeadline(){
+        client = PaySafeHttpClient.getInstance(new PartnerConfiguration(partnerConfigurationMap, new HashMap<>()));
+
+        Assert.assertSame(client.getBulkhead(true).getRequestConfig(PaySafeOperation.CAPTURE, 10000), client.getBulkhead(true).getRequestConfig(PaySafeOperation.CAPTURE, 5000));
+        Assert.assertEquals(2500, client.getBulkhead(true).getRequestConfig(PaySafeOperation.CAPTURE, 2500).getSocketTimeout());
+        Assert.assertEquals(2000, client.getBulkhead(true).getRequestConfig(PaySafeOperation.CAPTURE, 2500).getConnectTimeout());
+        Assert.assertEquals(1000, client.getBulkhead(true).getRequestConfig(PaySafeOperation.CAPTURE, 1000).getConnectTimeout());
+    }
+
+    @Test
+    public void getInstanceWithoutConfiguration(){
+        client = PaySafeHttpClient.getInstance(new PartnerConfiguration(new HashMap<>(), new HashMap<>()));
+        Assert.assertNotNull(client);
     }
 
 }
@@ -0,0 +1,50 @@
+package com.payline.payment.paysafecard.test.utils;
+
+import com.payline.payment.paysafecard.utils.PaySafeCardConstants;
+import com.payline.payment.paysafecard.utils.PollingSchedule;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class PollingScheduleTest {
+
+    private PollingSchedule schedule = PollingSchedule.PollingScheduleBuilder.aPollingSchedule()
+            .withPendingDelay(PaySafeCardConstants.STATUS_INITIATED, 400)
+            .withPendingDelay(PaySafeCardConstants.STATUS_REDIRECTED, 100)
+            .withErrorDelay(200)
+            .withMaxDelay(1000)
+            .withMaxPolls(5)
+            .withDeadline(5000)
+            .build();
+
+    @Test
+    public void delayDependsOnStatus() {
+        Assert.assertEquals(400, schedule.getDelay(PaySafeCardConstants.STATUS_INITIATED, 1));
+        Assert.assertEquals(100, schedule.getDelay(PaySafeCardConstants.STATUS_REDIRECTED, 1));
+        Assert.assertEquals(200, schedule.getDelay(null, 1));
+        Assert.assertEquals(-1, schedule.getDelay(PaySafeCardConstants.STATUS_SUCCESS, 1));
+        Assert.assertEquals(-1, schedule.getDelay(PaySafeCardConstants.STATUS_CANCELED_CUSTOMER, 1));
+        Assert.assertTrue(schedule.isPending(PaySafeCardConstants.STATUS_AUTHORIZED));
+        Assert.assertFalse(schedule.isPending(PaySafeCardConstants.STATUS_EXPIRED));
+    }
+
+    @Test
+    public void delayGrowsUpToMaxDelay() {
+        Assert.assertEquals(200, schedule.getDelay(PaySafeCardConstants.STATUS_REDIRECTED, 2));
+        Assert.assertEquals(800, schedule.getDelay(PaySafeCardConstants.STATUS_REDIRECTED, 4));
+        Assert.assertEquals(1000, schedule.getDelay(PaySafeCardConstants.STATUS_REDIRECTED, 5));
+        Assert.assertEquals(1000, schedule.getDelay(PaySafeCardConstants.STATUS_INITIATED, 50));
+    }
+
+    @Test
+    public void noPollAfterMaxPollsOrDeadline() {
+        Assert.assertTrue(schedule.hasNextPoll(1, 0, 100));
+        Assert.assertFalse(schedule.hasNextPoll(5, 0, 100));
+        Assert.assertFalse(schedule.hasNextPoll(1, 4950, 100));
+        Assert.assertFalse(schedule.hasNextPoll(1, 0, -1));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void buildWithoutPoll() {
+        PollingSchedule.PollingScheduleBuilder.aPollingSchedule().withMaxPolls(0).build();
+    }
+}
@@ -0,0 +1,77 @@
+package com.payline.payment.paysafecard.test.utils;
+
+import com.payline.payment.paysafecard.utils.PaySafeOperation;
+import com.payline.payment.paysafecard.utils.RetryPolicy;
+import org.apache.http.conn.ConnectTimeoutException;
+import org.junit.Assert;
+import org.junit.Test;
+
+import javax.net.ssl.SSLHandshakeException;
+import java.io.IOException;
+import java.net.ConnectException;
+import java.net.SocketTimeoutException;
+import java.util.ArrayList;
+import java.util.List;
+
+public class RetryPolicyTest {
+
+    private RetryPolicy policy = RetryPolicy.RetryPolicyBuilder.aRetryPolicy()
+            .withMaxAttempts(3)
+            .withBaseDelay(100)
+            .withMaxDelay(300)
+            .withJitter(0.5)
+            .withDeadline(1000)
+            .build();
+
+    @Test
+    public void retryIdempotentOperation() {
+        Assert.assertTrue(policy.isRetryable(PaySafeOperation.RETRIEVE, new SocketTimeoutException()));
+        Assert.assertTrue(policy.isRetryable(PaySafeOperation.RETRIEVE, new IOException()));
+        Assert.assertTrue(policy.isRetryable(PaySafeOperation.RETRIEVE, 503));
+        Assert.assertFalse(policy.isRetryable(PaySafeOperation.RETRIEVE, 400));
+        Assert.assertFalse(policy.isRetryable(PaySafeOperation.RETRIEVE, new SSLHandshakeException("bad certificate")));
+    }
+
+    @Test
+    public void retryNonIdempotentOperationOnlyIfNotSent() {
+        Assert.assertFalse(policy.isRetryable(PaySafeOperation.INITIATE, new SocketTimeoutException()));
+        Assert.assertFalse(policy.isRetryable(PaySafeOperation.CAPTURE, 503));
+        Assert.assertTrue(policy.isRetryable(PaySafeOperation.INITIATE, new ConnectException()));
+        Assert.assertTrue(policy.isRetryable(PaySafeOperation.REFUND, new ConnectTimeoutException()));
+    }
+
+    @Test
+    public void exceptionsCopied() {
+        List<Class<? extends Exception>> notSent = new ArrayList<>();
+        notSent.add(ConnectException.class);
+        RetryPolicy customPolicy = RetryPolicy.RetryPolicyBuilder.aRetryPolicy().withNotSentExceptions(notSent).build();
+        notSent.add(SocketTimeoutException.class);
+
+        Assert.assertTrue(customPolicy.isRetryable(PaySafeOperation.INITIATE, new ConnectException()));
+        Assert.assertFalse(customPolicy.isRetryable(PaySafeOperation.INITIATE, new SocketTimeoutException()));
+    }
+
+    @Test
+    public void delayGrowsUpToMaxDelay() {
+        for (int i = 0; i < 100; i++) {
+            long first = policy.getDelay(1);
+            long second = policy.getDelay(2);
+            long last = policy.getDelay(10);
+            Assert.assertTrue(first >= 50 && first <= 100);
+            Assert.assertTrue(second >= 100 && second <= 200);
+            Assert.assertTrue(last >= 150 && last <= 300);
+        }
+    }
+
+    @Test
+    public void noAttemptAfterMaxAttemptsOrDeadline() {
+        Assert.assertTrue(policy.hasNextAttempt(1, 0, 100));
+        Assert.assertFalse(policy.hasNextAttempt(3, 0, 100));
+        Assert.assertFalse(policy.hasNextAttempt(1, 950, 100));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void buildWithoutAttempt() {
+        RetryPolicy.RetryPolicyBuilder.aRetryPolicy().withMaxAttempts(0).build();
+    }
+}
@@ -0,0 +1,65 @@
+package com.payline.payment.paysafecard.test.utils;
+
+import com.payline.payment.paysafecard.utils.TokenBucket;
+import com.payline.payment.paysafecard.utils.TokenBucketCache;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+public class TokenBucketCacheTest {
+
+    private AtomicLong now = new AtomicLong(1000);
+    private TokenBucketCache cache = new TokenBucketCache(2);
+
+    private TokenBucket createUsedBucket() {
+        TokenBucket bucket = new TokenBucket(1, 2, now::get);
+        bucket.tryAcquire();
+        return bucket;
+    }
+
+    @Test
+    public void getCreatesOnce() {
+        TokenBucket bucket = cache.get("a", this::createUsedBucket);
+
+        Assert.assertSame(bucket, cache.get("a", this::createUsedBucket));
+        Assert.assertSame(bucket, cache.getIfPresent("a"));
+        Assert.assertNull(cache.getIfPresent("b"));
+    }
+
+    @Test
+    public void boundedWithMoreKeys() {
+        for (int i = 0; i < 10; i++) {
+            cache.get("key" + i, this::createUsedBucket);
+            Assert.assertTrue(cache.size() <= 2);
+        }
+        Assert.assertEquals(2, cache.size());
+        Assert.assertNotNull(cache.getIfPresent("key8"));
+        Assert.assertNotNull(cache.getIfPresent("key9"));
+    }
+
+    @Test
+    public void evictLeastRecentlyUsed() {
+        cache.get("a", this::createUsedBucket);
+        cache.get("b", this::createUsedBucket);
+        cache.get("a", this::createUsedBucket);
+        cache.get("c", this::createUsedBucket);
+
+        Assert.assertNotNull(cache.getIfPresent("a"));
+        Assert.assertNull(cache.getIfPresent("b"));
+        Assert.assertNotNull(cache.getIfPresent("c"));
+    }
+
+    @Test
+    public void evictFullFirst() {
+        cache.get("a", () -> new TokenBucket(1, 2, now::get));
+        cache.get("b", this::createUsedBucket);
+        cache.get("a", this::createUsedBucket);
+        cache.get("c", this::createUsedBucket);
+
+        // the bucket of a is full, it is removed although b is less recently used
+        Assert.assertNull(cache.getIfPresent("a"));
+        Assert.assertNotNull(cache.getIfPresent("b"));
+        Assert.assertNotNull(cache.getIfPresent("c"));
+    }
+}
@@ -0,0 +1,87 @@
+package com.payline.payment.paysafecard.test.utils;
+
+import com.payline.payment.paysafecard.utils.TokenBucket;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+public class TokenBucketTest {
+    private static final long MILLIS = TimeUnit.MILLISECONDS.toNanos(1);
+
+    private AtomicLong now = new AtomicLong(1000 * MILLIS);
+    // 10 tokens per second, 3 in a burst
+    private TokenBucket bucket = new TokenBucket(10, 3, now::get);
+
+    @Test
+    public void burstThenRate() {
+        Assert.assertEquals(3.0, bucket.getAvailableTokens(), 0.001);
+        Assert.assertTrue(bucket.tryAcquire());
+        Assert.assertTrue(bucket.tryAcquire());
+        Assert.assertTrue(bucket.tryAcquire());
+        Assert.assertFalse(bucket.tryAcquire());
+        Assert.assertEquals(0.0, bucket.getAvailableTokens(), 0.001);
+
+        now.addAndGet(100 * MILLIS);
+        Assert.assertTrue(bucket.tryAcquire());
+        Assert.assertFalse(bucket.tryAcquire());
+    }
+
+    @Test
+    public void fullWhenIdle() {
+        Assert.assertTrue(bucket.isFull());
+        Assert.assertTrue(bucket.tryAcquire());
+        Assert.assertFalse(bucket.isFull());
+        now.addAndGet(100 * MILLIS);
+        Assert.assertTrue(bucket.isFull());
+    }
+
+    @Test
+    public void idleBucketDoesNotExceedBurst() {
+        now.addAndGet(10000 * MILLIS);
+        Assert.assertEquals(3.0, bucket.getAvailableTokens(), 0.001);
+        for (int i = 0; i < 3; i++) {
+            Assert.assertTrue(bucket.tryAcquire());
+        }
+        Assert.assertFalse(bucket.tryAcquire());
+    }
+
+    @Test
+    public void reserveWithinMaxWait() {
+        for (int i = 0; i < 3; i++) {
+            Assert.assertEquals(0, bucket.reserve(0));
+        }
+        Assert.assertEquals(-1, bucket.reserve(50 * MILLIS));
+        Assert.assertEquals(100 * MILLIS, bucket.reserve(150 * MILLIS));
+        Assert.assertEquals(200 * MILLIS, bucket.reserve(Long.MAX_VALUE));
+        Assert.assertEquals(-2.0, bucket.getAvailableTokens(), 0.001);
+    }
+
+    @Test
+    public void concurrentAcquire() throws InterruptedException {
+        AtomicInteger acquired = new AtomicInteger();
+        Thread[] threads = new Thread[8];
+        for (int i = 0; i < threads.length; i++) {
+            threads[i] = new Thread(() -> {
+                for (int j = 0; j < 1000; j++) {
+                    if (bucket.tryAcquire()) {
+                        acquired.incrementAndGet();
+                    }
+                }
+            });
+            threads[i].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        // the clock does not move: only the burst is available
+        Assert.assertEquals(3, acquired.get());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void createWithoutRate() {
+        new TokenBucket(0, 1);
+    }
+}
@@ -0,0 +1,63 @@
+package com.payline.payment.paysafecard.test.utils;
+
+import com.payline.payment.paysafecard.utils.TtlCache;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+public class TtlCacheTest {
+
+    private AtomicLong now = new AtomicLong(1000);
+    private TtlCache<String, String> cache = new TtlCache<>(2, now::get);
+
+    @Test
+    public void getBeforeExpiration() {
+        cache.put("a", "A", 100);
+        now.addAndGet(99);
+        Assert.assertEquals("A", cache.get("a"));
+        now.addAndGet(1);
+        Assert.assertNull(cache.get("a"));
+        Assert.assertEquals(0, cache.size());
+    }
+
+    @Test
+    public void evictLeastRecentlyUsed() {
+        cache.put("a", "A", 100);
+        cache.put("b", "B", 100);
+        cache.get("a");
+        cache.put("c", "C", 100);
+
+        Assert.assertEquals("A", cache.get("a"));
+        Assert.assertNull(cache.get("b"));
+        Assert.assertEquals("C", cache.get("c"));
+    }
+
+    @Test
+    public void evictExpiredFirst() {
+        cache.put("a", "A", 100);
+        cache.put("b", "B", 10);
+        cache.get("b");
+        now.addAndGet(50);
+        cache.put("c", "C", 100);
+
+        Assert.assertEquals("A", cache.get("a"));
+        Assert.assertEquals("C", cache.get("c"));
+    }
+
+    @Test
+    public void invalidate() {
+        cache.put("a", "A", 100);
+        cache.put("b", "B", 100);
+        cache.invalidate("a");
+        Assert.assertNull(cache.get("a"));
+        Assert.assertEquals("B", cache.get("b"));
+        cache.invalidateAll();
+        Assert.assertEquals(0, cache.size());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void createEmpty() {
+        new TtlCache<String, String>(0);
+    }
+}
@@ -0,0 +1,32 @@
+package com.payline.payment.paysafecard.test.utils.i18n;
+
+import com.payline.payment.paysafecard.utils.i18n.I18nService;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.Locale;
+
+public class I18nServiceTest {
+
+    private static final String KEY = "contract.authorisationKey.label";
+
+    private I18nService i18n = I18nService.getInstance();
+
+    @Test
+    public void getMessage() {
+        Assert.assertEquals("Cl\u00e9 API de paiement", i18n.getMessage(KEY, Locale.FRENCH));
+        Assert.assertEquals("Cl\u00e9 API de paiement", i18n.getMessage(KEY, Locale.FRANCE));
+        Assert.assertEquals("Payment API key", i18n.getMessage(KEY, Locale.ENGLISH));
+    }
+
+    @Test
+    public void getMessageOtherLanguage() {
+        // no translation file: the default language is used
+        Assert.assertEquals("Payment API key", i18n.getMessage(KEY, Locale.JAPANESE));
+    }
+
+    @Test
+    public void getMessageMissingKey() {
+        Assert.assertEquals("???fr.foo???", i18n.getMessage("foo", Locale.FRENCH));
+    }
+}